@@ -1,7 +1,6 @@
 package io.github.luolong47.dbchecker.config;
 
 import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -155,9 +154,9 @@ public class DataSourceConfig {
             return new DisabledDataSource(name);
         }
         
-        // 数据源已启用，创建并返回真实数据源
-        log.info("创建数据源 [{}]", name);
-        return new HikariDataSource(config);
+        // 数据源已启用，连接池在第一次获取连接时创建
+        log.info("创建数据源 [{}]，连接池在首次使用时创建", name);
+        return new LazyHikariDataSource(name, config);
     }
     
     /**
@@ -3,7 +3,11 @@ package io.github.luolong47.dbchecker.config;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,12 +18,21 @@ public class Dbconfig {
     private Include include = new Include();
     private Export export = new Export();
     private Resume resume = new Resume();
+    private History history = new History();
+    private Rerun rerun = new Rerun();
+    private MetadataCache metadataCache = new MetadataCache();
+    private Catalog catalog = new Catalog();
     private Formula formula = new Formula();
     private SlaveQuery slaveQuery = new SlaveQuery();
     private Sum sum = new Sum();
     private Pool pool = new Pool();
     private Map<String, Map<String, String>> where;
     private Hints hints;
+    private Session session = new Session();
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private Retry retry = new Retry();
+    private Planner planner = new Planner();
+    private ParallelBudget parallelBudget = new ParallelBudget();
     private Init init = new Init();
 
     @Data
@@ -27,6 +40,15 @@ public class Dbconfig {
         private ThreadPoolProperties table = new ThreadPoolProperties();
         private ThreadPoolProperties dbQuery = new ThreadPoolProperties();
         private ThreadPoolProperties csvExport = new ThreadPoolProperties();
+        private ConnectionPool connection = new ConnectionPool();
+    }
+
+    @Data
+    public static class ConnectionPool {
+        // 是否按计划的查询并发自动调整各数据源的最大连接数和最小空闲连接数，数据源配置的maximum-pool-size作为上限
+        private boolean autoSize = true;
+        // 最小空闲连接数占最大连接数的比例
+        private double minIdleRatio = 0.25;
     }
 
     @Data
@@ -49,11 +71,88 @@ public class Dbconfig {
     @Data
     public static class Export {
         private String directory = "./export";
+        // 结果文件压缩方式：none、gzip、zstd
+        private String compression = "none";
+        // 压缩级别，-1表示使用压缩算法默认级别
+        private int compressionLevel = -1;
+        // 单个结果文件分卷大小，0表示不切分
+        private DataSize rotateSize = DataSize.ofBytes(0);
+        private Ordered ordered = new Ordered();
+        private Xlsx xlsx = new Xlsx();
+    }
+
+    @Data
+    public static class Ordered {
+        private boolean enable = false;
+        // 重排缓冲区内存上限，超出后写出有序段到临时文件
+        private DataSize bufferSize = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Xlsx {
+        private boolean enable = false;
+        private int windowSize = 500;
+        // 单个sheet的最大数据行数，不含表头，不能超过Excel的1048575
+        private int rowsPerSheet = 1000000;
+        // 待写入的表队列容量，队列满时导出线程等待XLSX写线程消费
+        private int queueCapacity = 1024;
     }
 
     @Data
     public static class Resume {
         private String file = "./export/resume_state.json";
+        // 是否忽略上次运行的状态全量重跑，也可使用命令行参数--fresh
+        private boolean fresh = false;
+        // 状态日志达到该大小后压缩为快照
+        private DataSize compactSize = DataSize.ofMegabytes(16);
+        // 状态日志两次fsync之间的最小间隔（毫秒）
+        private long syncIntervalMs = 100;
+        // 合并的快照请求两次写出之间的最小间隔（毫秒）
+        private long snapshotIntervalMs = 5000;
+        // 状态事件队列容量，队列满时提交事件的线程等待日志写线程消费
+        private int queueCapacity = 65536;
+        // 关闭时等待最终快照落盘的最长时间（毫秒），0表示一直等待
+        private long shutdownTimeoutMs = 30000;
+    }
+
+    @Data
+    public static class History {
+        private boolean enable = true;
+        // H2数据库文件路径（不含.mv.db扩展名）
+        private String file = "./export/history/db_checker_history";
+        // 单次批量写入的最大记录数
+        private int batchSize = 500;
+        // 保留最近多少次运行的历史，0表示不清理
+        private int keepRuns = 30;
+        // 清理过期历史后关闭时压缩数据库文件
+        private boolean compactOnClose = true;
+    }
+
+    @Data
+    public static class Rerun {
+        // 是否只重跑上次运行中结果有问题的库，其余库复用上次的结果；也可使用命令行参数--rerun-failures
+        private boolean enable = false;
+        // 需要重跑的结果类型：formula-failed（公式不通过的表的所有库）、error（查询失败的库）、timeout（查询超时的库）
+        private List<String> outcomes = new ArrayList<>(Arrays.asList("formula-failed", "error", "timeout"));
+    }
+
+    @Data
+    public static class MetadataCache {
+        private boolean enable = true;
+        // 缓存文件路径，保存各库的目录快照及对应的目录版本
+        private String file = "./export/metadata_cache.json";
+        // 目录快照的有效期（小时），行数和大小估计超过有效期后重新采集，0表示不限制
+        private long maxAgeHours = 24;
+    }
+
+    @Data
+    public static class Catalog {
+        // 每批目录查询绑定的表名数量
+        private int chunkSize = 1000;
+        // 单个库同时执行的目录查询数
+        private int parallelism = 4;
+        // 目录查询的fetch size
+        private int fetchSize = 1000;
     }
 
     @Data
@@ -77,11 +176,92 @@ public class Dbconfig {
         private int minDecimalDigits = 2;
     }
 
+    @Data
+    public static class CircuitBreaker {
+        // 是否启用数据源熔断
+        private boolean enable = true;
+        // 连续多少次获取连接失败后熔断
+        private int failureThreshold = 3;
+        // 熔断后等待多久放行一次探测查询（毫秒）
+        private long openMillis = 30000;
+    }
+
+    @Data
+    public static class Retry {
+        // 是否重试可恢复的查询失败
+        private boolean enable = true;
+        // 单个查询最多执行的次数，包括第一次
+        private int maxAttempts = 3;
+        // 第一次重试前的等待时间（毫秒），之后按倍数增长
+        private long initialBackoffMillis = 1000;
+        // 等待时间的增长倍数
+        private double multiplier = 2.0;
+        // 等待时间上限（毫秒）
+        private long maxBackoffMillis = 30000;
+        // 本次运行所有查询共用的重试次数上限
+        private int budget = 200;
+    }
+
+    @Data
+    public static class Planner {
+        // 是否按目录统计信息在单次扫描和拆分查询之间选择，不启用时有WHERE条件的表都单次扫描
+        private boolean enable = true;
+        // 拆分查询的估算代价不超过单次扫描代价的该比例时才拆分
+        private double splitCostRatio = 0.5;
+        // 行数估计少于该值的表直接单次扫描
+        private long minRows = 100000;
+        // 没有统计信息时非唯一索引等值条件的选择率
+        private double defaultSelectivity = 0.01;
+    }
+
+    @Data
+    public static class ParallelBudget {
+        // 是否限制同一物理库上同时运行的查询的并行度总和
+        private boolean enable = true;
+        // 每个物理库的并行度预算
+        private int defaultBudget = 32;
+        // 按数据源单独配置的预算：数据源名 -> 并行度预算
+        private Map<String, Integer> datasource = new HashMap<>();
+    }
+
+    @Data
+    public static class Session {
+        // 会话参数模板：模板名 -> 设置和恢复语句
+        private Map<String, SessionProfile> profiles = new HashMap<>();
+        // 数据源默认使用的模板：数据源名 -> 模板名
+        private Map<String, String> datasource = new HashMap<>();
+        // 表类别：类别名 -> 表名列表，逗号分隔
+        private Map<String, String> table = new HashMap<>();
+        // 表类别在各数据源上使用的模板：类别名 -> (数据源名 -> 模板名)，优先于数据源默认模板
+        private Map<String, Map<String, String>> type = new HashMap<>();
+    }
+
+    @Data
+    public static class SessionProfile {
+        // 查询前在连接上依次执行的语句
+        private List<String> apply = new ArrayList<>();
+        // 查询后把连接恢复原状的语句，执行失败时连接不再放回连接池
+        private List<String> reset = new ArrayList<>();
+    }
+
     @Data
     public static class Hints {
         private Map<String, String> type;
         private Map<String, String> table;
         private Map<String, String> sql;
+        private AutoHint auto = new AutoHint();
+    }
+
+    @Data
+    public static class AutoHint {
+        // 是否按目录统计信息和数据库类型自动生成提示，type/table/sql中手工配置的表和库优先
+        private boolean enable = true;
+        // 段大小达到该值的表才并行查询
+        private DataSize parallelThreshold = DataSize.ofGigabytes(1);
+        // 每个并行度对应的段大小，并行度与段大小成正比
+        private DataSize bytesPerDegree = DataSize.ofGigabytes(1);
+        // 并行度上限
+        private int maxDegree = 16;
     }
 
     @Data
@@ -0,0 +1,182 @@
+package io.github.luolong47.dbchecker.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 延迟创建连接池的数据源
+ * 启动时只保存Hikari配置，第一次获取连接时才创建连接池；连接池关闭后再次使用时重新创建。
+ * 只在少数表上使用的库不会在启动时就占用minimum-idle个会话，库的查询全部完成后也可以提前释放连接。
+ * 指向同一物理库的多个数据源通过shareWith共用第一个数据源的连接池。
+ * 连接池大小可以在运行中通过resize调整。
+ */
+@Slf4j
+public class LazyHikariDataSource implements DataSource, Closeable {
+
+    private final String name;
+    private final HikariConfig config;
+    private volatile HikariDataSource pool;
+    // 共用连接池的数据源，为null时使用自己的连接池
+    private volatile LazyHikariDataSource shared;
+
+    public LazyHikariDataSource(String name, HikariConfig config) {
+        this.name = name;
+        this.config = config;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 连接池的配置，修改后在下一次创建连接池时生效
+     */
+    public HikariConfig getConfig() {
+        return config;
+    }
+
+    public String getDriverClassName() {
+        return config.getDriverClassName();
+    }
+
+    /**
+     * 改为使用另一个数据源的连接池，需要在第一次获取连接前调用
+     */
+    public void shareWith(LazyHikariDataSource target) {
+        this.shared = target;
+    }
+
+    /**
+     * 连接池是否已创建且未关闭
+     */
+    public boolean isOpen() {
+        if (shared != null) {
+            return shared.isOpen();
+        }
+        HikariDataSource current = pool;
+        return current != null && !current.isClosed();
+    }
+
+    /**
+     * 获取连接池，未创建时按配置创建。Hikari创建连接池后会锁定配置，每次使用配置的副本
+     */
+    public HikariDataSource getPool() {
+        if (shared != null) {
+            return shared.getPool();
+        }
+        HikariDataSource current = pool;
+        if (current == null) {
+            synchronized (this) {
+                current = pool;
+                if (current == null) {
+                    HikariConfig copy = new HikariConfig();
+                    config.copyStateTo(copy);
+                    current = new HikariDataSource(copy);
+                    pool = current;
+                    log.info("数据源 [{}] 首次使用，创建连接池，最大连接数: {}，最小空闲连接数: {}", name,
+                        copy.getMaximumPoolSize(), copy.getMinimumIdle());
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 调整连接池大小。连接池已创建时通过HikariConfigMXBean立即生效，同时写入配置，重新创建连接池时使用新的大小
+     */
+    public synchronized void resize(int maximumPoolSize, int minimumIdle) {
+        if (shared != null) {
+            shared.resize(maximumPoolSize, minimumIdle);
+            return;
+        }
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(minimumIdle);
+        HikariDataSource current = pool;
+        if (current == null || current.isClosed()) {
+            return;
+        }
+        // 调整过程中保持最小空闲连接数不超过最大连接数：调大时先调最大连接数，调小时先调最小空闲连接数
+        HikariConfigMXBean mxBean = current.getHikariConfigMXBean();
+        if (maximumPoolSize >= mxBean.getMaximumPoolSize()) {
+            mxBean.setMaximumPoolSize(maximumPoolSize);
+            mxBean.setMinimumIdle(minimumIdle);
+        } else {
+            mxBean.setMinimumIdle(minimumIdle);
+            mxBean.setMaximumPoolSize(maximumPoolSize);
+        }
+    }
+
+    /**
+     * 关闭连接池并释放全部连接，之后再次使用时重新创建。共用其他数据源连接池时不做处理，由连接池所属的数据源关闭
+     */
+    @Override
+    public synchronized void close() {
+        HikariDataSource current = pool;
+        if (current != null) {
+            pool = null;
+            current.close();
+            log.info("数据源 [{}] 的连接池已关闭", name);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getPool().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getPool().getConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        HikariDataSource current = pool;
+        return current == null ? null : current.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        getPool().setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        config.setConnectionTimeout(TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(config.getConnectionTimeout());
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        return getPool().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || getPool().isWrapperFor(iface);
+    }
+}
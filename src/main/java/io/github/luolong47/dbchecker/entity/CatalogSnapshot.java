@@ -0,0 +1,119 @@
+package io.github.luolong47.dbchecker.entity;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 数据源的目录快照
+ * 由各库的TableService按批量查询一次性得到：需要检查的表、列定义（类型/精度/小数位）、行数和大小估计、分区、主键和索引定义。
+ * 表存在性、金额列、SQL构建和调度都从快照读取，不再单独查询数据字典。表名和列名统一为大写。
+ */
+@Data
+public class CatalogSnapshot {
+    // 金额列识别使用的定点数类型
+    private static final List<String> DECIMAL_TYPES = Arrays.asList("NUMBER", "NUMERIC", "DECIMAL");
+
+    private String db;
+    // 采集时间（毫秒），行数和大小是统计信息的估计值，缓存超过有效期后重新采集
+    private long collectTime;
+    // 表名 -> 表元数据，同名表出现在多个模式中时保留配置顺序靠前的模式
+    private Map<String, TableMeta> tables = new LinkedHashMap<>();
+
+    public CatalogSnapshot() {
+    }
+
+    public CatalogSnapshot(String db) {
+        this.db = db;
+        this.collectTime = System.currentTimeMillis();
+    }
+
+    public TableMeta getTable(String tableName) {
+        return tables.get(tableName);
+    }
+
+    /**
+     * 按模式和表名查找表，模式不一致时返回null，用于把列、分区和索引挂到快照中保留的那张表上
+     */
+    public TableMeta findTable(String schemaName, String tableName) {
+        TableMeta table = tables.get(tableName);
+        return table != null && table.getSchemaName().equalsIgnoreCase(schemaName) ? table : null;
+    }
+
+    @Data
+    public static class TableMeta {
+        private String tableName;
+        private String schemaName;
+        // 行数估计，没有统计信息时为null
+        private Long rowCount;
+        // 段大小估计（字节），没有统计信息时为null
+        private Long sizeBytes;
+        private List<ColumnMeta> columns = new ArrayList<>();
+        private List<PartitionMeta> partitions = new ArrayList<>();
+        private List<IndexMeta> indexes = new ArrayList<>();
+
+        public ColumnMeta getColumn(String columnName) {
+            return columns.stream().filter(c -> c.getName().equals(columnName)).findFirst().orElse(null);
+        }
+
+        /**
+         * 获取金额列，即小数位数不少于minDecimalDigits的定点数列，按列定义顺序返回
+         */
+        public List<String> getDecimalColumns(int minDecimalDigits) {
+            return columns.stream()
+                .filter(c -> DECIMAL_TYPES.contains(c.getDataType()) && c.getScale() != null && c.getScale() >= minDecimalDigits)
+                .map(ColumnMeta::getName)
+                .collect(Collectors.toList());
+        }
+
+        public boolean hasPartitions() {
+            return !partitions.isEmpty();
+        }
+
+        public IndexMeta findPrimaryKey() {
+            return indexes.stream().filter(IndexMeta::isPrimaryKey).findFirst().orElse(null);
+        }
+
+        /**
+         * 索引是否包含所有行：主键或包含非空列的索引，可以代替全表扫描计数
+         */
+        public boolean coversAllRows(IndexMeta index) {
+            return index.isPrimaryKey() || index.getColumns().stream()
+                .map(this::getColumn)
+                .anyMatch(column -> column != null && !column.isNullable());
+        }
+    }
+
+    @Data
+    public static class ColumnMeta {
+        private String name;
+        private String dataType;
+        private Integer precision;
+        private Integer scale;
+        private boolean nullable;
+    }
+
+    @Data
+    public static class PartitionMeta {
+        private String name;
+        private Long rowCount;
+    }
+
+    @Data
+    public static class IndexMeta {
+        private String name;
+        private boolean primaryKey;
+        private boolean unique;
+        // 索引列，按索引中的顺序
+        private List<String> columns = new ArrayList<>();
+        // 叶子块数（GaussDB为索引页数），没有统计信息时为null
+        private Long leafBlocks;
+        // 不同键值数，没有统计信息时为null
+        private Long distinctKeys;
+    }
+}
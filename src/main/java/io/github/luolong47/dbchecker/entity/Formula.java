@@ -1,11 +1,17 @@
 package io.github.luolong47.dbchecker.entity;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 public interface Formula {
 
     String getDesc();
 
+    /**
+     * 公式读取结果的库
+     */
+    List<String> getDbs();
+
     boolean result(TableInfo tableInfo,String col);
 
     BigDecimal diff(TableInfo tableInfo,String col);
@@ -4,6 +4,8 @@ import cn.hutool.core.util.StrUtil;
 import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -14,6 +16,11 @@ public class Formula1 extends AbstractFormula {
         return StrUtil.format("公式1: ora = rlcms_pv1 + rlcms_pv2 + rlcms_pv3");
     }
 
+    @Override
+    public List<String> getDbs() {
+        return Arrays.asList("ora", "rlcms-pv1", "rlcms-pv2", "rlcms-pv3");
+    }
+
     @Override
     protected boolean compareValues(Map<String, BigDecimal> colResult) {
         BigDecimal oraValue = getValueOrZero(colResult, "ora");
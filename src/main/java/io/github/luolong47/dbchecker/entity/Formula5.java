@@ -3,6 +3,8 @@ package io.github.luolong47.dbchecker.entity;
 import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -13,6 +15,11 @@ public class Formula5 extends AbstractFormula {
         return "公式5: ora = rlcms_base = rlcms_pv1 = rlcms_pv2 = rlcms_pv3";
     }
 
+    @Override
+    public List<String> getDbs() {
+        return Arrays.asList("ora", "rlcms-base", "rlcms-pv1", "rlcms-pv2", "rlcms-pv3");
+    }
+
     @Override
     protected boolean compareValues(Map<String, BigDecimal> colResult) {
         BigDecimal oraValue = getValueOrZero(colResult, "ora");
@@ -0,0 +1,30 @@
+package io.github.luolong47.dbchecker.entity;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 从运行历史中读取的上次运行结果，用于只重跑结果有问题的库
+ */
+@Data
+public class PreviousRun {
+
+    private long runId;
+
+    private Timestamp startTime;
+
+    // 求和结果（表名 -> {库名 -> {列名 -> 值}}）
+    private Map<String, Map<String, Map<String, BigDecimal>>> cells = new HashMap<>();
+
+    // 查询失败的库（表名 -> {库名 -> 结果类型error/timeout}）
+    private Map<String, Map<String, String>> failedQueries = new HashMap<>();
+
+    // 有公式不通过的表
+    private Set<String> formulaFailedTables = new HashSet<>();
+}
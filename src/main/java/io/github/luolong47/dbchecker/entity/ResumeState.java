@@ -3,12 +3,12 @@ package io.github.luolong47.dbchecker.entity;
 import lombok.Data;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 断点续跑状态类，用于保存和恢复处理状态
@@ -17,14 +17,8 @@ import java.util.concurrent.atomic.AtomicReference;
 public class ResumeState implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    // 已完成处理的表名集合
-    private Set<String> completedTables = ConcurrentHashMap.newKeySet();
-    
-    // 进行中的表名集合
-    private Set<String> processingTables = ConcurrentHashMap.newKeySet();
-    
-    // 待处理的表名集合
-    private Set<String> pendingTables = ConcurrentHashMap.newKeySet();
+    // 每张表的处理状态（待处理/进行中/已完成），状态迁移通过CAS完成，各状态数量O(1)查询
+    private final TableStateRegistry tableStates = new TableStateRegistry();
     
     // 保存的处理时间戳
     private AtomicLong timestamp = new AtomicLong(0);
@@ -32,37 +26,70 @@ public class ResumeState implements Serializable {
     // 任务总数量
     private AtomicInteger totalTables = new AtomicInteger(0);
     
-    // 已完成任务数量
-    private AtomicInteger completedCount = new AtomicInteger(0);
-    
-    // 进行中的任务数量
-    private AtomicInteger processingCount = new AtomicInteger(0);
-    
-    // 待处理的任务数量
-    private AtomicInteger pendingCount = new AtomicInteger(0);
-    
-    // 当前进度百分比
-    private AtomicReference<Double> progressPercentage = new AtomicReference<>(0.0);
-    
     // 已处理的每张表的总体用时（表名 -> 总毫秒数）
     private Map<String, AtomicLong> tableProcessingTimes = new ConcurrentHashMap<>();
     
     // 已处理的每张表在每个库的处理用时（表名 -> {库名 -> 毫秒数}）
     private Map<String, Map<String, AtomicLong>> tableDbProcessingTimes = new ConcurrentHashMap<>();
     
+    // 已完成查询的求和结果（表名 -> {列名 -> {库名 -> 值}}），与TableInfo.sumResult结构一致
+    private Map<String, Map<String, Map<String, BigDecimal>>> tableSumResults = new ConcurrentHashMap<>();
+    
     // 额外的状态信息
     private Map<String, Object> extraInfo = new ConcurrentHashMap<>();
     
     /**
-     * 更新进度百分比
+     * 将表标记为待处理，只对未登记或进行中的表生效
+     * 
+     * @return 状态发生变化时返回true
+     */
+    public boolean markPending(String tableName) {
+        return tableStates.compareAndTransition(tableName, TableStateRegistry.NONE, TableStateRegistry.PENDING)
+            || tableStates.compareAndTransition(tableName, TableStateRegistry.PROCESSING, TableStateRegistry.PENDING);
+    }
+    
+    /**
+     * 将表标记为进行中，已完成的表也可以重新进入进行中状态
+     * 
+     * @return 状态发生变化时返回true，表已在进行中时返回false
+     */
+    public boolean markProcessing(String tableName) {
+        return tableStates.transition(tableName, TableStateRegistry.PROCESSING);
+    }
+    
+    /**
+     * 将表标记为已完成
+     * 
+     * @return 状态发生变化时返回true，表已完成时返回false
+     */
+    public boolean markCompleted(String tableName) {
+        return tableStates.transition(tableName, TableStateRegistry.COMPLETED);
+    }
+    
+    /**
+     * 将表移出状态统计，用于本次配置中已不存在的表
+     */
+    public void removeTable(String tableName) {
+        tableStates.transition(tableName, TableStateRegistry.NONE);
+    }
+    
+    public boolean isTableCompleted(String tableName) {
+        return tableStates.getState(tableName) == TableStateRegistry.COMPLETED;
+    }
+    
+    /**
+     * 已完成的表列表，需要遍历全部表，用于生成快照
      */
-    public void updateProgressPercentage() {
-        if (totalTables.get() > 0) {
-            double progress = (double) completedCount.get() / totalTables.get() * 100;
-            progressPercentage.set(progress);
-        } else {
-            progressPercentage.set(0.0);
-        }
+    public List<String> getCompletedTables() {
+        return tableStates.tablesIn(TableStateRegistry.COMPLETED);
+    }
+    
+    public List<String> getProcessingTables() {
+        return tableStates.tablesIn(TableStateRegistry.PROCESSING);
+    }
+    
+    public List<String> getPendingTables() {
+        return tableStates.tablesIn(TableStateRegistry.PENDING);
     }
     
     /**
@@ -90,6 +117,23 @@ public class ResumeState implements Serializable {
             .set(timeMillis);
     }
     
+    /**
+     * 记录表在特定数据库的求和结果
+     * 
+     * @param tableName 表名
+     * @param dbName 数据库名
+     * @param colValues 列名 -> 求和值
+     */
+    public void recordTableDbResult(String tableName, String dbName, Map<String, BigDecimal> colValues) {
+        Map<String, Map<String, BigDecimal>> sumResult = tableSumResults
+            .computeIfAbsent(tableName, k -> new ConcurrentHashMap<>());
+        colValues.forEach((col, value) -> {
+            if (value != null) {
+                sumResult.computeIfAbsent(col, k -> new ConcurrentHashMap<>()).put(dbName, value);
+            }
+        });
+    }
+    
     // 自定义getter方法，让外部调用更方便
     public int getTotalTables() {
         return totalTables.get();
@@ -100,27 +144,15 @@ public class ResumeState implements Serializable {
     }
     
     public int getCompletedCount() {
-        return completedCount.get();
-    }
-    
-    public void setCompletedCount(int completedCount) {
-        this.completedCount.set(completedCount);
+        return tableStates.count(TableStateRegistry.COMPLETED);
     }
     
     public int getProcessingCount() {
-        return processingCount.get();
-    }
-    
-    public void setProcessingCount(int processingCount) {
-        this.processingCount.set(processingCount);
+        return tableStates.count(TableStateRegistry.PROCESSING);
     }
     
     public int getPendingCount() {
-        return pendingCount.get();
-    }
-    
-    public void setPendingCount(int pendingCount) {
-        this.pendingCount.set(pendingCount);
+        return tableStates.count(TableStateRegistry.PENDING);
     }
     
     public long getTimestamp() {
@@ -131,8 +163,12 @@ public class ResumeState implements Serializable {
         this.timestamp.set(timestamp);
     }
     
+    /**
+     * 当前进度百分比，由计数器直接计算
+     */
     public double getProgressPercentage() {
-        return progressPercentage.get();
+        int total = totalTables.get();
+        return total > 0 ? (double) getCompletedCount() / total * 100 : 0.0;
     }
     
     public Map<String, Long> getTableProcessingTimes() {
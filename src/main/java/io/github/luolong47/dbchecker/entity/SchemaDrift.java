@@ -0,0 +1,31 @@
+package io.github.luolong47.dbchecker.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+
+/**
+ * 表结构差异：与参照库（有ora时为ora）相比，某库上的金额列缺失、类型不一致或多出金额列
+ */
+@Data
+@AllArgsConstructor
+public class SchemaDrift {
+    private String tableName;
+    private String db;
+    private String column;
+    private Type type;
+    private String detail;
+
+    @Getter
+    @AllArgsConstructor
+    public enum Type {
+        // 参照库的金额列在该库上不存在，该库的SQL不查询此列
+        MISSING_COLUMN("缺少列"),
+        // 列存在但不是金额列或小数位数不同，仍然查询
+        TYPE_MISMATCH("类型不一致"),
+        // 该库上的金额列在参照库上不是金额列，不查询
+        EXTRA_COLUMN("多出金额列");
+
+        private final String desc;
+    }
+}
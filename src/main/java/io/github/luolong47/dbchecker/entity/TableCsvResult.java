@@ -3,6 +3,8 @@ package io.github.luolong47.dbchecker.entity;
 import lombok.Data;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
 
 @Data
 public class TableCsvResult {
@@ -23,4 +25,5 @@ public class TableCsvResult {
     private String formulaResult;
     private BigDecimal diff;
     private String diffDesc;
+    private Map<String, String> dbStatus = Collections.emptyMap(); //db->未得到结果的原因，导出时代替该库的求和值
 }
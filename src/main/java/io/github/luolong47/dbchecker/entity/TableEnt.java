@@ -1,9 +0,0 @@
-package io.github.luolong47.dbchecker.entity;
-
-import lombok.Data;
-
-@Data
-public class TableEnt {
-    private String tableName;
-    private String schemaName;
-}
@@ -5,15 +5,23 @@ import lombok.Data;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Data
 public class TableInfo {
+    // 数据源不可用（熔断中或无法获取连接），查询未得到结果
+    public static final String STATUS_UNAVAILABLE = "UNAVAILABLE";
+    // 查询失败且不可重试或重试后仍失败
+    public static final String STATUS_ERROR = "ERROR";
+
     private String tableName;
     private String schemaName;
     private List<String> dbs;
     private List<String> sumCols;
     private Map<String, Map<String, BigDecimal>> sumResult; //sum->(db->value)
     private Formula formula;
+    private Map<String, String> dbStatus = new ConcurrentHashMap<>(); //db->查询状态，只记录未得到结果的库
+    private Map<String, String> dbHints = new ConcurrentHashMap<>(); //db->查询使用的SQL提示，没有提示的库不记录
 
     public TableInfo(String tableName, List<String> dbs) {
         this.tableName = tableName;
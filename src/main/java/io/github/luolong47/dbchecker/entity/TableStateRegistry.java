@@ -0,0 +1,165 @@
+package io.github.luolong47.dbchecker.entity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 表状态登记表
+ * 每张表首次出现时分配一个序号，状态以整数保存在分段的AtomicIntegerArray中，状态迁移通过CAS完成，
+ * 迁移成功的线程同时更新对应状态的分段计数器（LongAdder），各状态的表数量查询为O(1)。
+ * 分段按需创建，扩容时不需要复制已有数据，也不会阻塞正在进行的状态迁移。
+ */
+public class TableStateRegistry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int NONE = 0;
+    public static final int PENDING = 1;
+    public static final int PROCESSING = 2;
+    public static final int COMPLETED = 3;
+    private static final int STATE_COUNT = 4;
+
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    // 表名 -> 序号，只在首次登记时写入
+    private final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+    private final LongAdder[] counters = new LongAdder[STATE_COUNT];
+
+    public TableStateRegistry() {
+        for (int i = 0; i < STATE_COUNT; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 获取表的当前状态，未登记的表返回NONE
+     */
+    public int getState(String tableName) {
+        Integer index = indexes.get(tableName);
+        return index == null ? NONE : segment(index).states.get(index & SEGMENT_MASK);
+    }
+
+    /**
+     * 将表迁移到目标状态
+     *
+     * @return 状态发生变化时返回true，已处于目标状态时返回false
+     */
+    public boolean transition(String tableName, int to) {
+        int index = indexOf(tableName);
+        AtomicIntegerArray states = segment(index).states;
+        int slot = index & SEGMENT_MASK;
+        while (true) {
+            int current = states.get(slot);
+            if (current == to) {
+                return false;
+            }
+            if (states.compareAndSet(slot, current, to)) {
+                moveCount(current, to);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 仅当表处于期望状态时迁移到目标状态
+     *
+     * @return 迁移成功返回true
+     */
+    public boolean compareAndTransition(String tableName, int expected, int to) {
+        if (expected == to) {
+            return false;
+        }
+        int index = indexOf(tableName);
+        if (segment(index).states.compareAndSet(index & SEGMENT_MASK, expected, to)) {
+            moveCount(expected, to);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 处于某状态的表数量
+     */
+    public int count(int state) {
+        return (int) counters[state].sum();
+    }
+
+    /**
+     * 已登记的表数量，包括移出统计后处于NONE状态的表
+     */
+    public int size() {
+        return nextIndex.get();
+    }
+
+    /**
+     * 列出处于某状态的所有表，需要遍历全部表，只用于生成快照等低频操作
+     */
+    public List<String> tablesIn(int state) {
+        List<String> result = new ArrayList<>();
+        int size = nextIndex.get();
+        for (int index = 0; index < size; index++) {
+            Segment segment = segments.get(index >>> SEGMENT_BITS);
+            if (segment == null) {
+                continue;
+            }
+            int slot = index & SEGMENT_MASK;
+            String name = segment.names.get(slot);
+            if (name != null && segment.states.get(slot) == state) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    private void moveCount(int from, int to) {
+        if (from != NONE) {
+            counters[from].decrement();
+        }
+        if (to != NONE) {
+            counters[to].increment();
+        }
+    }
+
+    private int indexOf(String tableName) {
+        Integer index = indexes.get(tableName);
+        if (index != null) {
+            return index;
+        }
+        return indexes.computeIfAbsent(tableName, name -> {
+            int newIndex = nextIndex.getAndIncrement();
+            if ((newIndex >>> SEGMENT_BITS) >= MAX_SEGMENTS) {
+                throw new IllegalStateException("表数量超过上限: " + (MAX_SEGMENTS * SEGMENT_SIZE));
+            }
+            segment(newIndex).names.set(newIndex & SEGMENT_MASK, name);
+            return newIndex;
+        });
+    }
+
+    private Segment segment(int index) {
+        int segmentIndex = index >>> SEGMENT_BITS;
+        Segment segment = segments.get(segmentIndex);
+        if (segment == null) {
+            // 多个线程同时创建时只有一个能设置成功，其余使用已设置的分段
+            segments.compareAndSet(segmentIndex, null, new Segment());
+            segment = segments.get(segmentIndex);
+        }
+        return segment;
+    }
+
+    private static final class Segment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicIntegerArray states = new AtomicIntegerArray(SEGMENT_SIZE);
+        private final AtomicReferenceArray<String> names = new AtomicReferenceArray<>(SEGMENT_SIZE);
+    }
+}
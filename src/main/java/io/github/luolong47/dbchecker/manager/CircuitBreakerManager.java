@@ -0,0 +1,183 @@
+package io.github.luolong47.dbchecker.manager;
+
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 数据源熔断管理类
+ * 按物理库统计连续的获取连接失败，达到db.circuit-breaker.failure-threshold后熔断：
+ * 熔断期间该库的查询在获取JdbcTemplate时立即失败，不再逐个等待连接超时；
+ * 熔断open-millis后放行一个探测查询，探测成功恢复，失败则继续熔断。其他库不受影响。
+ */
+@Slf4j
+@Component
+public class CircuitBreakerManager {
+
+    private final Dbconfig dbconfig;
+    private final DynamicDataSourceManager dynamicDataSourceManager;
+    // 物理库标识 -> 熔断状态
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerManager(Dbconfig dbconfig, DynamicDataSourceManager dynamicDataSourceManager) {
+        this.dbconfig = dbconfig;
+        this.dynamicDataSourceManager = dynamicDataSourceManager;
+    }
+
+    /**
+     * 检查数据源是否可以执行查询，熔断中时抛出DataSourceUnavailableException。
+     * 熔断时间已过时放行一个探测查询，调用方需要通过recordSuccess或recordFailure报告结果
+     *
+     * @param name 数据源名称
+     */
+    public void acquire(String name) {
+        Dbconfig.CircuitBreaker options = getOptions();
+        if (!options.isEnable()) {
+            return;
+        }
+        String physicalKey = dynamicDataSourceManager.getPhysicalKey(name);
+        Breaker breaker = breakers.get(physicalKey);
+        if (breaker == null) {
+            return;
+        }
+        synchronized (breaker) {
+            if (breaker.openedAt == 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            // 上一个探测查询超过熔断时间仍未报告结果时，再放行一个
+            if (now - Math.max(breaker.openedAt, breaker.probeStartedAt) >= options.getOpenMillis()) {
+                breaker.probeStartedAt = now;
+                log.info("数据源 [{}] 熔断 {}ms 后放行探测查询", name, now - breaker.openedAt);
+                return;
+            }
+        }
+        throw new DataSourceUnavailableException("数据源 [" + name + "] 连续获取连接失败，已熔断");
+    }
+
+    /**
+     * 查询成功，清除连续失败计数，熔断中的数据源恢复
+     */
+    public void recordSuccess(String name) {
+        Breaker breaker = breakers.get(dynamicDataSourceManager.getPhysicalKey(name));
+        if (breaker == null) {
+            return;
+        }
+        synchronized (breaker) {
+            if (breaker.openedAt != 0) {
+                log.info("数据源 [{}] 探测查询成功，解除熔断", name);
+            }
+            breaker.failures = 0;
+            breaker.openedAt = 0;
+            breaker.probeStartedAt = 0;
+        }
+    }
+
+    /**
+     * 查询失败。只有获取连接失败计入连续失败次数，其他错误说明数据库可以连接，按成功处理
+     *
+     * @return 失败原因是数据源不可用（熔断中或无法获取连接）时返回true
+     */
+    public boolean recordFailure(String name, Throwable e) {
+        if (e instanceof DataSourceUnavailableException) {
+            return true;
+        }
+        if (!isConnectionFailure(e)) {
+            recordSuccess(name);
+            return false;
+        }
+        Dbconfig.CircuitBreaker options = getOptions();
+        if (!options.isEnable()) {
+            return true;
+        }
+        Breaker breaker = breakers.computeIfAbsent(dynamicDataSourceManager.getPhysicalKey(name), k -> new Breaker());
+        synchronized (breaker) {
+            breaker.failures++;
+            if (breaker.openedAt != 0) {
+                // 探测查询失败，重新开始计算熔断时间
+                breaker.openedAt = System.currentTimeMillis();
+                breaker.probeStartedAt = 0;
+                log.warn("数据源 [{}] 探测查询仍无法获取连接，继续熔断 {}ms", name, options.getOpenMillis());
+            } else if (breaker.failures >= options.getFailureThreshold()) {
+                breaker.openedAt = System.currentTimeMillis();
+                log.error("数据源 [{}] 连续 {} 次获取连接失败，熔断 {}ms，期间该库的查询直接标记为不可用",
+                    name, breaker.failures, options.getOpenMillis());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 数据源当前是否处于熔断中
+     */
+    public boolean isOpen(String name) {
+        Breaker breaker = breakers.get(dynamicDataSourceManager.getPhysicalKey(name));
+        return breaker != null && breaker.openedAt != 0;
+    }
+
+    /**
+     * 失败原因是否是数据源不可用：熔断中，或异常链中有连不上数据库、连接中断的异常
+     */
+    public static boolean isUnavailable(Throwable e) {
+        return e instanceof DataSourceUnavailableException || isConnectionFailure(e);
+    }
+
+    /**
+     * 异常链中是否有连不上数据库或连接中断的异常。
+     * 连接池取连接超时（SQLTransientConnectionException）在池被占满时也会抛出，本身不算连接失败，
+     * 只有超时带出的最近一次建连异常是连接失败时才计入；池满由查询重试按可恢复失败处理
+     */
+    public static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CannotGetJdbcConnectionException && !isPoolTimeout(cause.getCause())) {
+                return true;
+            }
+            if (cause instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("08")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPoolTimeout(Throwable e) {
+        return e instanceof SQLTransientConnectionException;
+    }
+
+    private Dbconfig.CircuitBreaker getOptions() {
+        return Optional.ofNullable(dbconfig.getCircuitBreaker()).orElseGet(Dbconfig.CircuitBreaker::new);
+    }
+
+    private static final class Breaker {
+        // 连续获取连接失败次数
+        private int failures;
+        // 熔断开始时间，0表示未熔断
+        private long openedAt;
+        // 最近一次放行探测查询的时间
+        private long probeStartedAt;
+    }
+
+    /**
+     * 数据源熔断中，查询未执行
+     */
+    public static class DataSourceUnavailableException extends CannotGetJdbcConnectionException {
+        private static final long serialVersionUID = 1L;
+
+        public DataSourceUnavailableException(String msg) {
+            super(msg);
+        }
+    }
+}
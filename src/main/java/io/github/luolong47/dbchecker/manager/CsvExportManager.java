@@ -1,20 +1,22 @@
 package io.github.luolong47.dbchecker.manager;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.text.csv.CsvUtil;
-import cn.hutool.core.text.csv.CsvWriteConfig;
 import cn.hutool.core.text.csv.CsvWriter;
 import cn.hutool.core.util.StrUtil;
 import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.SchemaDrift;
 import io.github.luolong47.dbchecker.entity.TableCsvResult;
+import io.github.luolong47.dbchecker.writer.CsvResultWriter;
+import io.github.luolong47.dbchecker.writer.ResultFileOutput;
+import io.github.luolong47.dbchecker.writer.TableReorderBuffer;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,15 +36,16 @@ public class CsvExportManager {
         "SUM_BSCOPY_PV1", "SUM_BSCOPY_PV2", "SUM_BSCOPY_PV3",
         "应用公式", "公式结果", "差异值", "差异描述"
     };
+    public static final String[] DRIFT_HEADERS = new String[]{"表名", "库", "列名", "差异类型", "说明"};
 
     // 添加计数器，用于显示进度
     private AtomicInteger csvExportCounter = new AtomicInteger(0);
-    // 添加共享文件锁，确保多线程写入安全
-    private final Object csvFileLock = new Object();
-    // 添加共享的CSV写入器
-    private CsvWriter csvWriter;
-    // 保存CSV文件路径
+    // CSV写入器，导出线程在写锁内逐表写入带缓冲的CsvWriter
+    private CsvResultWriter csvWriter;
+    // 保存CSV文件路径，启用切分时为第一个分卷
     private File csvFile;
+    // 本次导出的文件名前缀（不含扩展名），其他格式的导出文件与CSV同名
+    private String baseName;
     
     private final Dbconfig dbconfig;
 
@@ -67,31 +70,54 @@ public class CsvExportManager {
                 .orElse("./export");
 
             // 构建CSV文件路径 - 使用当前时间戳作为文件名
-            String filePath = StrUtil.format("db_checker_result_{}.csv", new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()));
-            csvFile = new File(exportDir, filePath);
-            FileUtil.mkParentDirs(csvFile);
+            baseName = StrUtil.format("db_checker_result_{}", new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()));
+            File dir = new File(exportDir);
+            FileUtil.mkdir(dir);
 
-            log.info("初始化CSV导出，文件路径: {}", csvFile.getAbsolutePath());
+            // 压缩和分卷切分由结果文件输出完成
+            Dbconfig.Export export = Optional.ofNullable(dbconfig.getExport()).orElseGet(Dbconfig.Export::new);
+            ResultFileOutput output = new ResultFileOutput(dir, baseName, ".csv",
+                resolveCompression(export.getCompression()),
+                export.getCompressionLevel(),
+                export.getRotateSize() == null ? 0 : export.getRotateSize().toBytes());
 
-            // 创建CSV写入器 - 配置为支持Bean写入，指定头部别名
-            CsvWriteConfig config = new CsvWriteConfig();
-            config.setHeaderAlias(createHeaderAlias()); // 设置表头别名映射
-
-            // 使用FileWriter创建CsvWriter
-            FileWriter fileWriter = new FileWriter(csvFile);
-
-            // 创建CsvWriter，并初始化表头
-            csvWriter = CsvUtil.getWriter(fileWriter, config);
-
-            // 手动写入表头行，原来的writeHeaderLine()可能没有生效
-            csvWriter.write(HEADERS);
+            // 创建CSV写入器，每个分卷开头写入表头
+            csvWriter = new CsvResultWriter(output, HEADERS);
+            Dbconfig.Ordered ordered = Optional.ofNullable(export.getOrdered()).orElseGet(Dbconfig.Ordered::new);
+            if (ordered.isEnable()) {
+                // 排序输出时结果在写入器关闭时才归并落盘
+                csvWriter.setReorderBuffer(new TableReorderBuffer(dir, baseName, ordered.getBufferSize().toBytes()));
+                log.info("CSV按表名排序输出已启用，重排缓冲区上限: {}", ordered.getBufferSize());
+            }
+            csvWriter.open();
+            csvFile = output.getCurrentFile();
 
-            log.info("CSV写入器初始化完成，已手动写入表头");
+            log.info("CSV写入器初始化完成，文件路径: {}，压缩方式: {}，分卷大小: {}",
+                csvFile.getAbsolutePath(), output.getCompression(),
+                export.getRotateSize() == null || export.getRotateSize().toBytes() <= 0 ? "不切分" : export.getRotateSize());
         } catch (Exception e) {
             log.error("初始化CSV导出失败: {}", e.getMessage(), e);
         }
     }
     
+    /**
+     * 解析结果文件的压缩方式，配置值无法识别或压缩库不可用时不压缩输出，不影响结果导出
+     */
+    private static ResultFileOutput.Compression resolveCompression(String name) {
+        ResultFileOutput.Compression compression;
+        try {
+            compression = ResultFileOutput.Compression.of(name);
+        } catch (IllegalArgumentException e) {
+            log.warn("无法识别的压缩方式 db.export.compression={}，可选值: none, gzip, zstd，本次结果文件不压缩", name);
+            return ResultFileOutput.Compression.NONE;
+        }
+        if (!compression.isAvailable()) {
+            log.warn("压缩方式 {} 在当前环境不可用，本次结果文件不压缩", name);
+            return ResultFileOutput.Compression.NONE;
+        }
+        return compression;
+    }
+
     /**
      * 导出表数据到CSV
      * 
@@ -105,41 +131,16 @@ public class CsvExportManager {
             return;
         }
         
-        // 线程安全地将结果写入CSV
-        synchronized (csvFileLock) {
-            if (csvWriter != null) {
-                try {
-                    // 将所有参数转换为字符串，放入数组中传递给write方法
-                    for (TableCsvResult result : results) {
-                        // 将每个对象的字段值转换为字符串数组
-                        String[] rowData = new String[]{
-                            result.getTableName(),
-                            result.getDbs(),
-                            result.getSumCols(),
-                            result.getCol(),
-                            formatBigDecimal(result.getSumOraAll()),
-                            formatBigDecimal(result.getSumOra()),
-                            formatBigDecimal(result.getSumRlcmsBase()),
-                            formatBigDecimal(result.getSumRlcmsPv1()),
-                            formatBigDecimal(result.getSumRlcmsPv2()),
-                            formatBigDecimal(result.getSumRlcmsPv3()),
-                            formatBigDecimal(result.getSumBscopyPv1()),
-                            formatBigDecimal(result.getSumBscopyPv2()),
-                            formatBigDecimal(result.getSumBscopyPv3()),
-                            result.getFormula() != null ? result.getFormula() : "",
-                            result.getFormulaResult() != null ? result.getFormulaResult() : "",
-                            formatBigDecimal(result.getDiff()),
-                            result.getDiffDesc() != null ? result.getDiffDesc() : ""
-                        };
-                        csvWriter.write(rowData);
-                    }
-                    log.debug("表 [{}] 的 {} 条记录已写入CSV", tableName, results.size());
-                } catch (Exception e) {
-                    log.error("写入表 [{}] 的CSV数据时发生错误: {}", tableName, e.getMessage(), e);
-                }
-            } else {
-                log.warn("CSV写入器为空，无法写入表 [{}] 的数据", tableName);
+        if (csvWriter != null) {
+            // 在锁外完成行数据转换，写锁内只做编码和写入缓冲区
+            List<String[]> rows = new ArrayList<>(results.size());
+            for (TableCsvResult result : results) {
+                rows.add(toRow(result));
             }
+            csvWriter.write(tableName, rows);
+            log.debug("表 [{}] 的 {} 条记录已写入CSV", tableName, rows.size());
+        } else {
+            log.warn("CSV写入器为空，无法写入表 [{}] 的数据", tableName);
         }
         
         // 更新计数器并显示进度
@@ -148,39 +149,78 @@ public class CsvExportManager {
             current, totalTables, Math.round((float) current / totalTables * 100), tableName);
     }
     
+    /**
+     * 把表结构差异写入与结果文件同名的 _schema_drift.csv，没有差异时不生成文件
+     *
+     * @param drifts 表结构差异列表
+     */
+    public void exportSchemaDrift(List<SchemaDrift> drifts) {
+        if (drifts == null || drifts.isEmpty() || baseName == null) {
+            return;
+        }
+        String exportDir = Optional.ofNullable(dbconfig.getExport())
+            .map(Dbconfig.Export::getDirectory)
+            .orElse("./export");
+        File file = new File(exportDir, baseName + "_schema_drift.csv");
+        List<SchemaDrift> sorted = new ArrayList<>(drifts);
+        sorted.sort(Comparator.comparing(SchemaDrift::getTableName)
+            .thenComparing(SchemaDrift::getColumn)
+            .thenComparing(SchemaDrift::getDb));
+        try (CsvWriter writer = CsvUtil.getWriter(file, StandardCharsets.UTF_8)) {
+            writer.writeLine(DRIFT_HEADERS);
+            for (SchemaDrift drift : sorted) {
+                writer.writeLine(drift.getTableName(), drift.getDb(), drift.getColumn(), drift.getType().getDesc(), drift.getDetail());
+            }
+            log.warn("发现 {} 处表结构差异，缺失的列不参与对应库的查询，详见: {}", drifts.size(), file.getAbsolutePath());
+        } catch (Exception e) {
+            log.error("写入表结构差异文件失败: {}", e.getMessage(), e);
+        }
+    }
+
     /**
      * 关闭CSV写入器
      */
     public void closeWriter() {
-        IoUtil.close(csvWriter);
-        log.info("CSV写入器已关闭，文件保存在: {}", csvFile.getAbsolutePath());
+        if (csvWriter != null) {
+            csvWriter.close();
+        }
+        log.info("CSV写入器已关闭，文件保存在: {}", csvFile != null ? csvFile.getParentFile().getAbsolutePath() : "未知");
     }
 
     /**
-     * 创建CSV表头与Bean字段的映射关系
+     * 将结果对象转换为CSV行
      *
-     * @return 表头别名映射
+     * @param result 表的CSV结果
+     * @return 按HEADERS顺序排列的字段值
+     */
+    private String[] toRow(TableCsvResult result) {
+        return new String[]{
+            result.getTableName(),
+            result.getDbs(),
+            result.getSumCols(),
+            result.getCol(),
+            formatCell(result, "ora", result.getSumOraAll()),
+            formatCell(result, "ora", result.getSumOra()),
+            formatCell(result, "rlcms-base", result.getSumRlcmsBase()),
+            formatCell(result, "rlcms-pv1", result.getSumRlcmsPv1()),
+            formatCell(result, "rlcms-pv2", result.getSumRlcmsPv2()),
+            formatCell(result, "rlcms-pv3", result.getSumRlcmsPv3()),
+            formatCell(result, "bscopy-pv1", result.getSumBscopyPv1()),
+            formatCell(result, "bscopy-pv2", result.getSumBscopyPv2()),
+            formatCell(result, "bscopy-pv3", result.getSumBscopyPv3()),
+            result.getFormula() != null ? result.getFormula() : "",
+            result.getFormulaResult() != null ? result.getFormulaResult() : "",
+            formatBigDecimal(result.getDiff()),
+            result.getDiffDesc() != null ? result.getDiffDesc() : ""
+        };
+    }
+
+    /**
+     * 格式化某库的求和值，该库没有得到结果时输出查询状态
      */
-    private Map<String, String> createHeaderAlias() {
-        Map<String, String> headerAlias = new HashMap<>();
-        headerAlias.put("tableName", "表名");
-        headerAlias.put("dbs", "所在库");
-        headerAlias.put("sumCols", "金额字段");
-        headerAlias.put("col", "统计项");
-        headerAlias.put("sumOraAll", "SUM_ORA_ALL");
-        headerAlias.put("sumOra", "SUM_ORA");
-        headerAlias.put("sumRlcmsBase", "SUM_RLCMS_BASE");
-        headerAlias.put("sumRlcmsPv1", "SUM_RLCMS_PV1");
-        headerAlias.put("sumRlcmsPv2", "SUM_RLCMS_PV2");
-        headerAlias.put("sumRlcmsPv3", "SUM_RLCMS_PV3");
-        headerAlias.put("sumBscopyPv1", "SUM_BSCOPY_PV1");
-        headerAlias.put("sumBscopyPv2", "SUM_BSCOPY_PV2");
-        headerAlias.put("sumBscopyPv3", "SUM_BSCOPY_PV3");
-        headerAlias.put("formula", "应用公式");
-        headerAlias.put("formulaResult", "公式结果");
-        headerAlias.put("diff", "差异值");
-        headerAlias.put("diffDesc", "差异描述");
-        return headerAlias;
+    private String formatCell(TableCsvResult result, String db, BigDecimal value) {
+        String status = result.getDbStatus().get(db);
+        return status != null ? status : formatBigDecimal(value);
     }
 
     /**
@@ -197,7 +237,7 @@ public class CsvExportManager {
         // 使用compareTo进行比较，确保数值比较的准确性
         if (value.compareTo(THRESHOLD) > 0) {
             // 添加单引号前缀
-            return StrUtil.format("'{}", value);
+            return "'" + value;
         } else {
             return value.toString();
         }
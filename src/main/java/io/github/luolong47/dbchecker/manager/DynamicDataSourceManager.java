@@ -1,24 +1,54 @@
 package io.github.luolong47.dbchecker.manager;
 
-import com.zaxxer.hikari.HikariDataSource;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.zaxxer.hikari.HikariConfig;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.config.LazyHikariDataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 动态数据源管理器
- * 提供统一的数据源获取接口
+ * 提供统一的数据源获取接口，并按数据源登记未完成的查询任务：
+ * 所有任务登记完成后，没有未完成任务的数据源立即关闭连接池，不在整个运行的收尾阶段一直占用空闲会话。
+ * 驱动、URL、用户名和密码都相同的数据源指向同一物理库，共用先注册的数据源的连接池，任务也按物理库统计。
+ * 启用db.pool.connection.auto-size时，连接池大小随物理库的计划并发调整：
+ * 目录采集的并发数加上min(未完成的查询任务数, 数据库查询线程数)，不超过数据源配置的maximum-pool-size。
  */
 @Slf4j
 @Component
 public class DynamicDataSourceManager {
 
-    private final Map<String, DataSource> dataSources = new ConcurrentHashMap<>();
+    private final Map<String, DataSource> dataSources = new LinkedHashMap<>();
+    // 数据源名称 -> 物理库标识，取指向该物理库的第一个数据源的名称
+    private final Map<String, String> physicalKeys = new ConcurrentHashMap<>();
+    // 物理库标识 -> 未完成的查询任务数
+    private final Map<String, AtomicInteger> pendingTasks = new ConcurrentHashMap<>();
+    // 所有查询任务是否都已登记，之后任务数归零的数据源不会再有新任务
+    private volatile boolean planningComplete;
+    // 物理库标识 -> 配置的最大连接数，自动调整的上限
+    private final Map<String, Integer> poolLimits = new HashMap<>();
+    // 物理库标识 -> 正在进行的目录采集使用的连接数
+    private final Map<String, Integer> catalogDemands = new ConcurrentHashMap<>();
+    // 物理库标识 -> 当前的最大连接数和最小空闲连接数
+    private final Map<String, List<Integer>> poolSizes = new ConcurrentHashMap<>();
+    private final Dbconfig.ConnectionPool poolOptions;
+    // 数据库查询线程数，所有库共用，单个库同时执行的查询不会超过这个数
+    private final int queryThreads;
 
     @Autowired
     public DynamicDataSourceManager(
@@ -30,7 +60,13 @@ public class DynamicDataSourceManager {
             @Qualifier("rlcmsPv3DataSource") DataSource rlcmsPv3DataSource,
             @Qualifier("bscopyPv1DataSource") DataSource bscopyPv1DataSource,
             @Qualifier("bscopyPv2DataSource") DataSource bscopyPv2DataSource,
-            @Qualifier("bscopyPv3DataSource") DataSource bscopyPv3DataSource) {
+            @Qualifier("bscopyPv3DataSource") DataSource bscopyPv3DataSource,
+            Dbconfig dbconfig,
+            @Qualifier("dbQueryExecutor") ExecutorService dbQueryExecutor) {
+        this.poolOptions = dbconfig.getPool().getConnection();
+        this.queryThreads = dbQueryExecutor instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) dbQueryExecutor).getMaximumPoolSize()
+            : Runtime.getRuntime().availableProcessors();
         
         // 注册数据源，并检查enable配置
         registerDataSource("ora", oraDataSource);
@@ -42,6 +78,49 @@ public class DynamicDataSourceManager {
         registerDataSource("bscopy-pv1", bscopyPv1DataSource);
         registerDataSource("bscopy-pv2", bscopyPv2DataSource);
         registerDataSource("bscopy-pv3", bscopyPv3DataSource);
+
+        // 指向同一物理库的数据源共用连接池
+        shareSamePhysicalTargets();
+        physicalKeys.values().stream().distinct().forEach(name -> {
+            DataSource dataSource = dataSources.get(name);
+            if (dataSource instanceof LazyHikariDataSource) {
+                poolLimits.put(name, ((LazyHikariDataSource) dataSource).getConfig().getMaximumPoolSize());
+            }
+        });
+    }
+
+    /**
+     * 按驱动、URL、用户名和密码的摘要对数据源分组，同组的数据源共用第一个数据源的连接池，
+     * 共用的连接池取组内最大的连接数配置
+     */
+    private void shareSamePhysicalTargets() {
+        Map<String, LazyHikariDataSource> owners = new HashMap<>();
+        dataSources.forEach((name, dataSource) -> {
+            if (!(dataSource instanceof LazyHikariDataSource)) {
+                physicalKeys.put(name, name);
+                return;
+            }
+            LazyHikariDataSource lazy = (LazyHikariDataSource) dataSource;
+            LazyHikariDataSource owner = owners.putIfAbsent(fingerprint(lazy.getConfig()), lazy);
+            if (owner == null) {
+                physicalKeys.put(name, name);
+                return;
+            }
+            lazy.shareWith(owner);
+            physicalKeys.put(name, owner.getName());
+            HikariConfig ownerConfig = owner.getConfig();
+            ownerConfig.setMaximumPoolSize(Math.max(ownerConfig.getMaximumPoolSize(), lazy.getConfig().getMaximumPoolSize()));
+            log.info("数据源 [{}] 与 [{}] 指向同一物理库，共用连接池", name, owner.getName());
+        });
+    }
+
+    /**
+     * 物理库指纹，不在日志中输出
+     */
+    private static String fingerprint(HikariConfig config) {
+        String url = StrUtil.removeSuffix(StrUtil.trim(config.getJdbcUrl()), ";");
+        return DigestUtil.sha256Hex(StrUtil.join("\u0000", config.getDriverClassName(), url,
+            config.getUsername(), config.getPassword()));
     }
 
     /**
@@ -50,25 +129,10 @@ public class DynamicDataSourceManager {
      * @param dataSource 数据源实例
      */
     private void registerDataSource(String name, DataSource dataSource) {
-        if (dataSource instanceof HikariDataSource) {
-            HikariDataSource hikariDataSource = (HikariDataSource) dataSource;
-            
-            // 从数据源配置中获取enable属性
-            boolean isEnabled = true; // 默认启用
-            try {
-                // HikariDataSource不直接支持获取配置属性，需要通过反射
-                // 尝试通过getDataSourceProperties获取配置
-                Object properties = hikariDataSource.getClass().getMethod("getDataSourceProperties").invoke(hikariDataSource);
-                if (properties != null) {
-                    Object enableValue = properties.getClass().getMethod("getProperty", String.class).invoke(properties, "enable");
-                    if (enableValue != null) {
-                        isEnabled = Boolean.parseBoolean(enableValue.toString());
-                    }
-                }
-            } catch (Exception e) {
-                // 反射异常，使用默认值(true)
-                log.debug("无法获取数据源 [{}] 的enable配置，使用默认值true: {}", name, e.getMessage());
-            }
+        if (dataSource instanceof LazyHikariDataSource) {
+            // 从数据源配置中获取enable属性，默认启用
+            Object enableValue = ((LazyHikariDataSource) dataSource).getConfig().getDataSourceProperties().get("enable");
+            boolean isEnabled = enableValue == null || Boolean.parseBoolean(enableValue.toString());
 
             if (isEnabled) {
                 dataSources.put(name, dataSource);
@@ -77,7 +141,7 @@ public class DynamicDataSourceManager {
                 log.warn("数据源 [{}] 已禁用，跳过注册", name);
             }
         } else {
-            // 非HikariDataSource直接注册
+            // 非HikariCP数据源直接注册
             dataSources.put(name, dataSource);
             log.info("已注册非HikariCP数据源: [{}]", name);
         }
@@ -104,4 +168,115 @@ public class DynamicDataSourceManager {
     public boolean hasDataSource(String name) {
         return dataSources.containsKey(name);
     }
+
+    /**
+     * 获取数据源指向的物理库标识，指向同一物理库的数据源返回相同的标识
+     *
+     * @param name 数据源名称
+     * @return 物理库标识，即指向该物理库的第一个数据源的名称
+     */
+    public String getPhysicalKey(String name) {
+        return physicalKeys.getOrDefault(name, name);
+    }
+
+    /**
+     * 登记一个将在该数据源上执行的查询任务，需要在任务提交前调用
+     *
+     * @param name 数据源名称
+     */
+    public void retain(String name) {
+        String physicalKey = getPhysicalKey(name);
+        pendingTasks.computeIfAbsent(physicalKey, k -> new AtomicInteger()).incrementAndGet();
+        resizePool(physicalKey);
+    }
+
+    /**
+     * 查询任务完成。所有任务都已登记且该数据源没有未完成的任务时关闭连接池
+     *
+     * @param name 数据源名称
+     */
+    public void release(String name) {
+        String physicalKey = getPhysicalKey(name);
+        AtomicInteger pending = pendingTasks.get(physicalKey);
+        if (pending == null) {
+            return;
+        }
+        if (pending.decrementAndGet() == 0 && planningComplete) {
+            closePool(physicalKey, "查询任务已全部完成");
+        } else {
+            resizePool(physicalKey);
+        }
+    }
+
+    /**
+     * 开始采集数据源的目录快照，采集期间连接池按目录查询的并发数预留连接
+     *
+     * @param name 数据源名称
+     * @param connections 目录采集同时使用的连接数
+     */
+    public void beginCatalog(String name, int connections) {
+        String physicalKey = getPhysicalKey(name);
+        catalogDemands.merge(physicalKey, connections, Integer::sum);
+        resizePool(physicalKey);
+    }
+
+    /**
+     * 数据源的目录快照采集结束，释放预留的连接数
+     *
+     * @param name 数据源名称
+     * @param connections 开始采集时预留的连接数
+     */
+    public void endCatalog(String name, int connections) {
+        String physicalKey = getPhysicalKey(name);
+        catalogDemands.computeIfPresent(physicalKey, (k, v) -> v > connections ? v - connections : null);
+        resizePool(physicalKey);
+    }
+
+    /**
+     * 所有查询任务都已登记：关闭当前没有未完成任务的连接池，其余连接池在最后一个任务完成时关闭
+     */
+    public void planningComplete() {
+        planningComplete = true;
+        physicalKeys.values().stream().distinct().forEach(name -> {
+            AtomicInteger pending = pendingTasks.get(name);
+            if (pending == null || pending.get() == 0) {
+                closePool(name, pending == null ? "没有需要执行的查询任务" : "查询任务已全部完成");
+            }
+        });
+    }
+
+    /**
+     * 按物理库的计划并发调整连接池大小，连接池未创建时在创建时生效
+     */
+    private synchronized void resizePool(String physicalKey) {
+        Integer limit = poolLimits.get(physicalKey);
+        if (!poolOptions.isAutoSize() || limit == null) {
+            return;
+        }
+        AtomicInteger pending = pendingTasks.get(physicalKey);
+        int demand = catalogDemands.getOrDefault(physicalKey, 0)
+            + Math.min(pending == null ? 0 : pending.get(), queryThreads);
+        int maximumPoolSize = Math.max(1, Math.min(limit, demand));
+        int minimumIdle = demand == 0 ? 0 : Math.min(maximumPoolSize, (int) Math.ceil(maximumPoolSize * poolOptions.getMinIdleRatio()));
+        List<Integer> previous = poolSizes.put(physicalKey, Arrays.asList(maximumPoolSize, minimumIdle));
+        if (Arrays.asList(maximumPoolSize, minimumIdle).equals(previous)) {
+            return;
+        }
+        ((LazyHikariDataSource) dataSources.get(physicalKey)).resize(maximumPoolSize, minimumIdle);
+        if (previous == null) {
+            log.info("数据源 [{}] 按计划并发设置连接池，最大连接数: {}，最小空闲连接数: {}（配置上限: {}）",
+                physicalKey, maximumPoolSize, minimumIdle, limit);
+            return;
+        }
+        log.debug("数据源 [{}] 连接池调整为最大连接数: {}，最小空闲连接数: {}（计划并发: {}，上限: {}）",
+            physicalKey, maximumPoolSize, minimumIdle, demand, limit);
+    }
+
+    private void closePool(String name, String reason) {
+        DataSource dataSource = dataSources.get(name);
+        if (dataSource instanceof LazyHikariDataSource && ((LazyHikariDataSource) dataSource).isOpen()) {
+            log.info("数据源 [{}] {}，提前关闭连接池", name, reason);
+            ((LazyHikariDataSource) dataSource).close();
+        }
+    }
 } 
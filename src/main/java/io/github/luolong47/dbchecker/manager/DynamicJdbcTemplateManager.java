@@ -11,7 +11,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 动态JdbcTemplate管理器
- * 根据数据源名称获取对应的JdbcTemplate
+ * 根据数据源名称获取对应的JdbcTemplate，数据源熔断中时直接失败
  */
 @Slf4j
 @Component
@@ -19,10 +19,12 @@ public class DynamicJdbcTemplateManager {
 
     private final Map<String, JdbcTemplate> jdbcTemplates = new ConcurrentHashMap<>();
     private final DynamicDataSourceManager dataSourceManager;
+    private final CircuitBreakerManager circuitBreakerManager;
 
     @Autowired
     public DynamicJdbcTemplateManager(
             DynamicDataSourceManager dataSourceManager,
+            CircuitBreakerManager circuitBreakerManager,
             @Qualifier("oraJdbcTemplate") JdbcTemplate oraJdbcTemplate,
             @Qualifier("oraSlaveJdbcTemplate") JdbcTemplate oraSlaveJdbcTemplate,
             @Qualifier("rlcmsBaseJdbcTemplate") JdbcTemplate rlcmsBaseJdbcTemplate,
@@ -34,6 +36,7 @@ public class DynamicJdbcTemplateManager {
             @Qualifier("bscopyPv3JdbcTemplate") JdbcTemplate bscopyPv3JdbcTemplate) {
         
         this.dataSourceManager = dataSourceManager;
+        this.circuitBreakerManager = circuitBreakerManager;
         
         // 只注册已启用的数据源的JdbcTemplate
         registerJdbcTemplateIfDataSourceExists("ora", oraJdbcTemplate);
@@ -65,12 +68,14 @@ public class DynamicJdbcTemplateManager {
      * 获取指定数据源的JdbcTemplate
      * @param dataSourceName 数据源名称
      * @return JdbcTemplate实例
+     * @throws CircuitBreakerManager.DataSourceUnavailableException 数据源熔断中
      */
     public JdbcTemplate getJdbcTemplate(String dataSourceName) {
         JdbcTemplate jdbcTemplate = jdbcTemplates.get(dataSourceName);
         if (jdbcTemplate == null) {
             throw new IllegalArgumentException("数据源 [" + dataSourceName + "] 的JdbcTemplate不存在或数据源已禁用");
         }
+        circuitBreakerManager.acquire(dataSourceName);
         return jdbcTemplate;
     }
 
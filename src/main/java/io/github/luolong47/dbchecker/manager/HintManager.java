@@ -0,0 +1,141 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.util.StrUtil;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
+import io.github.luolong47.dbchecker.service.TableService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * SQL提示管理类
+ * 表在某库上的提示优先使用db.hints中手工配置的类别提示，类别配置了库时只用于这些库；
+ * 没有手工配置时按目录统计信息和数据库类型自动生成：并行度与段大小成正比，访问方式和提示语法由各库的TableService决定。
+ * 拆分查询由优化器按条件选择索引，不自动生成提示；手工提示按单次扫描的语句编写，配置了手工提示的表和库不拆分查询。
+ */
+@Slf4j
+@Component
+public class HintManager {
+
+    private final Dbconfig dbconfig;
+
+    // 表名 -> 包含该表的手工提示类别，按配置顺序
+    private final Map<String, List<String>> tb2types = new HashMap<>();
+    // 类别 -> 适用的库，库名中的下划线统一为连字符，没有配置时适用于所有库
+    private final Map<String, List<String>> typeDbs = new HashMap<>();
+    // 类别 -> 提示
+    private final Map<String, String> typeSql = new HashMap<>();
+
+    public HintManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    @PostConstruct
+    public void init() {
+        Dbconfig.Hints hints = dbconfig.getHints();
+        if (hints == null) {
+            return;
+        }
+        log.info("开始初始化SQL提示映射...");
+        Optional.ofNullable(hints.getType()).ifPresent(types -> types.forEach((type, dbsStr) ->
+            typeDbs.put(type, StrUtil.split(dbsStr, ",", true, true).stream()
+                .map(HintManager::normalizeDb)
+                .collect(Collectors.toList()))));
+        Optional.ofNullable(hints.getSql()).ifPresent(typeSql::putAll);
+        Optional.ofNullable(hints.getTable()).ifPresent(tables -> tables.forEach((type, tablesStr) -> {
+            if (StrUtil.isEmpty(typeSql.get(type))) {
+                log.warn("类型 [{}] 没有对应的SQL提示配置", type);
+                return;
+            }
+            StrUtil.split(tablesStr, ",", true, true).forEach(tableName ->
+                tb2types.computeIfAbsent(tableName.toUpperCase(), k -> new ArrayList<>()).add(type));
+        }));
+
+        // 检查是否有配置了SQL提示但没有配置表的类型
+        typeSql.keySet().stream()
+            .filter(type -> hints.getTable() == null || !hints.getTable().containsKey(type))
+            .forEach(type -> log.warn("类型 [{}] 有SQL提示配置但没有对应的表配置", type));
+
+        Dbconfig.AutoHint auto = getAutoHint();
+        log.info("SQL提示映射初始化完成，共 {} 个表设置了手工提示，自动生成提示: {}", tb2types.size(),
+            auto.isEnable() ? StrUtil.format("启用，段大小达到{}MB时并行，每{}MB一个并行度，最大并行度{}",
+                auto.getParallelThreshold().toMegabytes(), auto.getBytesPerDegree().toMegabytes(), auto.getMaxDegree()) : "未启用");
+    }
+
+    /**
+     * 获取表在某库上求和查询的提示
+     *
+     * @param tableService 该库的TableService，决定自动生成的提示语法
+     * @param table        表在该库上的目录元数据
+     * @param countOnly    查询只有COUNT(*)
+     * @param split        查询规划选择了拆分查询
+     * @return 完整的提示注释，没有提示时返回null
+     */
+    public String getHint(String tableName, String db, TableService tableService, CatalogSnapshot.TableMeta table,
+                          boolean countOnly, boolean split) {
+        String manual = getManualHint(tableName, db);
+        if (manual != null) {
+            log.debug("表[{}]在库[{}]使用手工配置的SQL提示: {}", tableName, db, manual);
+            return manual;
+        }
+        Dbconfig.AutoHint auto = getAutoHint();
+        if (!auto.isEnable() || split || table == null || tableService == null) {
+            return null;
+        }
+        int degree = getDegree(table, auto);
+        String generated = tableService.buildHint(table, degree, countOnly);
+        if (generated != null) {
+            log.debug("表[{}]在库[{}]自动生成SQL提示: {}，段大小: {}，并行度: {}", tableName, db, generated,
+                table.getSizeBytes(), degree);
+        }
+        return generated;
+    }
+
+    /**
+     * 表在某库上是否有手工配置的提示
+     */
+    public boolean hasManualHint(String tableName, String db) {
+        return getManualHint(tableName, db) != null;
+    }
+
+    private String getManualHint(String tableName, String db) {
+        String normalizedDb = normalizeDb(db);
+        for (String type : tb2types.getOrDefault(tableName, Collections.emptyList())) {
+            List<String> dbs = typeDbs.get(type);
+            if (dbs == null || dbs.isEmpty() || dbs.contains(normalizedDb)) {
+                return typeSql.get(type);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 并行度与段大小成正比，段大小未达到并行阈值或没有统计信息时为1
+     */
+    private static int getDegree(CatalogSnapshot.TableMeta table, Dbconfig.AutoHint auto) {
+        Long sizeBytes = table.getSizeBytes();
+        if (sizeBytes == null || auto.getParallelThreshold() == null || sizeBytes < auto.getParallelThreshold().toBytes()) {
+            return 1;
+        }
+        long bytesPerDegree = auto.getBytesPerDegree() == null ? 1 : Math.max(1, auto.getBytesPerDegree().toBytes());
+        long degree = Math.max(2, (sizeBytes + bytesPerDegree - 1) / bytesPerDegree);
+        return (int) Math.min(auto.getMaxDegree(), degree);
+    }
+
+    private Dbconfig.AutoHint getAutoHint() {
+        return Optional.ofNullable(dbconfig.getHints()).map(Dbconfig.Hints::getAuto).orElseGet(Dbconfig.AutoHint::new);
+    }
+
+    private static String normalizeDb(String db) {
+        return db.trim().replace('_', '-').toLowerCase();
+    }
+}
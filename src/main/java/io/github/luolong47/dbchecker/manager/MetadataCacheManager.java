@@ -0,0 +1,170 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
+import io.github.luolong47.dbchecker.service.TableService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * 元数据缓存管理类
+ * 把各库的目录快照保存在本地文件（db.metadata-cache.file）中，每个条目记录查询时的目录版本标识和查询条件摘要。
+ * 启动时先用一条很小的探测查询取得目录版本，版本和查询条件都没有变化、快照未超过有效期时直接使用缓存，不再扫描数据字典。
+ */
+@Slf4j
+@Component
+public class MetadataCacheManager {
+
+    private static final String KEY_PREFIX = "catalog:";
+
+    private final Dbconfig dbconfig;
+
+    // 缓存键 -> {token, fingerprint, value}
+    private final Map<String, JSONObject> entries = new ConcurrentHashMap<>();
+    // 本次运行中已探测的目录版本：库名|模式 -> 版本，同一库只探测一次
+    private final Map<String, Optional<String>> probedTokens = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private volatile boolean dirty;
+    private File cacheFile;
+    private boolean enabled;
+    private long maxAgeMillis;
+
+    public MetadataCacheManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    /**
+     * 加载缓存文件，文件不存在或损坏时从空缓存开始
+     */
+    public void init() {
+        Dbconfig.MetadataCache config = Optional.ofNullable(dbconfig.getMetadataCache()).orElseGet(Dbconfig.MetadataCache::new);
+        enabled = config.isEnable();
+        if (!enabled) {
+            log.info("元数据缓存未启用");
+            return;
+        }
+        cacheFile = new File(config.getFile());
+        maxAgeMillis = TimeUnit.HOURS.toMillis(config.getMaxAgeHours());
+        if (!FileUtil.exist(cacheFile) || FileUtil.size(cacheFile) == 0) {
+            return;
+        }
+        try {
+            JSONObject json = JSONUtil.parseObj(FileUtil.readUtf8String(cacheFile));
+            json.forEach((key, value) -> {
+                // 只加载目录快照条目，旧版本的其他条目在下次保存时丢弃
+                if (key.startsWith(KEY_PREFIX) && value instanceof JSONObject) {
+                    entries.put(key, (JSONObject) value);
+                }
+            });
+            log.info("加载元数据缓存: {}，共 {} 个条目", cacheFile.getAbsolutePath(), entries.size());
+        } catch (Exception e) {
+            log.warn("元数据缓存文件 [{}] 无法解析，将重新查询数据字典: {}", cacheFile.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 获取库的目录快照，目录版本和查询条件未变化且未超过有效期时使用缓存
+     *
+     * @param db 库名
+     * @param tableService 库对应的TableService
+     * @param jdbcTemplate 库对应的JdbcTemplate
+     * @param schemas 模式列表
+     * @param tables 需要检查的表
+     * @param onChunk 分批回调，使用缓存时以全部表名回调一次
+     */
+    public CatalogSnapshot getCatalogSnapshot(String db, TableService tableService, JdbcTemplate jdbcTemplate,
+                                              List<String> schemas, List<String> tables,
+                                              BiConsumer<List<String>, CatalogSnapshot> onChunk) {
+        if (!enabled) {
+            return tableService.getCatalogSnapshot(jdbcTemplate, db, schemas, tables, onChunk);
+        }
+        String key = KEY_PREFIX + db;
+        String fingerprint = fingerprint(schemas, tables);
+        String token = probe(db, tableService, jdbcTemplate, schemas);
+        JSONObject entry = entries.get(key);
+        if (token != null && entry != null && token.equals(entry.getStr("token"))
+            && fingerprint.equals(entry.getStr("fingerprint")) && entry.get("value") instanceof JSONObject) {
+            CatalogSnapshot cached = JSONUtil.toBean(entry.getJSONObject("value"), CatalogSnapshot.class);
+            // 行数和大小来自统计信息，不随DDL变化，超过有效期后重新采集
+            if (maxAgeMillis <= 0 || System.currentTimeMillis() - cached.getCollectTime() < maxAgeMillis) {
+                hits.incrementAndGet();
+                log.info("库 [{}] 的目录未变化，使用缓存的目录快照（{} 个表）", db, cached.getTables().size());
+                onChunk.accept(tables, cached);
+                return cached;
+            }
+            log.info("库 [{}] 缓存的目录快照已超过有效期，重新采集", db);
+        }
+        misses.incrementAndGet();
+        CatalogSnapshot snapshot = tableService.getCatalogSnapshot(jdbcTemplate, db, schemas, tables, onChunk);
+        if (token != null) {
+            JSONObject newEntry = new JSONObject();
+            newEntry.set("token", token);
+            newEntry.set("fingerprint", fingerprint);
+            newEntry.set("value", JSONUtil.parseObj(snapshot));
+            entries.put(key, newEntry);
+            dirty = true;
+        }
+        return snapshot;
+    }
+
+    /**
+     * 写回缓存文件，先写临时文件再原子替换
+     */
+    public void save() {
+        if (!enabled || !dirty) {
+            log.info("元数据缓存: 命中 {} 次，重新查询 {} 次", hits.get(), misses.get());
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject();
+            entries.forEach(json::set);
+            File tmp = new File(cacheFile.getPath() + ".tmp");
+            FileUtil.writeUtf8String(json.toString(), tmp);
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            log.info("元数据缓存已保存: {}，命中 {} 次，重新查询 {} 次", cacheFile.getAbsolutePath(), hits.get(), misses.get());
+        } catch (Exception e) {
+            log.warn("保存元数据缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private String probe(String db, TableService tableService, JdbcTemplate jdbcTemplate, List<String> schemas) {
+        String probeKey = db + "|" + schemas.stream().sorted().collect(Collectors.joining(","));
+        return probedTokens.computeIfAbsent(probeKey, k -> {
+            try {
+                return Optional.ofNullable(tableService.getCatalogVersion(jdbcTemplate, schemas));
+            } catch (Exception e) {
+                log.warn("查询库 [{}] 的目录版本失败，不使用元数据缓存: {}", db, e.getMessage());
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * 查询条件摘要，与模式和表的顺序无关
+     */
+    private static String fingerprint(Collection<String> schemas, Collection<String> tables) {
+        String text = schemas.stream().sorted().collect(Collectors.joining(",")) + "|"
+            + tables.stream().sorted().collect(Collectors.joining(","));
+        return DigestUtil.sha256Hex(text);
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.luolong47.dbchecker.manager;
+
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 并行度预算管理类
+ * 同一物理库上同时运行的查询共用db.parallel-budget中的并行度预算。查询开始时按提示中请求的并行度从剩余预算中分配，
+ * 剩余不足时只分配剩余部分，不足2时串行执行，查询结束后归还。库空闲时大表得到提示的全部并行度，繁忙时逐步降级，
+ * 同时运行的查询的并行度总和不超过预算。
+ * 提示中的并行度按SQL文本识别和改写：Oracle的PARALLEL(n)、PARALLEL(表 n)、PARALLEL_INDEX(表 索引 n)，GaussDB的set(query_dop n)。
+ */
+@Slf4j
+@Component
+public class ParallelBudgetManager {
+
+    // 并行度在第2组：PARALLEL(n)、PARALLEL(表 n)、PARALLEL_INDEX(表 索引 n)、set(query_dop n)
+    private static final Pattern DEGREE = Pattern.compile(
+        "(PARALLEL\\s*\\(\\s*(?:[\\w$#\"]+\\s+)?|PARALLEL_INDEX\\s*\\(\\s*[\\w$#\"]+\\s+[\\w$#\"]+\\s+|QUERY_DOP\\s+)(\\d+)",
+        Pattern.CASE_INSENSITIVE);
+
+    private final Dbconfig dbconfig;
+    private final DynamicDataSourceManager dynamicDataSourceManager;
+
+    // 物理库标识 -> 预算使用情况
+    private final Map<String, Budget> budgets = new HashMap<>();
+
+    public ParallelBudgetManager(Dbconfig dbconfig, DynamicDataSourceManager dynamicDataSourceManager) {
+        this.dbconfig = dbconfig;
+        this.dynamicDataSourceManager = dynamicDataSourceManager;
+    }
+
+    /**
+     * 从剩余预算中为查询分配并行度，查询结束后需要以返回值调用release
+     *
+     * @param name      实际查询的数据源名称
+     * @param requested 提示中请求的并行度
+     * @return 分配的并行度，1表示串行
+     */
+    public int acquire(String name, int requested) {
+        Dbconfig.ParallelBudget options = getOptions();
+        if (!options.isEnable() || requested < 2) {
+            return requested;
+        }
+        String physicalKey = dynamicDataSourceManager.getPhysicalKey(name);
+        synchronized (this) {
+            Budget budget = budgets.computeIfAbsent(physicalKey, k -> new Budget(getBudget(name, k, options)));
+            int available = budget.total - budget.used;
+            int granted = Math.min(requested, available) >= 2 ? Math.min(requested, available) : 1;
+            if (granted > 1) {
+                budget.used += granted;
+            }
+            if (granted < requested) {
+                log.info("数据源[{}]的并行度预算剩余 {}/{}，查询并行度从 {} 降为 {}", name, available, budget.total, requested, granted);
+            } else {
+                log.debug("数据源[{}]分配并行度 {}，已用预算 {}/{}", name, granted, budget.used, budget.total);
+            }
+            return granted;
+        }
+    }
+
+    /**
+     * 查询结束，归还分配的并行度
+     */
+    public void release(String name, int granted) {
+        if (granted < 2 || !getOptions().isEnable()) {
+            return;
+        }
+        String physicalKey = dynamicDataSourceManager.getPhysicalKey(name);
+        synchronized (this) {
+            Budget budget = budgets.get(physicalKey);
+            if (budget != null) {
+                budget.used = Math.max(0, budget.used - granted);
+            }
+        }
+    }
+
+    /**
+     * 获取SQL或提示中请求的并行度，有多个时取最大值，没有时为1
+     */
+    public static int getRequestedDegree(String text) {
+        int degree = 1;
+        if (text == null) {
+            return degree;
+        }
+        Matcher matcher = DEGREE.matcher(text);
+        while (matcher.find()) {
+            degree = Math.max(degree, Integer.parseInt(matcher.group(2)));
+        }
+        return degree;
+    }
+
+    /**
+     * 把SQL或提示中的并行度改写为分配的并行度
+     */
+    public static String rewriteDegree(String text, int degree) {
+        if (text == null) {
+            return null;
+        }
+        return DEGREE.matcher(text).replaceAll("$1" + Math.max(1, degree));
+    }
+
+    /**
+     * 物理库的预算：指向该物理库的数据源中单独配置的最小值，没有配置时使用默认预算
+     *
+     * @param name 第一个在该物理库上分配并行度的数据源，用于日志
+     */
+    private int getBudget(String name, String physicalKey, Dbconfig.ParallelBudget options) {
+        int budget = options.getDatasource().entrySet().stream()
+            .filter(e -> e.getValue() != null && physicalKey.equals(dynamicDataSourceManager.getPhysicalKey(e.getKey())))
+            .mapToInt(Map.Entry::getValue)
+            .min()
+            .orElse(options.getDefaultBudget());
+        log.info("数据源[{}]所在物理库的并行度预算: {}", name, budget);
+        return budget;
+    }
+
+    private Dbconfig.ParallelBudget getOptions() {
+        return Optional.ofNullable(dbconfig.getParallelBudget()).orElseGet(Dbconfig.ParallelBudget::new);
+    }
+
+    private static class Budget {
+        private final int total;
+        private int used;
+
+        private Budget(int total) {
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package io.github.luolong47.dbchecker.manager;
+
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查询规划管理类
+ * 表在某库上配置了WHERE条件时，在两种查询方式之间选择：
+ * 单次扫描：一次全表扫描同时算出SUM(CASE WHEN 条件 ...)和不带条件的COUNT(*)；
+ * 拆分查询：不带条件的COUNT(*)作为标量子查询，可以走索引快速全扫描，带WHERE条件的SUM和COUNT走条件列上的索引。
+ * 代价按目录快照中的行数、段大小、索引叶子块数和不同键值数估算，单位为数据块，选择理由输出到debug日志。
+ */
+@Slf4j
+@Component
+public class QueryPlanManager {
+
+    // 数据块大小，估算代价的单位
+    private static final long BLOCK_BYTES = 8192;
+    // 没有段大小统计时的平均行长（字节），提交顺序的数据量估计也按此换算
+    static final long ESTIMATED_ROW_BYTES = 100;
+    // 没有叶子块统计时索引条目中每列的平均长度（字节），另加行地址
+    private static final long ESTIMATED_KEY_BYTES = 12;
+    private static final long ROWID_BYTES = 8;
+    // 范围和LIKE条件的选择率
+    private static final double RANGE_SELECTIVITY = 0.05;
+
+    // 单个谓词：列名、运算符、运算符之后的部分
+    private static final Pattern PREDICATE = Pattern.compile(
+        "^\"?([A-Za-z_][A-Za-z0-9_$#]*)\"?\\s*(=|IN\\s*\\(|<=|>=|<|>|BETWEEN\\s|LIKE\\s)(.*)$",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final Dbconfig dbconfig;
+
+    public QueryPlanManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    /**
+     * 选择表在某库上带WHERE条件的查询方式
+     *
+     * @param table 表在该库上的目录元数据
+     * @return 拆分查询的估算代价足够低时返回true，否则单次扫描
+     */
+    public boolean isSplit(String tableName, String db, String whereCondition, CatalogSnapshot.TableMeta table) {
+        Dbconfig.Planner options = Optional.ofNullable(dbconfig.getPlanner()).orElseGet(Dbconfig.Planner::new);
+        if (!options.isEnable()) {
+            return false;
+        }
+        if (table == null || table.getRowCount() == null) {
+            log.debug("表[{}]在库[{}]的查询规划: 没有行数统计，单次扫描", tableName, db);
+            return false;
+        }
+        long rows = table.getRowCount();
+        if (rows < options.getMinRows()) {
+            log.debug("表[{}]在库[{}]的查询规划: 行数估计 {} 少于 {}，单次扫描", tableName, db, rows, options.getMinRows());
+            return false;
+        }
+        List<Predicate> predicates = parsePredicates(whereCondition);
+        if (predicates.isEmpty()) {
+            log.debug("表[{}]在库[{}]的查询规划: 条件 [{}] 中没有可以使用索引的谓词，单次扫描", tableName, db, whereCondition);
+            return false;
+        }
+
+        long tableBlocks = blocks(table.getSizeBytes() != null ? table.getSizeBytes() : rows * ESTIMATED_ROW_BYTES);
+
+        // 带条件的SUM：选代价最低的可用索引，索引范围扫描加按行地址回表
+        CatalogSnapshot.IndexMeta filterIndex = null;
+        double filterSelectivity = 1;
+        long filterCost = Long.MAX_VALUE;
+        for (CatalogSnapshot.IndexMeta index : table.getIndexes()) {
+            Double selectivity = estimateSelectivity(index, predicates, rows, options.getDefaultSelectivity());
+            if (selectivity == null) {
+                continue;
+            }
+            long cost = (long) Math.ceil(leafBlocks(index, rows) * selectivity)
+                + Math.min(tableBlocks, (long) Math.ceil(rows * selectivity));
+            if (cost < filterCost) {
+                filterIndex = index;
+                filterSelectivity = selectivity;
+                filterCost = cost;
+            }
+        }
+        if (filterIndex == null) {
+            log.debug("表[{}]在库[{}]的查询规划: 条件 [{}] 涉及的列上没有前导列匹配的索引，单次扫描", tableName, db, whereCondition);
+            return false;
+        }
+
+        // 不带条件的COUNT(*)：包含非空列的索引可以用索引快速全扫描代替全表扫描
+        CatalogSnapshot.IndexMeta countIndex = null;
+        long countCost = tableBlocks;
+        for (CatalogSnapshot.IndexMeta index : table.getIndexes()) {
+            if (table.coversAllRows(index) && leafBlocks(index, rows) < countCost) {
+                countIndex = index;
+                countCost = leafBlocks(index, rows);
+            }
+        }
+
+        long splitCost = countCost + filterCost;
+        boolean split = splitCost <= tableBlocks * options.getSplitCostRatio();
+        log.debug("表[{}]在库[{}]的查询规划: {}。单次扫描代价 {} 块；拆分代价 {} 块 = COUNT(*) {} 块（{}）+ 带条件SUM {} 块（索引 {}，选择率 {}），拆分阈值为单次扫描的 {}",
+            tableName, db, split ? "拆分查询" : "单次扫描", tableBlocks, splitCost, countCost,
+            countIndex == null ? "全表扫描" : "索引快速全扫描 " + countIndex.getName(), filterCost, filterIndex.getName(),
+            String.format("%.6f", filterSelectivity), options.getSplitCostRatio());
+        return split;
+    }
+
+    /**
+     * 估算索引对条件的选择率，条件中没有索引前导列的谓词时返回null
+     */
+    private static Double estimateSelectivity(CatalogSnapshot.IndexMeta index, List<Predicate> predicates, long rows,
+                                              double defaultSelectivity) {
+        if (index.getColumns().isEmpty()) {
+            return null;
+        }
+        String leading = index.getColumns().get(0);
+        Predicate predicate = predicates.stream().filter(p -> p.column.equalsIgnoreCase(leading)).findFirst().orElse(null);
+        if (predicate == null) {
+            return null;
+        }
+        if (predicate.values <= 0) {
+            return RANGE_SELECTIVITY;
+        }
+        double selectivity;
+        boolean singleColumn = index.getColumns().size() == 1;
+        if (singleColumn && (index.isUnique() || index.isPrimaryKey())) {
+            selectivity = (double) predicate.values / Math.max(1, rows);
+        } else if (singleColumn && index.getDistinctKeys() != null && index.getDistinctKeys() > 0) {
+            selectivity = (double) predicate.values / index.getDistinctKeys();
+        } else {
+            selectivity = predicate.values * defaultSelectivity;
+        }
+        return Math.min(1, selectivity);
+    }
+
+    private static long leafBlocks(CatalogSnapshot.IndexMeta index, long rows) {
+        if (index.getLeafBlocks() != null) {
+            return Math.max(1, index.getLeafBlocks());
+        }
+        return blocks(rows * (ESTIMATED_KEY_BYTES * index.getColumns().size() + ROWID_BYTES));
+    }
+
+    private static long blocks(long bytes) {
+        return Math.max(1, (bytes + BLOCK_BYTES - 1) / BLOCK_BYTES);
+    }
+
+    /**
+     * 把条件按顶层AND拆分为谓词，只保留形如 列 运算符 值 的谓词；顶层有OR时整个条件都不能使用索引，返回空列表
+     */
+    static List<Predicate> parsePredicates(String condition) {
+        List<String> conjuncts = splitTopLevelAnd(condition);
+        if (conjuncts == null) {
+            return Collections.emptyList();
+        }
+        List<Predicate> predicates = new ArrayList<>();
+        for (String conjunct : conjuncts) {
+            Matcher matcher = PREDICATE.matcher(conjunct.trim());
+            if (!matcher.matches()) {
+                continue;
+            }
+            String op = matcher.group(2).toUpperCase().replaceAll("\\s", "");
+            int values;
+            if ("=".equals(op)) {
+                values = 1;
+            } else if ("IN(".equals(op)) {
+                values = countTopLevelCommas(matcher.group(3)) + 1;
+            } else {
+                // 范围和LIKE按固定选择率估算
+                values = 0;
+            }
+            predicates.add(new Predicate(matcher.group(1), values));
+        }
+        return predicates;
+    }
+
+    /**
+     * 在括号和引号之外按AND拆分，BETWEEN ... AND ... 中的AND不拆分；顶层出现OR时返回null
+     */
+    private static List<String> splitTopLevelAnd(String condition) {
+        List<String> parts = new ArrayList<>();
+        String upper = condition.toUpperCase();
+        int depth = 0;
+        boolean quoted = false;
+        boolean pendingBetween = false;
+        int start = 0;
+        for (int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && isKeywordAt(upper, i, "OR")) {
+                return null;
+            } else if (depth == 0 && isKeywordAt(upper, i, "BETWEEN")) {
+                pendingBetween = true;
+            } else if (depth == 0 && isKeywordAt(upper, i, "AND")) {
+                if (pendingBetween) {
+                    pendingBetween = false;
+                } else {
+                    parts.add(condition.substring(start, i));
+                    start = i + 3;
+                }
+            }
+        }
+        parts.add(condition.substring(start));
+        return parts;
+    }
+
+    private static boolean isKeywordAt(String upper, int index, String keyword) {
+        int end = index + keyword.length();
+        return upper.startsWith(keyword, index)
+            && (index == 0 || !isIdentifierChar(upper.charAt(index - 1)))
+            && (end == upper.length() || !isIdentifierChar(upper.charAt(end)));
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '"';
+    }
+
+    private static int countTopLevelCommas(String text) {
+        int depth = 0;
+        int commas = 0;
+        boolean quoted = false;
+        for (char c : text.toCharArray()) {
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (depth-- == 0) {
+                    break;
+                }
+            } else if (c == ',' && depth == 0) {
+                commas++;
+            }
+        }
+        return commas;
+    }
+
+    /**
+     * 条件中的单个谓词
+     */
+    static class Predicate {
+        final String column;
+        // 等值条件的取值个数，范围条件为0
+        final int values;
+
+        Predicate(String column, int values) {
+            this.column = column;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 查询重试管理类
+ * 区分可恢复的失败（连接中断、ORA-01555快照过旧、锁等待超时、死锁、连接池取连接超时等）和不可恢复的失败，
+ * 可恢复的失败按指数退避加随机抖动的等待时间重新提交到原线程池，只重试失败的查询。
+ * 所有查询共用db.retry.budget次重试，用完后不再重试；熔断中的数据源不重试。
+ */
+@Slf4j
+@Component
+public class QueryRetryManager {
+
+    // 可恢复的Oracle错误码：快照过旧、资源忙、死锁、锁等待超时、通信中断
+    private static final Set<Integer> ORACLE_TRANSIENT_CODES = new HashSet<>(Arrays.asList(
+        1555, 54, 51, 60, 4021, 30006, 3113, 3114, 3135, 12170, 12571));
+    // 可恢复的H2错误码：锁等待超时、死锁
+    private static final Set<Integer> H2_TRANSIENT_CODES = new HashSet<>(Arrays.asList(50200, 40001));
+    // 可恢复的SQLState：序列化失败、死锁、锁不可用、管理员中止会话、超时
+    private static final Set<String> TRANSIENT_SQL_STATES = new HashSet<>(Arrays.asList(
+        "40001", "40P01", "55P03", "57P01", "HYT00", "HYT01"));
+
+    private final Dbconfig dbconfig;
+    private final AtomicInteger remainingBudget = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("query-retry-", true));
+    // 正在等待退避时间的重试，关闭时以上次的失败结束
+    private final Set<PendingRetry> pendingRetries = ConcurrentHashMap.newKeySet();
+
+    public QueryRetryManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    @PostConstruct
+    public void init() {
+        remainingBudget.set(getOptions().getBudget());
+    }
+
+    /**
+     * 在executor中执行查询，可恢复的失败等待退避时间后重新提交，
+     * 直到成功、失败不可恢复、达到最大执行次数或重试预算用完
+     *
+     * @param name 查询描述，用于日志
+     * @param task 单次查询
+     * @return 最后一次执行的结果，失败时以最后一次的异常结束
+     */
+    public <T> CompletableFuture<T> submit(String name, Callable<T> task, Executor executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(name, task, executor, 1, result);
+        return result;
+    }
+
+    private <T> void attempt(String name, Callable<T> task, Executor executor, int attempt, CompletableFuture<T> result) {
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    long delay = nextDelay(name, e, attempt);
+                    if (delay < 0) {
+                        result.completeExceptionally(e);
+                    } else {
+                        schedule(new PendingRetry(result, e, () -> attempt(name, task, executor, attempt + 1, result)), delay);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void schedule(PendingRetry retry, long delay) {
+        pendingRetries.add(retry);
+        try {
+            scheduler.schedule(retry, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭，不再重试
+            pendingRetries.remove(retry);
+            retry.fail();
+        }
+    }
+
+    /**
+     * 关闭退避调度线程，仍在等待的重试不再执行，以上次的失败结束，调用方按查询失败处理
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        int dropped = 0;
+        for (PendingRetry retry : pendingRetries) {
+            if (pendingRetries.remove(retry)) {
+                retry.fail();
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.warn("查询重试已关闭，{} 个等待中的重试不再执行，按查询失败处理", dropped);
+        }
+    }
+
+    /**
+     * 计算下一次重试前的等待时间，不重试时返回-1
+     */
+    private long nextDelay(String name, Throwable e, int attempt) {
+        Dbconfig.Retry options = getOptions();
+        if (!options.isEnable() || attempt >= options.getMaxAttempts() || !isTransient(e)) {
+            return -1;
+        }
+        if (remainingBudget.getAndUpdate(v -> v > 0 ? v - 1 : 0) <= 0) {
+            log.warn("{}的查询第 {} 次失败，重试预算已用完，不再重试: {}", name, attempt, e.getMessage());
+            return -1;
+        }
+        retries.incrementAndGet();
+        // 等待时间在[base/2, base]之间随机，避免同时失败的查询同时重试
+        double base = Math.min(options.getMaxBackoffMillis(),
+            options.getInitialBackoffMillis() * Math.pow(options.getMultiplier(), attempt - 1));
+        long delay = (long) (base / 2 + ThreadLocalRandom.current().nextDouble() * base / 2);
+        log.warn("{}的查询第 {} 次失败（可恢复），{}ms后重试，剩余重试预算 {}: {}",
+            name, attempt, delay, remainingBudget.get(), e.getMessage());
+        return delay;
+    }
+
+    /**
+     * 失败是否可恢复。熔断中的数据源不重试，连接失败计入熔断后由熔断决定是否继续
+     */
+    public static boolean isTransient(Throwable e) {
+        if (e instanceof CircuitBreakerManager.DataSourceUnavailableException) {
+            return false;
+        }
+        if (CircuitBreakerManager.isConnectionFailure(e)) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                || cause instanceof RecoverableDataAccessException
+                || cause instanceof SQLTransientException
+                || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                if (TRANSIENT_SQL_STATES.contains(sqlException.getSQLState())
+                    || ORACLE_TRANSIENT_CODES.contains(sqlException.getErrorCode()) && isOracle(sqlException)
+                    || H2_TRANSIENT_CODES.contains(sqlException.getErrorCode()) && cause.getClass().getName().startsWith("org.h2.")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Oracle错误码只在Oracle驱动的异常上判断，避免与其他数据库的错误码混淆
+     */
+    static boolean isOracle(SQLException e) {
+        return e.getClass().getName().startsWith("oracle.") || (e.getMessage() != null && e.getMessage().startsWith("ORA-"));
+    }
+
+    /**
+     * 本次运行的重试次数
+     */
+    public int getRetries() {
+        return retries.get();
+    }
+
+    private Dbconfig.Retry getOptions() {
+        return Optional.ofNullable(dbconfig.getRetry()).orElseGet(Dbconfig.Retry::new);
+    }
+
+    /**
+     * 等待退避时间的一次重试，到期时重新提交查询
+     */
+    private final class PendingRetry implements Runnable {
+        private final CompletableFuture<?> result;
+        private final Throwable lastError;
+        private final Runnable retry;
+
+        private PendingRetry(CompletableFuture<?> result, Throwable lastError, Runnable retry) {
+            this.result = result;
+            this.lastError = lastError;
+            this.retry = retry;
+        }
+
+        @Override
+        public void run() {
+            if (pendingRetries.remove(this)) {
+                retry.run();
+            }
+        }
+
+        private void fail() {
+            result.completeExceptionally(lastError);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.luolong47.dbchecker.manager;
+
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.PreviousRun;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 失败重跑管理类
+ * 从运行历史中读取上次运行的结果，按结果类型（公式不通过、查询失败、查询超时）选出需要重跑的库，
+ * 其余库直接复用上次的求和结果，报告仍然包含全部表和库。
+ * 上次运行中没有结果的库（新增的表、未选中但也没有结果的失败库）照常查询。
+ */
+@Slf4j
+@Component
+public class RerunManager {
+
+    public static final String OUTCOME_FORMULA_FAILED = "formula-failed";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_TIMEOUT = "timeout";
+
+    // 查询超时取消语句的错误：Oracle ORA-01013用户请求取消当前操作，PostgreSQL/openGauss的SQLState 57014
+    private static final int ORACLE_CANCEL_CODE = 1013;
+    private static final String QUERY_CANCELED_STATE = "57014";
+
+    private final Dbconfig dbconfig;
+    private final ApplicationArguments applicationArguments;
+    private final RunHistoryManager runHistoryManager;
+
+    // 上次运行的结果，未启用或没有可用的历史时为null
+    private PreviousRun previousRun;
+    // 需要重跑的库（表名 -> 库名集合）
+    private final Map<String, Set<String>> rerunDbs = new HashMap<>();
+    // 需要重跑所有库的表
+    private final Set<String> rerunTables = new HashSet<>();
+
+    public RerunManager(Dbconfig dbconfig, ApplicationArguments applicationArguments, RunHistoryManager runHistoryManager) {
+        this.dbconfig = dbconfig;
+        this.applicationArguments = applicationArguments;
+        this.runHistoryManager = runHistoryManager;
+    }
+
+    /**
+     * 是否启用失败重跑：命令行参数--rerun-failures或配置db.rerun.enable=true
+     */
+    public boolean isEnabled() {
+        return applicationArguments.containsOption("rerun-failures")
+            || Optional.ofNullable(dbconfig.getRerun()).map(Dbconfig.Rerun::isEnable).orElse(false);
+    }
+
+    /**
+     * 读取上次运行的结果并选出需要重跑的库，需要在运行历史登记本次运行之后调用
+     */
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        previousRun = runHistoryManager.loadPreviousRun();
+        if (previousRun == null) {
+            log.warn("失败重跑模式: 运行历史中没有上次运行的结果，本次全部查询");
+            return;
+        }
+        Set<String> outcomes = new HashSet<>();
+        Optional.ofNullable(dbconfig.getRerun()).map(Dbconfig.Rerun::getOutcomes).orElse(Collections.emptyList())
+            .forEach(outcome -> outcomes.add(outcome.trim().toLowerCase(Locale.ROOT)));
+
+        if (outcomes.contains(OUTCOME_FORMULA_FAILED)) {
+            rerunTables.addAll(previousRun.getFormulaFailedTables());
+        }
+        int failedCells = 0;
+        for (Map.Entry<String, Map<String, String>> table : previousRun.getFailedQueries().entrySet()) {
+            for (Map.Entry<String, String> failure : table.getValue().entrySet()) {
+                if (outcomes.contains(failure.getValue())) {
+                    rerunDbs.computeIfAbsent(table.getKey(), k -> new HashSet<>()).add(failure.getKey());
+                    failedCells++;
+                }
+            }
+        }
+        log.info("失败重跑模式: 上次运行ID {}（开始于 {}），重跑类型 {}，公式不通过的表 {} 张，查询失败或超时的库 {} 个，其余库复用上次的结果",
+            previousRun.getRunId(), previousRun.getStartTime(), outcomes, rerunTables.size(), failedCells);
+        if (!rerunTables.isEmpty()) {
+            log.info("失败重跑模式: 重跑全部库的表: {}", rerunTables);
+        }
+        if (!rerunDbs.isEmpty()) {
+            log.info("失败重跑模式: 只重跑部分库的表: {}", rerunDbs);
+        }
+    }
+
+    /**
+     * 获取表在各库上可以复用的上次运行结果，选中重跑的库和缺少任一列结果的库不返回
+     *
+     * @param tableName 表名
+     * @param dbSumCols 本次表所在的库 -> 该库上需要求和的列
+     * @return 库名 -> {列名 -> 值}，未启用或没有可复用的结果时返回空Map
+     */
+    public Map<String, Map<String, BigDecimal>> getReusedCells(String tableName, Map<String, List<String>> dbSumCols) {
+        if (previousRun == null || rerunTables.contains(tableName)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<String, BigDecimal>> stored = previousRun.getCells().get(tableName);
+        if (stored == null) {
+            return Collections.emptyMap();
+        }
+        Set<String> failedDbs = rerunDbs.getOrDefault(tableName, Collections.emptySet());
+        Map<String, Map<String, BigDecimal>> cells = new HashMap<>();
+        dbSumCols.forEach((db, sumCols) -> {
+            Map<String, BigDecimal> dbValues = stored.get(db);
+            if (failedDbs.contains(db) || dbValues == null
+                || sumCols.stream().anyMatch(col -> dbValues.get(col) == null)) {
+                return;
+            }
+            Map<String, BigDecimal> colValues = new HashMap<>();
+            sumCols.forEach(col -> colValues.put(col, dbValues.get(col)));
+            cells.put(db, colValues);
+        });
+        return cells;
+    }
+
+    /**
+     * 按异常类型和SQLState归类查询失败，在记录失败时调用，结果写入运行历史
+     *
+     * @return 查询超时被取消时返回timeout，其余返回error
+     */
+    public static String classifyFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTimeoutException) {
+                return OUTCOME_TIMEOUT;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                if (QUERY_CANCELED_STATE.equals(sqlException.getSQLState())
+                    || sqlException.getErrorCode() == ORACLE_CANCEL_CODE && QueryRetryManager.isOracle(sqlException)) {
+                    return OUTCOME_TIMEOUT;
+                }
+            }
+        }
+        return OUTCOME_ERROR;
+    }
+}
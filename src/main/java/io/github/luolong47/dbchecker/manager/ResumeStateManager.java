@@ -7,28 +7,36 @@ import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import io.github.luolong47.dbchecker.config.Dbconfig;
 import io.github.luolong47.dbchecker.entity.ResumeState;
-import io.github.luolong47.dbchecker.entity.TableInfo;
+import io.github.luolong47.dbchecker.writer.StateJournal;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 断点续跑状态管理类
+ * 状态变化以事件形式追加到状态日志（resume_state.journal），由日志写线程组提交并定期压缩为快照（resume_state.json），
+ * 表完成时的快照请求按快照间隔合并，阶段边界和关闭时立即写快照，
+ * 启动时默认加载上次运行的状态继续执行，使用--fresh参数或db.resume.fresh=true时全量重跑。
  */
 @Slf4j
 @Component
 public class ResumeStateManager {
 
     private final Dbconfig dbconfig;
+    private final ApplicationArguments applicationArguments;
+    private final RerunManager rerunManager;
 
     /**
      *  获取当前状态
@@ -36,21 +44,18 @@ public class ResumeStateManager {
     @Getter
     private ResumeState currentState;
     private File stateFile;
+    private File journalFile;
     
     // 记录每个表的StopWatch，用于统计处理时间
     final private Map<String, StopWatch> tableStopWatches = new ConcurrentHashMap<>();
     
-    // 用于异步保存状态的线程池
-    private final ExecutorService saveStateExecutor = Executors.newSingleThreadExecutor();
-    
-    // 用于保护状态保存的锁
-    private final ReentrantLock saveStateLock = new ReentrantLock();
-    
-    // 保存的TableInfo数据
-    private Map<String, TableInfo> lastTableInfoMap;
+    // 状态日志，追加写入状态变化事件
+    private StateJournal journal;
 
-    public ResumeStateManager(Dbconfig dbconfig) {
+    public ResumeStateManager(Dbconfig dbconfig, ApplicationArguments applicationArguments, RerunManager rerunManager) {
         this.dbconfig = dbconfig;
+        this.applicationArguments = applicationArguments;
+        this.rerunManager = rerunManager;
     }
 
     /**
@@ -62,15 +67,61 @@ public class ResumeStateManager {
                 .map(Dbconfig.Resume::getFile)
                 .orElse("resume_state.json");
 
-        // 创建File对象
+        // 创建File对象，日志文件与快照文件同目录同名
         stateFile = new File(stateFileName);
+        journalFile = new File(stateFile.getParentFile(), FileUtil.mainName(stateFile) + ".journal");
         FileUtil.mkParentDirs(stateFile);
 
+        // 续跑模式下加载上次的状态，继续追加写入原日志
+        if (!isFresh() && loadState()) {
+            log.info("断点续跑: 上次运行已完成 {} 张表，进行中 {} 张表",
+                currentState.getCompletedCount(), currentState.getProcessingCount());
+            startJournal();
+            return;
+        }
+
         // 如果是全量重跑模式，删除状态文件并初始化新状态
         FileUtil.del(stateFile);
+        FileUtil.del(journalFile);
         currentState = new ResumeState();
         currentState.setTimestamp(System.currentTimeMillis());
-        log.info("初始化JSON状态文件");
+
+        startJournal();
+        log.info("初始化状态日志: {}", journalFile.getAbsolutePath());
+    }
+
+    /**
+     * 是否全量重跑：命令行参数--fresh或配置db.resume.fresh=true；失败重跑模式下结果从运行历史复用，同样不加载状态
+     */
+    private boolean isFresh() {
+        boolean fresh = applicationArguments.containsOption("fresh")
+            || Optional.ofNullable(dbconfig.getResume()).map(Dbconfig.Resume::isFresh).orElse(false);
+        if (fresh) {
+            log.info("全量重跑模式，忽略上次运行的状态");
+        } else if (rerunManager.isEnabled()) {
+            log.info("失败重跑模式，忽略上次运行的断点续跑状态");
+            fresh = true;
+        }
+        return fresh;
+    }
+
+    private void startJournal() {
+        Dbconfig.Resume resume = Optional.ofNullable(dbconfig.getResume()).orElseGet(Dbconfig.Resume::new);
+        long compactBytes = resume.getCompactSize() == null ? 0 : resume.getCompactSize().toBytes();
+        journal = new StateJournal(journalFile, stateFile, compactBytes, resume.getSyncIntervalMs(),
+            resume.getSnapshotIntervalMs(), resume.getQueueCapacity(), this::toSnapshotJson);
+        try {
+            journal.start();
+        } catch (Exception e) {
+            journal = null;
+            log.error("启动状态日志失败，本次运行的状态将不会持久化: {}", e.getMessage(), e);
+        }
+    }
+
+    private void append(StateJournal.Event event) {
+        if (journal != null) {
+            journal.append(event);
+        }
     }
 
     /**
@@ -86,18 +137,22 @@ public class ResumeStateManager {
         
         currentState.setTotalTables(totalTables);
         
-        // 设置待处理的表列表：所有表减去已完成的表
-        Set<String> pendingTables = ConcurrentHashMap.newKeySet();
-        pendingTables.addAll(allTables);
-        pendingTables.removeAll(currentState.getCompletedTables());
-        pendingTables.removeAll(currentState.getProcessingTables());
-        
-        currentState.getPendingTables().clear();
-        currentState.getPendingTables().addAll(pendingTables);
-        currentState.setPendingCount(pendingTables.size());
+        // 本次配置中已不存在的表移出统计
+        for (String tableName : currentState.getCompletedTables()) {
+            if (!allTables.contains(tableName)) {
+                currentState.removeTable(tableName);
+            }
+        }
+        for (String tableName : currentState.getPendingTables()) {
+            if (!allTables.contains(tableName)) {
+                currentState.removeTable(tableName);
+            }
+        }
         
-        // 更新进度
-        currentState.updateProgressPercentage();
+        // 未完成的表（包括上次中断时进行中的表）都设为待处理
+        for (String tableName : allTables) {
+            currentState.markPending(tableName);
+        }
         
         log.info("初始化表列表完成: 总数量={}, 已完成={}, 进行中={}, 待处理={}",
             totalTables, 
@@ -105,7 +160,24 @@ public class ResumeStateManager {
             currentState.getProcessingCount(),
             currentState.getPendingCount());
         
-        // 保存状态
+        // 表列表确定后立即写一次快照
+        append(StateJournal.Event.total(totalTables));
+        saveStateNow();
+    }
+
+    /**
+     * 将所有库中都不存在的表移出统计，并更新总表数
+     *
+     * @param tableName 表名
+     * @param totalTables 移出后的总表数
+     */
+    public void removeTable(String tableName, int totalTables) {
+        if (currentState == null) {
+            return;
+        }
+        currentState.removeTable(tableName);
+        currentState.setTotalTables(totalTables);
+        append(StateJournal.Event.total(totalTables));
         saveState();
     }
 
@@ -119,28 +191,15 @@ public class ResumeStateManager {
             currentState = new ResumeState();
         }
         
-        if (!currentState.getProcessingTables().contains(tableName) && 
-            !currentState.getCompletedTables().contains(tableName)) {
-            // 从待处理表中移除
-            currentState.getPendingTables().remove(tableName);
-            
-            // 添加到进行中表
-            currentState.getProcessingTables().add(tableName);
-            
-            // 更新计数
-            currentState.setPendingCount(currentState.getPendingTables().size());
-            currentState.setProcessingCount(currentState.getProcessingTables().size());
-            
+        // CAS迁移到进行中，只有迁移成功的线程继续处理，上次标记完成但结果不完整的表也会重新进入进行中状态
+        if (currentState.markProcessing(tableName)) {
             // 创建并启动表的计时器
             StopWatch tableWatch = new StopWatch(StrUtil.format("表[{}]处理计时", tableName));
             tableWatch.start("总体处理");
             tableStopWatches.put(tableName, tableWatch);
             
-            // 更新进度
-            currentState.updateProgressPercentage();
-            
-            // 保存状态
-            saveState();
+            // 记录状态变化
+            append(StateJournal.Event.processing(tableName));
             
             log.debug("表[{}]已标记为进行中，当前进度: {}%, 进行中: {}, 待处理: {}",
                 tableName, 
@@ -165,8 +224,24 @@ public class ResumeStateManager {
         currentState.recordTableDbProcessingTime(tableName, dbName, timeMillis);
         log.debug("记录表[{}]在数据库[{}]的处理时间: {}ms", tableName, dbName, timeMillis);
         
-        // 每记录一次时间就保存状态
-        saveState();
+        // 记录状态变化
+        append(StateJournal.Event.dbTime(tableName, dbName, timeMillis));
+    }
+
+    /**
+     * 记录表在数据库的求和结果
+     * 
+     * @param tableName 表名
+     * @param dbName 数据库名（结果归属的原始库名）
+     * @param colValues 列名 -> 求和值
+     */
+    public void recordTableDbResult(String tableName, String dbName, Map<String, BigDecimal> colValues) {
+        if (currentState == null) {
+            return;
+        }
+        
+        currentState.recordTableDbResult(tableName, dbName, colValues);
+        append(StateJournal.Event.result(tableName, dbName, colValues));
     }
 
     /**
@@ -182,28 +257,20 @@ public class ResumeStateManager {
 
         // 停止并记录表的处理时间
         StopWatch tableWatch = tableStopWatches.remove(tableName);
+        long totalTimeMillis = 0;
         if (tableWatch != null && tableWatch.isRunning()) {
             tableWatch.stop();
-            long totalTimeMillis = tableWatch.getLastTaskTimeMillis();
+            totalTimeMillis = tableWatch.getLastTaskTimeMillis();
             currentState.recordTableProcessingTime(tableName, totalTimeMillis);
             log.debug("表[{}]总处理时间: {}ms", tableName, totalTimeMillis);
         }
         
-        // 从进行中表中移除
-        currentState.getProcessingTables().remove(tableName);
-        
-        // 添加到已完成表
-        currentState.getCompletedTables().add(tableName);
-        
-        // 更新计数
-        currentState.setCompletedCount(currentState.getCompletedTables().size());
-        currentState.setProcessingCount(currentState.getProcessingTables().size());
+        // CAS迁移到已完成，计数随迁移同步更新
+        currentState.markCompleted(tableName);
         currentState.setTotalTables(totalTables);
         
-        // 更新进度
-        currentState.updateProgressPercentage();
-        
-        // 每完成一个表就保存一次状态
+        // 记录状态变化，快照请求按间隔合并
+        append(StateJournal.Event.completed(tableName, totalTimeMillis));
         saveState();
         
         log.debug("表[{}]已标记为完成，当前进度: {}%, 已完成: {}/{}, 进行中: {}",
@@ -215,84 +282,26 @@ public class ResumeStateManager {
     }
 
     /**
-     * 加载状态文件
+     * 加载状态：先读取快照文件，再按顺序重放日志中的事件
      * 
      * @return 加载成功返回true，失败返回false
      */
     private boolean loadState() {
         try {
-            if (!FileUtil.exist(stateFile) || FileUtil.size(stateFile) == 0) {
+            boolean hasSnapshot = FileUtil.exist(stateFile) && FileUtil.size(stateFile) > 0;
+            boolean hasJournal = FileUtil.exist(journalFile) && FileUtil.size(journalFile) > 0;
+            if (!hasSnapshot && !hasJournal) {
                 log.warn("状态文件不存在或为空: {}", stateFile.getAbsolutePath());
                 return false;
             }
 
-            String jsonStr = FileUtil.readUtf8String(stateFile);
-            
-            // 使用自定义方法处理原子类型的反序列化
-            JSONObject jsonObject = JSONUtil.parseObj(jsonStr);
             currentState = new ResumeState();
-            
-            // 设置基本属性
-            if (jsonObject.containsKey("completedTables")) {
-                currentState.getCompletedTables().addAll(jsonObject.getJSONArray("completedTables").toList(String.class));
-            }
-            if (jsonObject.containsKey("processingTables")) {
-                currentState.getProcessingTables().addAll(jsonObject.getJSONArray("processingTables").toList(String.class));
-            }
-            if (jsonObject.containsKey("pendingTables")) {
-                currentState.getPendingTables().addAll(jsonObject.getJSONArray("pendingTables").toList(String.class));
+            if (hasSnapshot) {
+                loadSnapshot(JSONUtil.parseObj(FileUtil.readUtf8String(stateFile)));
             }
+            int replayed = hasJournal ? replayJournal() : 0;
             
-            // 设置原子类型属性
-            if (jsonObject.containsKey("timestamp")) {
-                currentState.setTimestamp(jsonObject.getLong("timestamp"));
-            }
-            if (jsonObject.containsKey("totalTables")) {
-                currentState.setTotalTables(jsonObject.getInt("totalTables"));
-            }
-            if (jsonObject.containsKey("completedCount")) {
-                currentState.setCompletedCount(jsonObject.getInt("completedCount"));
-            }
-            if (jsonObject.containsKey("processingCount")) {
-                currentState.setProcessingCount(jsonObject.getInt("processingCount"));
-            }
-            if (jsonObject.containsKey("pendingCount")) {
-                currentState.setPendingCount(jsonObject.getInt("pendingCount"));
-            }
-            
-            // 设置表处理时间
-            if (jsonObject.containsKey("tableProcessingTimes")) {
-                JSONObject timesJson = jsonObject.getJSONObject("tableProcessingTimes");
-                timesJson.forEach((tableName, value) -> {
-                    if (value instanceof Number) {
-                        currentState.recordTableProcessingTime(tableName, ((Number) value).longValue());
-                    }
-                });
-            }
-            
-            // 设置数据库处理时间
-            if (jsonObject.containsKey("tableDbProcessingTimes")) {
-                JSONObject dbTimesJson = jsonObject.getJSONObject("tableDbProcessingTimes");
-                dbTimesJson.forEach((tableName, dbTimesObj) -> {
-                    if (dbTimesObj instanceof JSONObject) {
-                        JSONObject dbTimes = (JSONObject) dbTimesObj;
-                        dbTimes.forEach((dbName, timeValue) -> {
-                            if (timeValue instanceof Number) {
-                                currentState.recordTableDbProcessingTime(
-                                    tableName, dbName, ((Number) timeValue).longValue());
-                            }
-                        });
-                    }
-                });
-            }
-            
-            // 从持久化状态恢复后，确保计数一致
-            currentState.setCompletedCount(currentState.getCompletedTables().size());
-            currentState.setProcessingCount(currentState.getProcessingTables().size());
-            currentState.setPendingCount(currentState.getPendingTables().size());
-            currentState.updateProgressPercentage();
-            
-            log.info("成功从文件加载状态: {}", stateFile.getAbsolutePath());
+            log.info("成功从文件加载状态: {}，重放日志事件 {} 条", stateFile.getAbsolutePath(), replayed);
             return true;
         } catch (Exception e) {
             log.error("加载状态文件失败: {}", e.getMessage(), e);
@@ -300,118 +309,241 @@ public class ResumeStateManager {
         }
     }
 
+    private void loadSnapshot(JSONObject jsonObject) {
+        // 设置基本属性
+        if (jsonObject.containsKey("completedTables")) {
+            jsonObject.getJSONArray("completedTables").toList(String.class).forEach(currentState::markCompleted);
+        }
+        if (jsonObject.containsKey("processingTables")) {
+            jsonObject.getJSONArray("processingTables").toList(String.class).forEach(currentState::markProcessing);
+        }
+        if (jsonObject.containsKey("pendingTables")) {
+            jsonObject.getJSONArray("pendingTables").toList(String.class).forEach(currentState::markPending);
+        }
+        
+        // 设置原子类型属性
+        if (jsonObject.containsKey("timestamp")) {
+            currentState.setTimestamp(jsonObject.getLong("timestamp"));
+        }
+        if (jsonObject.containsKey("totalTables")) {
+            currentState.setTotalTables(jsonObject.getInt("totalTables"));
+        }
+        
+        // 设置表处理时间
+        if (jsonObject.containsKey("tableProcessingTimes")) {
+            JSONObject timesJson = jsonObject.getJSONObject("tableProcessingTimes");
+            timesJson.forEach((tableName, value) -> {
+                if (value instanceof Number) {
+                    currentState.recordTableProcessingTime(tableName, ((Number) value).longValue());
+                }
+            });
+        }
+        
+        // 设置数据库处理时间
+        if (jsonObject.containsKey("tableDbProcessingTimes")) {
+            JSONObject dbTimesJson = jsonObject.getJSONObject("tableDbProcessingTimes");
+            dbTimesJson.forEach((tableName, dbTimesObj) -> {
+                if (dbTimesObj instanceof JSONObject) {
+                    JSONObject dbTimes = (JSONObject) dbTimesObj;
+                    dbTimes.forEach((dbName, timeValue) -> {
+                        if (timeValue instanceof Number) {
+                            currentState.recordTableDbProcessingTime(
+                                tableName, dbName, ((Number) timeValue).longValue());
+                        }
+                    });
+                }
+            });
+        }
+        
+        // 设置求和结果（表名 -> {列名 -> {库名 -> 值}}）
+        if (jsonObject.containsKey("tableSumResults")) {
+            JSONObject resultsJson = jsonObject.getJSONObject("tableSumResults");
+            resultsJson.forEach((tableName, colsObj) -> {
+                if (colsObj instanceof JSONObject) {
+                    ((JSONObject) colsObj).forEach((col, dbsObj) -> {
+                        if (dbsObj instanceof JSONObject) {
+                            ((JSONObject) dbsObj).forEach((dbName, value) -> currentState.recordTableDbResult(
+                                tableName, dbName, Collections.singletonMap(col, new BigDecimal(value.toString()))));
+                        }
+                    });
+                }
+            });
+        }
+    }
+
     /**
-     * 保存当前状态到文件
+     * 重放日志事件，最后一行可能因进程中断而不完整，解析失败的行直接跳过
+     * 
+     * @return 重放的事件数
+     */
+    private int replayJournal() throws Exception {
+        int replayed = 0;
+        try (BufferedReader reader = FileUtil.getUtf8Reader(journalFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StrUtil.isBlank(line)) {
+                    continue;
+                }
+                JSONObject event;
+                try {
+                    event = JSONUtil.parseObj(line);
+                } catch (Exception e) {
+                    log.warn("跳过无法解析的状态日志行: {}", StrUtil.maxLength(line, 200));
+                    continue;
+                }
+                applyEvent(event);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private void applyEvent(JSONObject event) {
+        String type = event.getStr("t");
+        String tableName = event.getStr("tb");
+        long value = event.getLong("v", 0L);
+        if (StateJournal.TYPE_TOTAL.equals(type)) {
+            currentState.setTotalTables((int) value);
+        } else if (StateJournal.TYPE_PROCESSING.equals(type)) {
+            currentState.markProcessing(tableName);
+        } else if (StateJournal.TYPE_DB_TIME.equals(type)) {
+            currentState.recordTableDbProcessingTime(tableName, event.getStr("db"), value);
+        } else if (StateJournal.TYPE_RESULT.equals(type)) {
+            JSONObject results = event.getJSONObject("r");
+            if (results != null) {
+                Map<String, BigDecimal> colValues = new ConcurrentHashMap<>();
+                results.forEach((col, v) -> colValues.put(col, new BigDecimal(v.toString())));
+                currentState.recordTableDbResult(tableName, event.getStr("db"), colValues);
+            }
+        } else if (StateJournal.TYPE_COMPLETED.equals(type)) {
+            currentState.markCompleted(tableName);
+            if (value > 0) {
+                currentState.recordTableProcessingTime(tableName, value);
+            }
+        }
+    }
+
+    /**
+     * 请求写出一次完整快照，距上次快照不足快照间隔时与后续请求合并，由日志写线程异步执行
      */
     public void saveState() {
-        saveState(lastTableInfoMap);
+        if (journal != null) {
+            journal.requestSnapshot();
+        }
     }
-    
+
     /**
-     * 保存当前状态到文件，包含tableInfoMap数据
-     * 
-     * @param tableInfoMap 表信息映射
+     * 立即写出一次完整快照并清空日志，用于阶段边界，由日志写线程异步执行
      */
-    public void saveState(Map<String, TableInfo> tableInfoMap) {
-        // 保存最新的tableInfoMap引用
-        if (tableInfoMap != null) {
-            this.lastTableInfoMap = tableInfoMap;
+    public void saveStateNow() {
+        if (journal != null) {
+            journal.snapshotNow();
         }
+    }
+
+    /**
+     * 生成完整状态快照JSON，在日志写线程中调用
+     */
+    private String toSnapshotJson() {
+        // 更新时间戳
+        currentState.setTimestamp(System.currentTimeMillis());
         
-        // 异步执行保存操作
-        saveStateExecutor.submit(() -> {
-            // 加锁确保线程安全
-            saveStateLock.lock();
-            try {
-                // 更新时间戳
-                currentState.setTimestamp(System.currentTimeMillis());
-                
-                // 创建用于序列化的JSON对象
-                JSONObject jsonObject = new JSONObject();
-                
-                // 添加基本集合属性
-                jsonObject.set("completedTables", currentState.getCompletedTables());
-                jsonObject.set("processingTables", currentState.getProcessingTables());
-                jsonObject.set("pendingTables", currentState.getPendingTables());
-                
-                // 添加原子类型属性
-                jsonObject.set("timestamp", currentState.getTimestamp());
-                jsonObject.set("totalTables", currentState.getTotalTables());
-                jsonObject.set("completedCount", currentState.getCompletedCount());
-                jsonObject.set("processingCount", currentState.getProcessingCount());
-                jsonObject.set("pendingCount", currentState.getPendingCount());
-                jsonObject.set("progressPercentage", currentState.getProgressPercentage());
-                
-                // 添加表处理时间
-                JSONObject tableTimesJson = new JSONObject();
-                currentState.getTableProcessingTimes().forEach(tableTimesJson::set);
-                jsonObject.set("tableProcessingTimes", tableTimesJson);
-                
-                // 添加数据库处理时间
-                JSONObject dbTimesJson = new JSONObject();
-                currentState.getTableDbProcessingTimes().forEach((tableName, dbTimes) -> {
-                    JSONObject dbTimesObj = new JSONObject();
-                    dbTimes.forEach(dbTimesObj::set);
-                    dbTimesJson.set(tableName, dbTimesObj);
-                });
-                jsonObject.set("tableDbProcessingTimes", dbTimesJson);
-                
-                // 添加TableInfoMap数据，如果有的话
-                if (lastTableInfoMap != null && !lastTableInfoMap.isEmpty()) {
-                    JSONObject tableInfoJson = new JSONObject();
-                    lastTableInfoMap.forEach((tableName, tableInfo) -> {
-                        if (tableInfo != null) {
-                            JSONObject infoJson = new JSONObject();
-                            infoJson.set("tableName", tableInfo.getTableName());
-                            infoJson.set("dbs", tableInfo.getDbs());
-                            
-                            // 添加求和结果
-                            if (tableInfo.getSumResult() != null) {
-                                JSONObject sumResultJson = new JSONObject();
-                                tableInfo.getSumResult().forEach((col, dbValues) -> {
-                                    JSONObject dbValuesJson = new JSONObject();
-                                    dbValues.forEach(dbValuesJson::set);
-                                    sumResultJson.set(col, dbValuesJson);
-                                });
-                                infoJson.set("sumResult", sumResultJson);
-                            }
-                            
-                            // 添加求和列
-                            if (tableInfo.getSumCols() != null) {
-                                infoJson.set("sumCols", tableInfo.getSumCols());
-                            }
-                            
-                            // 添加公式信息
-                            if (tableInfo.getFormula() != null) {
-                                infoJson.set("formulaDesc", tableInfo.getFormula().getDesc());
-                            }
-                            
-                            tableInfoJson.set(tableName, infoJson);
-                        }
-                    });
-                    jsonObject.set("tableInfoMap", tableInfoJson);
-                }
-                
-                // 将对象转换为JSON并写入文件
-                String jsonStr = jsonObject.toString();
-                
-                FileUtil.writeUtf8String(jsonStr, stateFile);
-                
-                log.debug("已异步保存状态到文件: {}", stateFile.getAbsolutePath());
-            } catch (Exception e) {
-                log.error("保存状态文件失败: {}", e.getMessage(), e);
-            } finally {
-                saveStateLock.unlock();
-            }
+        // 创建用于序列化的JSON对象
+        JSONObject jsonObject = new JSONObject();
+        
+        // 添加基本集合属性
+        jsonObject.set("completedTables", currentState.getCompletedTables());
+        jsonObject.set("processingTables", currentState.getProcessingTables());
+        jsonObject.set("pendingTables", currentState.getPendingTables());
+        
+        // 添加原子类型属性
+        jsonObject.set("timestamp", currentState.getTimestamp());
+        jsonObject.set("totalTables", currentState.getTotalTables());
+        jsonObject.set("completedCount", currentState.getCompletedCount());
+        jsonObject.set("processingCount", currentState.getProcessingCount());
+        jsonObject.set("pendingCount", currentState.getPendingCount());
+        jsonObject.set("progressPercentage", currentState.getProgressPercentage());
+        
+        // 添加表处理时间
+        JSONObject tableTimesJson = new JSONObject();
+        currentState.getTableProcessingTimes().forEach(tableTimesJson::set);
+        jsonObject.set("tableProcessingTimes", tableTimesJson);
+        
+        // 添加数据库处理时间
+        JSONObject dbTimesJson = new JSONObject();
+        currentState.getTableDbProcessingTimes().forEach((tableName, dbTimes) -> {
+            JSONObject dbTimesObj = new JSONObject();
+            dbTimes.forEach(dbTimesObj::set);
+            dbTimesJson.set(tableName, dbTimesObj);
+        });
+        jsonObject.set("tableDbProcessingTimes", dbTimesJson);
+        
+        // 添加求和结果，金额以字符串保存避免精度丢失
+        JSONObject resultsJson = new JSONObject();
+        currentState.getTableSumResults().forEach((tableName, sumResult) -> {
+            JSONObject sumResultJson = new JSONObject();
+            sumResult.forEach((col, dbValues) -> {
+                JSONObject dbValuesJson = new JSONObject();
+                dbValues.forEach((dbName, value) -> dbValuesJson.set(dbName, value.toPlainString()));
+                sumResultJson.set(col, dbValuesJson);
+            });
+            resultsJson.set(tableName, sumResultJson);
         });
+        jsonObject.set("tableSumResults", resultsJson);
+        
+        return jsonObject.toString();
     }
     
     /**
-     * 关闭状态管理器资源
+     * 关闭状态管理器资源，写出最终快照并等待日志写线程结束，最多等待db.resume.shutdown-timeout-ms
+     *
+     * @return 最终快照在等待时间内落盘返回true
      */
-    public void shutdown() {
+    public boolean shutdown() {
         log.info("关闭状态管理器资源...");
-        saveStateExecutor.shutdown();
+        if (journal == null) {
+            return true;
+        }
+        long timeoutMs = Optional.ofNullable(dbconfig.getResume()).map(Dbconfig.Resume::getShutdownTimeoutMs).orElse(0L);
+        journal.snapshotNow();
+        boolean finished = journal.close(timeoutMs, TimeUnit.MILLISECONDS);
+        journal = null;
+        if (!finished) {
+            log.warn("状态日志未在 {}ms 内完成落盘，下次续跑可能需要重新处理部分表", timeoutMs);
+        }
+        return finished;
+    }
+
+    /**
+     * 获取上次运行保存的表在各库上的求和结果，只返回该库所有列都有结果的库
+     * 
+     * @param tableName 表名
+     * @param dbSumCols 本次表所在的库 -> 该库上需要求和的列
+     * @return 库名 -> {列名 -> 值}，没有可用结果时返回空Map
+     */
+    public Map<String, Map<String, BigDecimal>> getRestoredCells(String tableName, Map<String, List<String>> dbSumCols) {
+        Map<String, Map<String, BigDecimal>> cells = new ConcurrentHashMap<>();
+        if (currentState == null) {
+            return cells;
+        }
+        Map<String, Map<String, BigDecimal>> stored = currentState.getTableSumResults().get(tableName);
+        if (stored == null) {
+            return cells;
+        }
+        dbSumCols.forEach((db, sumCols) -> {
+            Map<String, BigDecimal> colValues = new ConcurrentHashMap<>();
+            for (String sumCol : sumCols) {
+                BigDecimal value = Optional.ofNullable(stored.get(sumCol)).map(m -> m.get(db)).orElse(null);
+                if (value == null) {
+                    break;
+                }
+                colValues.put(sumCol, value);
+            }
+            if (colValues.size() == sumCols.size()) {
+                cells.put(db, colValues);
+            }
+        });
+        return cells;
     }
 
     /**
@@ -421,7 +553,7 @@ public class ResumeStateManager {
      * @return 如果表已处理完成，则返回true；否则返回false
      */
     public boolean isTableCompleted(String tableName) {
-        return currentState != null && currentState.getCompletedTables().contains(tableName);
+        return currentState != null && currentState.isTableCompleted(tableName);
     }
 
 }
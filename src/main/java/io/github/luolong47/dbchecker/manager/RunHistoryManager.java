@@ -0,0 +1,268 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.io.FileUtil;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.PreviousRun;
+import io.github.luolong47.dbchecker.entity.TableCsvResult;
+import io.github.luolong47.dbchecker.writer.RunHistoryWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 运行历史管理类
+ * 每次运行的单元格求和结果、查询耗时和公式结果写入本地H2文件数据库（db.history.file），
+ * 保留最近db.history.keep-runs次运行，供按历史耗时调度、追溯差异首次出现时间等功能查询。
+ * 历史写入失败不影响数据检查本身。
+ */
+@Slf4j
+@Component
+public class RunHistoryManager {
+
+    private final Dbconfig dbconfig;
+
+    private String url;
+    // 运行历史写入器，未启用或启动失败时为null
+    private volatile RunHistoryWriter writer;
+
+    public RunHistoryManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    /**
+     * 打开历史数据库并登记本次运行
+     */
+    public void start() {
+        Dbconfig.History history = Optional.ofNullable(dbconfig.getHistory()).orElseGet(Dbconfig.History::new);
+        if (!history.isEnable()) {
+            log.info("运行历史记录未启用");
+            return;
+        }
+        File file = new File(history.getFile());
+        FileUtil.mkParentDirs(file);
+        // 由本类负责关闭数据库，不依赖H2的退出钩子
+        url = "jdbc:h2:file:" + file.getAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE";
+        RunHistoryWriter historyWriter = new RunHistoryWriter(url, history.getBatchSize(), history.getKeepRuns(),
+            history.isCompactOnClose());
+        try {
+            historyWriter.start();
+            writer = historyWriter;
+            log.info("运行历史数据库: {}，本次运行ID: {}", file.getAbsolutePath(), historyWriter.getRunId());
+        } catch (Exception e) {
+            log.error("打开运行历史数据库失败，本次运行不记录历史: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 记录表在某库上查询成功的耗时和各列求和结果
+     *
+     * @param db 结果归属的库名
+     * @param actualDb 实际查询的库名
+     * @param colValues 列名 -> 求和值
+     * @param sqlHint 查询使用的SQL提示，没有时为null
+     */
+    public void recordQuery(String tableName, String db, String actualDb, long elapsedMillis, Map<String, BigDecimal> colValues,
+                            String sqlHint) {
+        RunHistoryWriter historyWriter = writer;
+        if (historyWriter == null) {
+            return;
+        }
+        historyWriter.timing(tableName, db, actualDb, elapsedMillis, true, null, null, sqlHint);
+        colValues.forEach((col, value) -> historyWriter.cell(tableName, db, col, value));
+    }
+
+    /**
+     * 记录表在某库上复用的上次运行结果，只写求和值不写耗时，不影响按历史耗时调度
+     */
+    public void recordReusedCells(String tableName, String db, Map<String, BigDecimal> colValues) {
+        RunHistoryWriter historyWriter = writer;
+        if (historyWriter != null) {
+            colValues.forEach((col, value) -> historyWriter.cell(tableName, db, col, value));
+        }
+    }
+
+    /**
+     * 记录表在某库上查询失败
+     *
+     * @param outcome 失败的结果类型，由RerunManager.classifyFailure按异常归类，失败重跑时按此选择重跑的库
+     */
+    public void recordQueryFailure(String tableName, String db, String actualDb, long elapsedMillis, String errorMsg,
+                                   String outcome, String sqlHint) {
+        RunHistoryWriter historyWriter = writer;
+        if (historyWriter != null) {
+            historyWriter.timing(tableName, db, actualDb, elapsedMillis, false, errorMsg, outcome, sqlHint);
+        }
+    }
+
+    /**
+     * 记录表各列的公式校验结果，没有配置公式的列不记录
+     */
+    public void recordFormulaOutcomes(List<TableCsvResult> results) {
+        RunHistoryWriter historyWriter = writer;
+        if (historyWriter == null) {
+            return;
+        }
+        for (TableCsvResult result : results) {
+            if (result.getFormula() != null) {
+                historyWriter.formula(result.getTableName(), result.getCol(), result.getFormula(),
+                    "通过".equals(result.getFormulaResult()), result.getDiff(), result.getDiffDesc());
+            }
+        }
+    }
+
+    /**
+     * 记录本次运行结束并关闭历史数据库
+     */
+    public void finish(int totalTables, int completedTables) {
+        RunHistoryWriter historyWriter = writer;
+        if (historyWriter == null) {
+            return;
+        }
+        writer = null;
+        historyWriter.finish(totalTables, completedTables);
+        historyWriter.close();
+    }
+
+    /**
+     * 查询各表在各库上最近一次成功查询的耗时，用于按历史耗时安排处理顺序
+     *
+     * @return 表名 -> {库名 -> 耗时毫秒}，未启用或查询失败时返回空Map
+     */
+    public Map<String, Map<String, Long>> getLastQueryCosts() {
+        if (url == null) {
+            return Collections.emptyMap();
+        }
+        // 先按(表名, 库名)分组取最近一次成功的运行ID，再按主键取耗时
+        String sql = "SELECT Q.TABLE_NAME, Q.DB_NAME, Q.ELAPSED_MS FROM QUERY_TIMING Q JOIN "
+            + "(SELECT TABLE_NAME, DB_NAME, MAX(RUN_ID) AS RUN_ID FROM QUERY_TIMING WHERE SUCCESS = TRUE "
+            + "GROUP BY TABLE_NAME, DB_NAME) L "
+            + "ON Q.RUN_ID = L.RUN_ID AND Q.TABLE_NAME = L.TABLE_NAME AND Q.DB_NAME = L.DB_NAME";
+        Map<String, Map<String, Long>> costs = new HashMap<>();
+        try (Connection connection = DriverManager.getConnection(url);
+             PreparedStatement ps = connection.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                costs.computeIfAbsent(rs.getString(1), k -> new HashMap<>()).put(rs.getString(2), rs.getLong(3));
+            }
+        } catch (SQLException e) {
+            log.warn("查询历史耗时失败: {}", e.getMessage());
+            return Collections.emptyMap();
+        }
+        return costs;
+    }
+
+    /**
+     * 查询本次运行之前各表各列连续不通过的起始时间，即最近一次通过之后第一次不通过的运行开始时间，
+     * 启动时一次读出，导出时在内存中查找
+     *
+     * @return 表名 -> {列名 -> 起始时间}，之前最近一次运行仍通过的列不在其中，未启用或查询失败时返回空Map
+     */
+    public Map<String, Map<String, Timestamp>> getMismatchSince() {
+        RunHistoryWriter historyWriter = writer;
+        if (url == null || historyWriter == null) {
+            return Collections.emptyMap();
+        }
+        // 先按(表名, 列名)分组取最近一次通过的运行ID，再取其后不通过的最早运行；本次运行的公式结果不参与查询
+        String sql = "SELECT F.TABLE_NAME, F.COL_NAME, MIN(R.START_TIME) FROM FORMULA_OUTCOME F "
+            + "JOIN RUN_INFO R ON R.RUN_ID = F.RUN_ID LEFT JOIN "
+            + "(SELECT TABLE_NAME, COL_NAME, MAX(RUN_ID) AS RUN_ID FROM FORMULA_OUTCOME WHERE PASSED = TRUE AND RUN_ID < ? "
+            + "GROUP BY TABLE_NAME, COL_NAME) P ON P.TABLE_NAME = F.TABLE_NAME AND P.COL_NAME = F.COL_NAME "
+            + "WHERE F.PASSED = FALSE AND F.RUN_ID < ? AND F.RUN_ID > COALESCE(P.RUN_ID, 0) "
+            + "GROUP BY F.TABLE_NAME, F.COL_NAME";
+        Map<String, Map<String, Timestamp>> since = new HashMap<>();
+        try (Connection connection = DriverManager.getConnection(url);
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, historyWriter.getRunId());
+            ps.setLong(2, historyWriter.getRunId());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    since.computeIfAbsent(rs.getString(1), k -> new HashMap<>()).put(rs.getString(2), rs.getTimestamp(3));
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("查询历史公式结果失败: {}", e.getMessage());
+            return Collections.emptyMap();
+        }
+        return since;
+    }
+
+    /**
+     * 读取本次运行之前最近一次运行的求和结果、查询失败的库和公式不通过的表
+     *
+     * @return 未启用、没有更早的运行或查询失败时返回null
+     */
+    public PreviousRun loadPreviousRun() {
+        RunHistoryWriter historyWriter = writer;
+        if (url == null || historyWriter == null) {
+            return null;
+        }
+        try (Connection connection = DriverManager.getConnection(url)) {
+            PreviousRun previous = new PreviousRun();
+            try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT RUN_ID, START_TIME FROM RUN_INFO WHERE RUN_ID < ? ORDER BY RUN_ID DESC LIMIT 1")) {
+                ps.setLong(1, historyWriter.getRunId());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    previous.setRunId(rs.getLong(1));
+                    previous.setStartTime(rs.getTimestamp(2));
+                }
+            }
+            queryByRunId(connection, "SELECT TABLE_NAME, DB_NAME, COL_NAME, SUM_VALUE, SUM_SCALE FROM CELL_RESULT WHERE RUN_ID = ?",
+                previous.getRunId(), rs -> previous.getCells()
+                    .computeIfAbsent(rs.getString(1), k -> new HashMap<>())
+                    .computeIfAbsent(rs.getString(2), k -> new HashMap<>())
+                    .put(rs.getString(3), restoreScale(rs.getBigDecimal(4), (Integer) rs.getObject(5))));
+            queryByRunId(connection, "SELECT TABLE_NAME, DB_NAME, OUTCOME FROM QUERY_TIMING WHERE RUN_ID = ? AND SUCCESS = FALSE",
+                previous.getRunId(), rs -> previous.getFailedQueries()
+                    .computeIfAbsent(rs.getString(1), k -> new HashMap<>())
+                    .put(rs.getString(2), Optional.ofNullable(rs.getString(3)).orElse(RerunManager.OUTCOME_ERROR)));
+            queryByRunId(connection, "SELECT DISTINCT TABLE_NAME FROM FORMULA_OUTCOME WHERE RUN_ID = ? AND PASSED = FALSE",
+                previous.getRunId(), rs -> previous.getFormulaFailedTables().add(rs.getString(1)));
+            return previous;
+        } catch (SQLException e) {
+            log.warn("读取上次运行的历史结果失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按写入时的小数位数还原求和值，DECFLOAT读出的值不带末尾的0
+     */
+    private static BigDecimal restoreScale(BigDecimal value, Integer scale) {
+        if (value == null) {
+            return null;
+        }
+        if (scale == null) {
+            return value.scale() < 0 ? value.setScale(0) : value;
+        }
+        return value.setScale(scale, RoundingMode.UNNECESSARY);
+    }
+
+    private static void queryByRunId(Connection connection, String sql, long runId, RowCallbackHandler handler) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, runId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.processRow(rs);
+                }
+            }
+        }
+    }
+}
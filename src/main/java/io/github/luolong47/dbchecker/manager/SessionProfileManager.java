@@ -0,0 +1,151 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.util.StrUtil;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.config.LazyHikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 会话参数模板管理类
+ * 按数据源和表类别选择db.session.profiles中的模板，表查询取得连接后先执行模板的设置语句，
+ * 查询结束后执行恢复语句再把连接放回连接池；恢复失败的连接从连接池中剔除，不会把会话参数带给其他查询。
+ * 例如Oracle的ALTER SESSION并行和直接路径读、GaussDB的work_mem和query_dop、H2的SET命令。
+ */
+@Slf4j
+@Component
+public class SessionProfileManager {
+
+    private final Dbconfig dbconfig;
+
+    // 表名 -> 表类别
+    private final Map<String, String> tb2type = new HashMap<>();
+
+    public SessionProfileManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    @PostConstruct
+    public void init() {
+        Dbconfig.Session session = getSession();
+        session.getTable().forEach((type, tablesStr) -> StrUtil.split(tablesStr, ",", true, true)
+            .forEach(tableName -> {
+                String previous = tb2type.put(tableName.toUpperCase(), type);
+                if (previous != null && !previous.equals(type)) {
+                    log.warn("表 [{}] 同时属于会话模板类别 [{}] 和 [{}]，使用 [{}]", tableName, previous, type, type);
+                }
+            }));
+
+        // 检查引用了不存在的模板的配置
+        session.getDatasource().forEach((db, profile) -> checkProfile(profile, "数据源 [" + db + "]"));
+        session.getType().forEach((type, db2profile) -> db2profile
+            .forEach((db, profile) -> checkProfile(profile, "表类别 [" + type + "] 在数据源 [" + db + "] 上")));
+        if (!session.getProfiles().isEmpty()) {
+            log.info("会话参数模板初始化完成，共 {} 个模板，{} 个数据源默认模板，{} 个表设置了类别",
+                session.getProfiles().size(), session.getDatasource().size(), tb2type.size());
+        }
+    }
+
+    private void checkProfile(String profile, String owner) {
+        if (!getSession().getProfiles().containsKey(profile)) {
+            log.warn("{}使用的会话参数模板 [{}] 不存在，将不设置会话参数", owner, profile);
+        }
+    }
+
+    /**
+     * 获取表在数据源上使用的模板名，表类别的配置优先于数据源默认模板
+     *
+     * @param db 实际查询的数据源名称
+     * @return 模板名，没有配置时返回null
+     */
+    public String getProfileName(String db, String tableName) {
+        Dbconfig.Session session = getSession();
+        String type = tb2type.get(tableName.toUpperCase());
+        String profile = Optional.ofNullable(type)
+            .map(session.getType()::get)
+            .map(db2profile -> db2profile.get(db))
+            .orElseGet(() -> session.getDatasource().get(db));
+        return profile != null && session.getProfiles().containsKey(profile) ? profile : null;
+    }
+
+    /**
+     * 在设置了会话参数的连接上执行查询，没有模板时直接使用JdbcTemplate查询
+     *
+     * @param db 实际查询的数据源名称
+     * @param handler 逐行处理查询结果
+     */
+    public void query(String db, String tableName, JdbcTemplate jdbcTemplate, String sql, RowCallbackHandler handler) {
+        String profileName = getProfileName(db, tableName);
+        if (profileName == null) {
+            jdbcTemplate.query(sql, handler);
+            return;
+        }
+        Dbconfig.SessionProfile profile = getSession().getProfiles().get(profileName);
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        boolean reset = true;
+        try {
+            try {
+                log.debug("表[{}]在数据库[{}]上使用会话参数模板 [{}]", tableName, db, profileName);
+                executeAll(connection, profile.getApply());
+                try (Statement statement = connection.createStatement();
+                     ResultSet rs = statement.executeQuery(sql)) {
+                    while (rs.next()) {
+                        handler.processRow(rs);
+                    }
+                }
+            } finally {
+                reset = resetSession(connection, db, profileName, profile.getReset());
+            }
+        } catch (SQLException e) {
+            throw jdbcTemplate.getExceptionTranslator().translate("会话参数模板[" + profileName + "]下的查询", sql, e);
+        } finally {
+            if (!reset && dataSource instanceof LazyHikariDataSource) {
+                ((LazyHikariDataSource) dataSource).getPool().evictConnection(connection);
+            }
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * 执行恢复语句，失败时返回false
+     */
+    private boolean resetSession(Connection connection, String db, String profileName, List<String> statements) {
+        try {
+            executeAll(connection, statements);
+            return true;
+        } catch (SQLException e) {
+            log.warn("数据库[{}]恢复会话参数模板 [{}] 失败，连接将从连接池中剔除: {}", db, profileName, e.getMessage());
+            return false;
+        }
+    }
+
+    private static void executeAll(Connection connection, List<String> statements) throws SQLException {
+        if (statements == null || statements.isEmpty()) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private Dbconfig.Session getSession() {
+        return Optional.ofNullable(dbconfig.getSession()).orElseGet(Dbconfig.Session::new);
+    }
+}
@@ -2,8 +2,8 @@ package io.github.luolong47.dbchecker.manager;
 
 import cn.hutool.core.collection.ListUtil;
 import cn.hutool.core.date.StopWatch;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.extra.spring.SpringUtil;
 import io.github.luolong47.dbchecker.config.Dbconfig;
 import io.github.luolong47.dbchecker.entity.*;
 import io.github.luolong47.dbchecker.service.TableService;
@@ -15,11 +15,15 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -30,20 +34,38 @@ public class TableManager {
     private List<String> tables;
     private List<String> schemas;
     private List<String> dbs = ListUtil.of("ora", "ora-slave", "rlcms-base", "rlcms-pv1", "rlcms-pv2", "rlcms-pv3", "bscopy-pv1", "bscopy-pv2", "bscopy-pv3");
-    private Map<String, List<String>> tb2dbs;
+    private Map<String, List<String>> tb2dbs = new ConcurrentHashMap<>();
     private Map<String, String> tb2Schema = new ConcurrentHashMap<>();
-    private Map<String, List<String>> tb2sumCols;
+    private Map<String, CatalogSnapshot> catalogs = new ConcurrentHashMap<>(); // 库名 -> 目录快照
+    private Map<String, List<String>> tb2sumCols = new ConcurrentHashMap<>();
+    private Map<String, Map<String, List<String>>> tb2dbSumCols = new ConcurrentHashMap<>(); // tableName->(db->该库上存在的求和列)
+    private Map<String, AtomicInteger> tb2pendingCatalogs = new ConcurrentHashMap<>(); // tableName->尚未回调该表的目录快照数
+    private Map<String, Map<String, String>> tb2catalogStatus = new ConcurrentHashMap<>(); // tableName->(目录采集失败的库->UNAVAILABLE/ERROR)
+    private Map<String, Long> tb2historyCost = new HashMap<>(); // tableName->历史上各库最近一次成功查询耗时的最大值（毫秒）
+    private Map<String, Map<String, Timestamp>> tb2mismatchSince = new HashMap<>(); // tableName->(列名->之前连续不通过的起始运行时间)
+    private AtomicInteger totalTables = new AtomicInteger(); // 需要处理的表数，所有库中都不存在的表确定后减去
+    private List<SchemaDrift> schemaDrifts = new CopyOnWriteArrayList<>();
     private Map<String, TableService> tableServices;
     private Map<String, List<TableCsvResult>> tableCsvResultMap = new ConcurrentHashMap<>();
-    private Map<String, TableInfo> tableInfoMap;
+    private Map<String, TableInfo> tableInfoMap = new ConcurrentHashMap<>();
     private Map<String, Map<String, String>> tb2where; //tableName->(db->whereStr)
     private List<String> slaveQueryTbs = new CopyOnWriteArrayList<>(); // 存储需要从从节点查询的表名列表
-    private Map<String, String> tb2hint;
     private Map<String, Formula> tb2formula;
     private final Dbconfig dbconfig;
     private final DynamicJdbcTemplateManager dynamicJdbcTemplateManager;
+    private final DynamicDataSourceManager dynamicDataSourceManager;
     private final CsvExportManager csvExportManager;
+    private final XlsxExportManager xlsxExportManager;
     private final ResumeStateManager resumeStateManager;
+    private final RunHistoryManager runHistoryManager;
+    private final MetadataCacheManager metadataCacheManager;
+    private final SessionProfileManager sessionProfileManager;
+    private final CircuitBreakerManager circuitBreakerManager;
+    private final QueryRetryManager queryRetryManager;
+    private final RerunManager rerunManager;
+    private final QueryPlanManager queryPlanManager;
+    private final HintManager hintManager;
+    private final ParallelBudgetManager parallelBudgetManager;
     
     // 注入不同用途的线程池
     private final ExecutorService tableExecutor;
@@ -64,11 +86,25 @@ public class TableManager {
     // 全局表处理的StopWatch对象
     private StopWatch globalTableWatch;
 
-    public TableManager(Dbconfig dbconfig, DynamicJdbcTemplateManager dynamicJdbcTemplateManager, CsvExportManager csvExportManager, ResumeStateManager resumeStateManager, ExecutorService tableExecutor, ExecutorService dbQueryExecutor, ExecutorService csvExportExecutor) {
+    // 已提交的表处理任务，在目录快照采集过程中陆续加入
+    private List<CompletableFuture<Void>> tableFutures = new CopyOnWriteArrayList<>();
+
+    public TableManager(Dbconfig dbconfig, DynamicJdbcTemplateManager dynamicJdbcTemplateManager, DynamicDataSourceManager dynamicDataSourceManager, CsvExportManager csvExportManager, XlsxExportManager xlsxExportManager, ResumeStateManager resumeStateManager, RunHistoryManager runHistoryManager, MetadataCacheManager metadataCacheManager, SessionProfileManager sessionProfileManager, CircuitBreakerManager circuitBreakerManager, QueryRetryManager queryRetryManager, RerunManager rerunManager, QueryPlanManager queryPlanManager, HintManager hintManager, ParallelBudgetManager parallelBudgetManager, ExecutorService tableExecutor, ExecutorService dbQueryExecutor, ExecutorService csvExportExecutor) {
         this.dbconfig = dbconfig;
         this.dynamicJdbcTemplateManager = dynamicJdbcTemplateManager;
+        this.dynamicDataSourceManager = dynamicDataSourceManager;
         this.csvExportManager = csvExportManager;
+        this.xlsxExportManager = xlsxExportManager;
         this.resumeStateManager = resumeStateManager;
+        this.runHistoryManager = runHistoryManager;
+        this.metadataCacheManager = metadataCacheManager;
+        this.sessionProfileManager = sessionProfileManager;
+        this.circuitBreakerManager = circuitBreakerManager;
+        this.queryRetryManager = queryRetryManager;
+        this.rerunManager = rerunManager;
+        this.queryPlanManager = queryPlanManager;
+        this.hintManager = hintManager;
+        this.parallelBudgetManager = parallelBudgetManager;
         this.tableExecutor = tableExecutor;
         this.dbQueryExecutor = dbQueryExecutor;
         this.csvExportExecutor = csvExportExecutor;
@@ -104,87 +140,35 @@ public class TableManager {
 
         // 初始化断点续跑状态管理器
         resumeStateManager.init();
+        // 打开运行历史数据库并登记本次运行
+        runHistoryManager.start();
+        // 失败重跑模式：读取上次运行的结果，选出需要重跑的库
+        rerunManager.init();
+        // 读取各表的历史查询耗时，用于安排表的提交顺序
+        initTb2HistoryCost();
+        // 读取之前各列公式连续不通过的起始时间，导出公式不通过的列时直接在内存中查找
+        tb2mismatchSince = runHistoryManager.getMismatchSince();
+
+        // 加载元数据缓存，目录未变化的库不再扫描数据字典
+        metadataCacheManager.init();
 
         // 初始化从节点查询表列表
         initSlaveQueryTbs();
         initTableServices();
-        initTb2dbs();
         initTb2Where();
-        initTb2Hint();
         initTb2Formula();
-        initTb2SumCols();
-        initTableInfoMap();
+        startTableProcessing();
+        // 目录快照分批回调，表在所有库上的存在性和列定义确定后立即提交处理，不等待其他表和其他库
+        initCatalogs();
+        // 所有表都已提交，各库的查询任务登记完成，没有任务的库立即关闭连接池
+        dynamicDataSourceManager.planningComplete();
+        metadataCacheManager.save();
+        // 表结构差异在所有表的目录都确定后单独输出，不再通过查询失败才发现
+        csvExportManager.exportSchemaDrift(schemaDrifts);
+        awaitTableProcessing();
     }
 
 
-    private void initTb2Hint() {
-        tb2hint = new ConcurrentHashMap<>();
-
-        Optional.ofNullable(dbconfig.getHints())
-            .ifPresent(hints -> {
-                log.info("开始初始化SQL提示映射...");
-
-                // 获取类型映射 - t1, t2 -> 数据库列表
-                Map<String, List<String>> typeDbMap = Optional.ofNullable(hints.getType())
-                    .map(typeMap -> typeMap.entrySet().stream()
-                        .collect(Collectors.toMap(
-                            Map.Entry::getKey,
-                            e -> StrUtil.split(e.getValue(), ",", true, true)
-                        )))
-                    .orElse(new HashMap<>());
-
-                // 获取表映射 - t1, t2 -> 表列表
-                Map<String, List<String>> typeTableMap = Optional.ofNullable(hints.getTable())
-                    .map(tableMap -> tableMap.entrySet().stream()
-                        .collect(Collectors.toMap(
-                            Map.Entry::getKey,
-                            e -> StrUtil.split(e.getValue(), ",", true, true)
-                                .stream()
-                                .map(String::toUpperCase)
-                                .collect(Collectors.toList())
-                        )))
-                    .orElse(new HashMap<>());
-
-                // 获取SQL提示映射 - t1, t2 -> SQL提示
-                Map<String, String> typeSqlMap = Optional.ofNullable(hints.getSql())
-                    .orElse(new HashMap<>());
-
-                // 统计要处理的表数量
-                long tableCount = typeTableMap.values().stream()
-                    .mapToLong(List::size)
-                    .sum();
-
-                log.info("找到 {} 个类型提示, {} 个表映射, {} 个SQL提示",
-                    typeDbMap.size(), tableCount, typeSqlMap.size());
-
-                // 处理每种类型
-                typeTableMap.forEach((type, tables) -> {
-                    // 获取该类型的SQL提示
-                    String sqlHint = typeSqlMap.getOrDefault(type, "");
-
-                    if (StrUtil.isNotEmpty(sqlHint)) {
-                        // 为该类型的所有表设置SQL提示
-                        tables.forEach(tableName -> {
-                            tb2hint.put(tableName, sqlHint);
-                            log.debug("表 [{}] 设置SQL提示: {}", tableName, sqlHint);
-                        });
-
-                        log.debug("类型 [{}] 的 {} 个表设置SQL提示: {}",
-                            type, tables.size(), sqlHint);
-                    } else {
-                        log.warn("类型 [{}] 没有对应的SQL提示配置", type);
-                    }
-                });
-
-                // 检查是否有配置了SQL提示但没有配置表的类型
-                typeSqlMap.keySet().stream()
-                    .filter(type -> !typeTableMap.containsKey(type))
-                    .forEach(type -> log.warn("类型 [{}] 有SQL提示配置但没有对应的表配置", type));
-
-                log.info("SQL提示映射初始化完成，共设置 {} 个表的提示", tb2hint.size());
-            });
-    }
-
     private void initSlaveQueryTbs() {
         // 从配置中获取需要从从节点查询的表列表
         slaveQueryTbs = Optional.ofNullable(dbconfig.getSlaveQuery().getTables())
@@ -222,63 +206,81 @@ public class TableManager {
         log.info("WHERE 条件映射初始化完成，共设置 {} 个表的条件", tb2where.size());
     }
 
-    private void initTb2SumCols() {
-        tb2sumCols = new ConcurrentHashMap<>();
-
+    /**
+     * 确定表的求和列和表在各库上实际存在的求和列，表在所有库上的目录都确定后调用
+     */
+    private void initTableSumCols(String tableName, List<String> dbList) {
         // 所有表都要查询 COUNT（*）作为特殊的SUM列
-        tables.forEach((tableName) -> {
-            List<String> cols = tb2sumCols.computeIfAbsent(tableName, k -> new CopyOnWriteArrayList<>());
-            cols.add("_COUNT");
-            cols.add("_COUNT_NO_WHERE");  // 添加不带WHERE条件的记录数统计列
-        });
+        List<String> sumCols = tb2sumCols.computeIfAbsent(tableName, k -> new CopyOnWriteArrayList<>());
+        sumCols.add("_COUNT");
+        sumCols.add("_COUNT_NO_WHERE");  // 添加不带WHERE条件的记录数统计列
 
         // 如果金额列功能未启用，直接返回
         if (!dbconfig.getSum().isEnable()) {
-            log.info("金额列统计功能未启用");
             return;
         }
 
         int minDecimalDigits = dbconfig.getSum().getMinDecimalDigits();
-        log.info("开始初始化金额列映射，最小小数位数: {}", minDecimalDigits);
-
-        // 直接从ora库中批量查询所有表的金额字段
-        try {
-            // 获取ora库的JdbcTemplate
-            String oraDb = "ora";
-            JdbcTemplate jdbcTemplate = dynamicJdbcTemplateManager.getJdbcTemplate(oraDb);
-            TableService tableService = tableServices.get(oraDb);
-
-            // 获取需要查询的表名列表
-            List<String> tableList = new ArrayList<>(tb2dbs.keySet());
-
-            // 从tb2Schema中获取schema
-            String schema = schemas.isEmpty() ? null : schemas.get(0);
-            if (schema == null) {
-                log.warn("未配置schema信息，无法查询金额字段");
-                return;
-            }
-
-            log.info("开始从ora库批量查询 {} 个表的金额字段信息", tableList.size());
-
-            // 批量查询金额字段
-            Map<String, List<String>> decimalColumnsMap = tableService.getDecimalColumnsForTables(
-                jdbcTemplate, schema, tableList, minDecimalDigits);
+        // 金额列以参照库为准，再与表所在的每个库的列定义比对
+        // 参照库：有ora时以ora为准，否则按库的配置顺序取第一个存在该表的库
+        String refDb = dbs.stream().filter(dbList::contains).findFirst().orElse(null);
+        CatalogSnapshot.TableMeta refTable = refDb == null ? null : catalogs.get(refDb).getTable(tableName);
+        if (refTable == null) {
+            return;
+        }
+        List<String> refCols = refTable.getDecimalColumns(minDecimalDigits);
+        // 不要直接替换现有的列表，而是将金额列添加到已有列表中
+        sumCols.addAll(refCols);
+        if (!refCols.isEmpty()) {
+            log.debug("表 [{}] 的金额列: {}（参照库: {}）", tableName, String.join(",", refCols), refDb);
+        }
 
-            // 将查询结果保存到tb2sumCols
-            decimalColumnsMap.forEach((tableName, columns) -> {
-                if (!columns.isEmpty()) {
-                    // 不要直接替换现有的列表，而是将金额列添加到已有列表中
-                    List<String> existingCols = tb2sumCols.computeIfAbsent(tableName, k -> new CopyOnWriteArrayList<>());
-                    existingCols.addAll(columns);
-                    log.debug("表 [{}] 的金额列: {}", tableName, String.join(",", columns));
+        Map<String, List<String>> dbCols = new ConcurrentHashMap<>();
+        for (String db : dbList) {
+            CatalogSnapshot.TableMeta table = catalogs.get(db).getTable(tableName);
+            List<String> cols = new ArrayList<>();
+            for (String sumCol : sumCols) {
+                if ("_COUNT".equals(sumCol) || "_COUNT_NO_WHERE".equals(sumCol)) {
+                    cols.add(sumCol);
+                    continue;
                 }
-            });
-
+                CatalogSnapshot.ColumnMeta column = table.getColumn(sumCol);
+                if (column == null) {
+                    schemaDrifts.add(new SchemaDrift(tableName, db, sumCol, SchemaDrift.Type.MISSING_COLUMN,
+                        StrUtil.format("{}: {}", refDb, formatColumnType(refTable.getColumn(sumCol)))));
+                    continue;
+                }
+                cols.add(sumCol);
+                CatalogSnapshot.ColumnMeta refColumn = refTable.getColumn(sumCol);
+                if (!table.getDecimalColumns(minDecimalDigits).contains(sumCol)
+                    || !Objects.equals(column.getScale(), refColumn.getScale())) {
+                    schemaDrifts.add(new SchemaDrift(tableName, db, sumCol, SchemaDrift.Type.TYPE_MISMATCH,
+                        StrUtil.format("{}: {}，{}: {}", refDb, formatColumnType(refColumn), db, formatColumnType(column))));
+                }
+            }
+            table.getDecimalColumns(minDecimalDigits).stream()
+                .filter(col -> !sumCols.contains(col))
+                .forEach(col -> schemaDrifts.add(new SchemaDrift(tableName, db, col, SchemaDrift.Type.EXTRA_COLUMN,
+                    StrUtil.format("{}: {}", db, formatColumnType(table.getColumn(col))))));
+            dbCols.put(db, cols);
+        }
+        tb2dbSumCols.put(tableName, dbCols);
+    }
 
-            log.info("金额列映射初始化完成，共获取到 {} 个表的金额列信息", tb2sumCols.size());
-        } catch (Exception e) {
-            log.error("批量查询金额字段失败，将回退到单表查询: {}", e.getMessage(), e);
+    private static String formatColumnType(CatalogSnapshot.ColumnMeta column) {
+        if (column.getPrecision() == null && column.getScale() == null) {
+            return column.getDataType();
         }
+        return StrUtil.format("{}({},{})", column.getDataType(),
+            column.getPrecision() == null ? "*" : column.getPrecision(),
+            column.getScale() == null ? "*" : column.getScale());
+    }
+
+    /**
+     * 获取表在某库上需要求和的列，不含该库上不存在的列
+     */
+    private List<String> getDbSumCols(String tableName, String db, List<String> sumCols) {
+        return tb2dbSumCols.getOrDefault(tableName, Collections.emptyMap()).getOrDefault(db, sumCols);
     }
 
     private List<TableCsvResult> convertTableInfoToTableCsvResult(TableInfo tableInfo) {
@@ -346,10 +348,18 @@ public class TableManager {
             result.setSumBscopyPv1(colResult.get("bscopy-pv1"));
             result.setSumBscopyPv2(colResult.get("bscopy-pv2"));
             result.setSumBscopyPv3(colResult.get("bscopy-pv3"));
+            result.setDbStatus(tableInfo.getDbStatus());
 
-            // 如果存在公式，设置公式相关字段
+            // 如果存在公式，设置公式相关字段。公式读取的库没有得到结果时不比较，避免把缺失的值当作0
             Formula formula = tableInfo.getFormula();
-            if (formula != null) {
+            Map<String, String> formulaDbStatus = formula == null ? Collections.emptyMap() : formula.getDbs().stream()
+                .filter(db -> tableInfo.getDbStatus().containsKey(db))
+                .collect(Collectors.toMap(db -> db, db -> tableInfo.getDbStatus().get(db), (a, b) -> a, LinkedHashMap::new));
+            if (formula != null && !formulaDbStatus.isEmpty()) {
+                result.setFormula(formula.getDesc());
+                result.setFormulaResult("无法验证");
+                result.setDiffDesc("数据库" + formulaDbStatus + "没有得到结果，无法验证公式");
+            } else if (formula != null) {
                 result.setFormula(formula.getDesc());
                 result.setFormulaResult(formula.result(tableInfo, col) ? "通过" : "不通过");
                 result.setDiff(formula.diff(tableInfo, col));
@@ -362,358 +372,381 @@ public class TableManager {
         return results;
     }
 
-    private void initTableInfoMap() {
-        tableInfoMap = new ConcurrentHashMap<>();
-        tb2dbs.forEach((tableName, dbs) -> tableInfoMap.put(tableName, new TableInfo(tableName, dbs)));
-
-        // 设置表的公式信息
-        log.info("开始设置表的公式信息...");
-        final int[] formulaCount = {0};
-        tb2formula.forEach((tableName, formula) -> {
-            TableInfo tableInfo = tableInfoMap.get(tableName);
-            if (tableInfo != null) {
-                tableInfo.setFormula(formula);
-                formulaCount[0]++;
-                log.debug("表[{}]设置公式: {}", tableName, formula.getDesc());
-            } else {
-                log.warn("表[{}]在tableInfoMap中不存在，但在tb2formula中存在", tableName);
-            }
-        });
-        log.info("公式信息设置完成，共设置 {} 个表的公式", formulaCount[0]);
-
-        // 修复NullPointerException：只设置tableInfoMap中存在的表的sumCols
-        tb2sumCols.forEach((tableName, sumCols) -> {
-            TableInfo tableInfo = tableInfoMap.get(tableName);
-            if (tableInfo != null) {
-                tableInfo.setSumCols(sumCols);
-            } else {
-                log.warn("表[{}]在tableInfoMap中不存在，但在tb2sumCols中存在", tableName);
-            }
-        });
-
-        log.info("开始计算表列求和结果...");
-
-        // 获取总表数量
-        int totalTables = tb2dbs.size();
-        log.info("共需处理 {} 张表的数据检查", totalTables);
+    /**
+     * 初始化结果导出和断点续跑的表列表，开始全局计时。表在目录快照确定后才陆续提交，
+     * 此时的总表数是配置的表数，所有库中都不存在的表确定后再减去
+     */
+    private void startTableProcessing() {
+        Set<String> configuredTables = tables.stream().map(String::toUpperCase).collect(Collectors.toCollection(LinkedHashSet::new));
+        totalTables.set(configuredTables.size());
+        log.info("共配置 {} 张表的数据检查，表在所有库上的目录确定后立即开始处理", configuredTables.size());
 
         // 初始化断点续跑状态管理器的表列表
-        resumeStateManager.initTableLists(tb2dbs.keySet(), totalTables);
+        resumeStateManager.initTableLists(configuredTables, totalTables.get());
 
         // 创建全局的StopWatch来记录所有表处理的总时间
         globalTableWatch = new StopWatch("全部表处理");
         globalTableWatch.start("所有表处理任务开始");
 
-        // 初始化CSV导出
-        csvExportManager.initCsvExport(totalTables);
-
-        // 并行处理每个表
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        // 初始化CSV导出，启用时同时初始化XLSX导出
+        csvExportManager.initCsvExport(totalTables.get());
+        xlsxExportManager.initXlsxExport(csvExportManager.getBaseName());
+    }
 
-        tb2dbs.forEach((tableName, dbList) -> {
-            // 检查表是否已经在断点续跑中完成处理
-            if (resumeStateManager.isTableCompleted(tableName)) {
-                log.info("表[{}]已在之前的运行中完成处理，跳过", tableName);
-                return;
+    /**
+     * 表在所有库上的目录都已确定：得到表所在的库、求和列和表结构差异，建立TableInfo并提交处理
+     */
+    private void onTableResolved(String tableName) {
+        List<String> dbList = dbs.stream()
+            .filter(db -> catalogs.containsKey(db) && catalogs.get(db).getTable(tableName) != null)
+            .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
+        Map<String, String> catalogStatus = tb2catalogStatus.getOrDefault(tableName, Collections.emptyMap());
+        if (dbList.isEmpty()) {
+            if (catalogStatus.isEmpty()) {
+                log.debug("表[{}]在所有库中都不存在，移出检查", tableName);
+            } else {
+                log.warn("表[{}]在目录采集成功的库中都不存在，数据库{}的目录采集失败，无法确定表是否存在，移出检查",
+                    tableName, catalogStatus.keySet());
             }
+            resumeStateManager.removeTable(tableName, totalTables.decrementAndGet());
+            return;
+        }
+        tb2dbs.put(tableName, dbList);
+        // 将表的schema信息保存到tb2Schema映射中，以库的配置顺序靠前的为准
+        tb2Schema.putIfAbsent(tableName, catalogs.get(dbList.get(0)).getTable(tableName).getSchemaName());
+        initTableSumCols(tableName, dbList);
+
+        TableInfo tableInfo = new TableInfo(tableName, dbList);
+        tableInfo.setSchemaName(tb2Schema.get(tableName));
+        Formula formula = tb2formula.get(tableName);
+        if (formula != null) {
+            tableInfo.setFormula(formula);
+            log.debug("表[{}]设置公式: {}", tableName, formula.getDesc());
+        }
+        tableInfo.setSumCols(tb2sumCols.get(tableName));
+        // 目录采集失败的库不能确定表是否存在，不查询，导出时按查询失败标记状态
+        tableInfo.getDbStatus().putAll(catalogStatus);
+        tableInfoMap.put(tableName, tableInfo);
 
-            List<String> sumCols = tb2sumCols.get(tableName);
-            if (sumCols == null || sumCols.isEmpty()) {
-                log.info("表[{}]没有需要求和的列，标记为已完成并跳过", tableName);
-                resumeStateManager.markTableCompleted(tableName, totalTables);
-                return;
-            }
+        submitTable(tableName);
+    }
 
-            // 标记表为进行中状态
-            resumeStateManager.markTableProcessing(tableName);
+    /**
+     * 提交表的求和任务，各库的查询并行执行，全部完成后导出结果
+     */
+    private void submitTable(String tableName) {
+        List<String> dbList = tb2dbs.get(tableName);
+        List<String> sumCols = tb2sumCols.get(tableName);
+        if (sumCols == null || sumCols.isEmpty()) {
+            log.info("表[{}]没有需要求和的列，标记为已完成并跳过", tableName);
+            resumeStateManager.markTableCompleted(tableName, totalTables.get());
+            return;
+        }
 
-            // 异步处理每个表 - 使用表处理专用线程池
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                // 为每个表创建一个StopWatch并保存到Map中
-                StopWatch tableWatch = new StopWatch(StrUtil.format("表[{}]处理", tableName));
-                tableStopWatches.put(tableName, tableWatch);
-                tableWatch.start(StrUtil.format("表[{}]处理开始", tableName));
-                
+        // 断点续跑：上次运行已得到结果的库不再查询
+        Map<String, List<String>> dbSumCols = dbList.stream()
+            .collect(Collectors.toMap(db -> db, db -> getDbSumCols(tableName, db, sumCols)));
+        Map<String, Map<String, BigDecimal>> restoredCells = resumeStateManager.getRestoredCells(tableName, dbSumCols);
+        // 失败重跑：上次运行中不需要重跑的库复用上次的结果，同时记入本次的状态和运行历史，下次重跑仍可复用
+        rerunManager.getReusedCells(tableName, dbSumCols).forEach((db, colValues) -> {
+            if (restoredCells.putIfAbsent(db, colValues) == null) {
+                resumeStateManager.recordTableDbResult(tableName, db, colValues);
+                runHistoryManager.recordReusedCells(tableName, db, colValues);
+            }
+        });
+        if (restoredCells.size() == dbList.size()) {
+            // 所有库都已有结果，直接计算公式并导出，不再查询数据库
+            boolean completed = resumeStateManager.isTableCompleted(tableName);
+            log.info("表[{}]在之前的运行中已得到全部 {} 个库的结果，使用保存的结果导出", tableName, dbList.size());
+            tableFutures.add(CompletableFuture.runAsync(() -> {
                 try {
                     TableInfo tableInfo = tableInfoMap.get(tableName);
-                    Map<String, Map<String, BigDecimal>> sumResult = new ConcurrentHashMap<>();
-
-                    // 为每列初始化结果Map
-                    for (String sumCol : sumCols) {
-                        sumResult.put(sumCol, new ConcurrentHashMap<>());
+                    tableInfo.setSumResult(toSumResult(restoredCells, sumCols));
+                    exportTableResults(tableInfo, totalTables.get());
+                    if (!completed) {
+                        resumeStateManager.markTableCompleted(tableName, totalTables.get());
                     }
+                } catch (Exception e) {
+                    log.error("导出表[{}]保存的结果时发生错误: {}", tableName, e.getMessage(), e);
+                }
+            }, csvExportExecutor));
+            return;
+        }
+        if (!restoredCells.isEmpty()) {
+            log.info("表[{}]在之前的运行中已得到 {}/{} 个库的结果，只查询其余的库: {}", tableName,
+                restoredCells.size(), dbList.size(),
+                dbList.stream().filter(db -> !restoredCells.containsKey(db)).collect(Collectors.joining(",")));
+        }
 
-                    // 创建数据库查询的CompletableFuture列表
-                    List<CompletableFuture<Void>> dbFutures = new ArrayList<>();
-
-                    // 为每个数据库创建异步查询任务
-                    for (String db : dbList) {
-                        // 检查是否需要从从节点查询
-                        String actualDb = db;
-                        if ("ora".equals(db) && slaveQueryTbs.contains(tableName)) {
-                            actualDb = "ora-slave";
-                            log.debug("表[{}]将从从节点[{}]查询", tableName, actualDb);
-                        }
-
-                        final String finalDb = db; // 原始数据库名，用于结果存储
-                        final String finalActualDb = actualDb; // 实际查询的数据库名
-
-                        // 使用数据库查询专用线程池处理查询任务
-                        CompletableFuture<Void> dbFuture = CompletableFuture.runAsync(() -> {
-                            // 为每个数据库查询创建一个StopWatch并保存到Map中
-                            Map<String, StopWatch> dbWatches = dbQueryStopWatches.computeIfAbsent(
-                                tableName, k -> new ConcurrentHashMap<>());
-                            StopWatch sqlWatch = new StopWatch(StrUtil.format("表[{}]-数据库[{}]查询", tableName, finalActualDb));
-                            dbWatches.put(finalActualDb, sqlWatch);
-                            
-                            sqlWatch.start(StrUtil.format("表[{}]-数据库[{}]构建SQL", tableName, finalActualDb));
-                            
-                            try {
-                                JdbcTemplate jdbcTemplate = dynamicJdbcTemplateManager.getJdbcTemplate(finalActualDb);
+        // 需要查询的库：原始库名 -> 实际查询的库名，提交前在数据源上登记，库的全部查询完成后提前关闭连接池
+        Map<String, String> queryDbs = new LinkedHashMap<>();
+        for (String db : dbList) {
+            if (restoredCells.containsKey(db)) {
+                continue;
+            }
+            // 检查是否需要从从节点查询
+            String actualDb = db;
+            if ("ora".equals(db) && slaveQueryTbs.contains(tableName)) {
+                actualDb = "ora-slave";
+                log.debug("表[{}]将从从节点[{}]查询", tableName, actualDb);
+            }
+            queryDbs.put(db, actualDb);
+            dynamicDataSourceManager.retain(actualDb);
+        }
+        // 已登记但未能提交查询的库，在表处理结束时释放
+        Set<String> unsubmittedDbs = ConcurrentHashMap.newKeySet();
+        unsubmittedDbs.addAll(queryDbs.values());
+
+        // 标记表为进行中状态
+        resumeStateManager.markTableProcessing(tableName);
+
+        // 异步处理每个表 - 使用表处理专用线程池
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            // 为每个表创建一个StopWatch并保存到Map中
+            StopWatch tableWatch = new StopWatch(StrUtil.format("表[{}]处理", tableName));
+            tableStopWatches.put(tableName, tableWatch);
+            tableWatch.start(StrUtil.format("表[{}]处理开始", tableName));
+            
+            try {
+                TableInfo tableInfo = tableInfoMap.get(tableName);
+                // 为每列初始化结果Map，并填入上次运行已得到的结果
+                Map<String, Map<String, BigDecimal>> sumResult = toSumResult(restoredCells, sumCols);
+
+                // 创建数据库查询的CompletableFuture列表
+                List<CompletableFuture<Void>> dbFutures = new ArrayList<>();
+
+                // 指向同一物理库且SQL相同的库只查询一次，结果分发到组内每个库：物理库标识+SQL -> 原始库名列表
+                Map<String, String> db2sql = new HashMap<>();
+                Map<String, List<String>> queryGroups = new LinkedHashMap<>();
+                queryDbs.forEach((db, actualDb) -> {
+                    String sql = buildSumSql(tableName, db, dbSumCols.get(db));
+                    db2sql.put(db, sql);
+                    queryGroups.computeIfAbsent(dynamicDataSourceManager.getPhysicalKey(actualDb) + "\n" + sql,
+                        k -> new ArrayList<>()).add(db);
+                });
 
-                                // 构建合并的查询语句
-                                StringBuilder sqlBuilder = new StringBuilder("SELECT ");
+                // 为每组库创建异步查询任务
+                for (List<String> groupDbs : queryGroups.values()) {
+                    final String finalDb = groupDbs.get(0); // 执行查询的原始数据库名
+                    final String finalActualDb = queryDbs.get(finalDb); // 实际查询的数据库名
+                    final List<String> querySumCols = dbSumCols.get(finalDb); // 该库上存在的求和列
+                    final String sql = db2sql.get(finalDb);
+                    // 提示中请求的并行度，每次执行时按并行度预算重新分配
+                    final int requestedDegree = ParallelBudgetManager.getRequestedDegree(sql);
+                    final String sqlHint = tableInfo.getDbHints().get(finalDb);
+                    if (groupDbs.size() > 1) {
+                        log.info("表[{}]在数据库{}上的查询相同且指向同一物理库，只在[{}]上执行一次", tableName, groupDbs, finalActualDb);
+                    }
 
-                                // 检查该表是否有SQL提示，如果有则添加到查询开头
-                                String sqlHint = tb2hint.get(tableName);
-                                if (StrUtil.isNotEmpty(sqlHint)) {
-                                    sqlBuilder.append(sqlHint).append(" ");
-                                    log.debug("为表[{}]添加SQL提示: {}", tableName, sqlHint);
-                                }
+                    // 使用数据库查询专用线程池处理查询任务，可恢复的失败按退避时间只重新提交本查询
+                    String cellName = StrUtil.format("表[{}]在数据库[{}]", tableName, finalActualDb);
+                    CompletableFuture<Void> dbFuture = queryRetryManager.<Void>submit(cellName, () -> {
+                        // 为每个数据库查询创建一个StopWatch并保存到Map中
+                        Map<String, StopWatch> dbWatches = dbQueryStopWatches.computeIfAbsent(
+                            tableName, k -> new ConcurrentHashMap<>());
+                        StopWatch sqlWatch = new StopWatch(StrUtil.format("表[{}]-数据库[{}]查询", tableName, finalActualDb));
+                        dbWatches.put(finalActualDb, sqlWatch);
+                        
+                        sqlWatch.start(StrUtil.format("表[{}]-数据库[{}]执行SQL", tableName, finalActualDb));
+
+                        // 从物理库的并行度预算中分配本次查询的并行度，与请求不同时改写SQL和记录的提示，查询结束后归还
+                        final int degree = parallelBudgetManager.acquire(finalActualDb, requestedDegree);
+                        final String querySql = degree == requestedDegree ? sql : ParallelBudgetManager.rewriteDegree(sql, degree);
+                        if (sqlHint != null) {
+                            groupDbs.forEach(groupDb -> tableInfo.getDbHints().put(groupDb, ParallelBudgetManager.rewriteDegree(sqlHint, degree)));
+                        }
 
-                                boolean hasCountCol = false;
-                                boolean hasCountNoWhereCol = false;
-
-                                // 检查是否存在WHERE条件
-                                Map<String, String> dbWhereMap = tb2where.get(tableName);
-                                String whereCondition = dbWhereMap != null ? dbWhereMap.get(finalDb) : null;
-                                boolean hasWhereCondition = whereCondition != null && !whereCondition.trim().isEmpty();
-
-                                // 收集所有需要SUM的列和COUNT
-                                for (String sumCol : sumCols) {
-                                    if ("_COUNT_NO_WHERE".equals(sumCol)) {
-                                        // 总是计算不带WHERE的COUNT
-                                        sqlBuilder.append("COUNT(*) AS \"_COUNT_NO_WHERE\", ");
-                                        hasCountNoWhereCol = true;
-                                    } else if ("_COUNT".equals(sumCol)) {
-                                        // 根据是否有WHERE条件决定如何计算COUNT
-                                        if (hasWhereCondition) {
-                                            sqlBuilder.append("SUM(CASE WHEN ").append(whereCondition)
-                                                .append(" THEN 1 ELSE 0 END) AS \"_COUNT\", ");
-                                        } else {
-                                            sqlBuilder.append("COUNT(*) AS \"_COUNT\", ");
-                                        }
-                                        hasCountCol = true;
+                        try {
+                            // 数据源熔断中时直接失败，不等待连接超时
+                            JdbcTemplate jdbcTemplate = dynamicJdbcTemplateManager.getJdbcTemplate(finalActualDb);
+                            log.debug("执行合并统计SQL: {}, 数据库: {} (实际查询: {})", querySql, groupDbs, finalActualDb);
+
+                            // 执行查询并处理结果，本库的结果同时记入状态日志
+                            Map<String, BigDecimal> cellValues = new HashMap<>();
+                            sessionProfileManager.query(finalActualDb, tableName, jdbcTemplate, querySql, rs -> {
+                                // 处理所有SUM列的结果
+                                for (String sumCol : querySumCols) {
+                                    BigDecimal value;
+                                    if ("_COUNT".equals(sumCol) || "_COUNT_NO_WHERE".equals(sumCol)) {
+                                        value = new BigDecimal(rs.getLong(sumCol));
                                     } else {
-                                        // 根据是否有WHERE条件决定如何计算SUM
-                                        if (hasWhereCondition) {
-                                            sqlBuilder.append("SUM(CASE WHEN ").append(whereCondition)
-                                                .append(" THEN ").append(sumCol).append(" ELSE 0 END) AS ")
-                                                .append(sumCol).append(", ");
-                                        } else {
-                                            sqlBuilder.append("SUM(").append(sumCol).append(") AS ")
-                                                .append(sumCol).append(", ");
-                                        }
+                                        value = rs.getBigDecimal(sumCol);
                                     }
-                                }
 
-                                // 移除最后一个逗号和空格
-                                if (!sumCols.isEmpty()) {
-                                    sqlBuilder.setLength(sqlBuilder.length() - 2);
+                                    // 处理NULL值
+                                    if (value == null) {
+                                        value = BigDecimal.ZERO;
+                                    }
+                                    cellValues.put(sumCol, value);
+                                    log.debug("表[{}]列[{}]在数据库{}的求和结果: {} (实际查询: {})",
+                                        tableName, sumCol, groupDbs, value, finalActualDb);
                                 }
+                            });
+                            sqlWatch.stop();
+                            circuitBreakerManager.recordSuccess(finalActualDb);
 
-                                // 直接使用表名，不加schema前缀
-                                sqlBuilder.append(" FROM ").append(tableName);
+                            // 保存结果 - 注意：结果存储到原始数据库名下，而不是实际查询的数据库
+                            cellValues.forEach((sumCol, value) -> groupDbs.forEach(groupDb -> sumResult.get(sumCol).put(groupDb, value)));
 
-                                String sql = sqlBuilder.toString();
-                                sqlWatch.stop();
-                                log.debug("表[{}]-数据库[{}]的SQL构建完成，耗时: {}ms", tableName, finalActualDb, sqlWatch.getLastTaskTimeMillis());
+                            // 从Map中获取StopWatch对象
+                            StopWatch currentWatch = dbQueryStopWatches
+                                .getOrDefault(tableName, new ConcurrentHashMap<>())
+                                .getOrDefault(finalActualDb, sqlWatch);
                                 
-                                sqlWatch.start(StrUtil.format("表[{}]-数据库[{}]执行SQL", tableName, finalActualDb));
-                                log.debug("执行合并统计SQL: {}, 数据库: {} (实际查询: {})", sql, finalDb, finalActualDb);
-
-                                // 将外部变量复制为final变量，以便lambda表达式中使用
-                                final boolean finalHasCountCol = hasCountCol;
-                                final boolean finalHasCountNoWhereCol = hasCountNoWhereCol;
-
-                                // 执行查询并处理结果
-                                jdbcTemplate.query(sql, rs -> {
-                                    // 处理所有SUM列的结果
-                                    for (String sumCol : sumCols) {
-                                        BigDecimal value;
-                                        if ("_COUNT".equals(sumCol) && finalHasCountCol) {
-                                            value = new BigDecimal(rs.getLong("_COUNT"));
-                                        } else if ("_COUNT_NO_WHERE".equals(sumCol) && finalHasCountNoWhereCol) {
-                                            value = new BigDecimal(rs.getLong("_COUNT_NO_WHERE"));
-                                        } else {
-                                            value = rs.getBigDecimal(sumCol);
-                                        }
-
-                                        // 处理NULL值
-                                        if (value == null) {
-                                            value = BigDecimal.ZERO;
-                                        }
-
-                                        // 保存结果 - 注意：结果存储到原始数据库名下，而不是实际查询的数据库
-                                        sumResult.get(sumCol).put(finalDb, value);
-                                        log.debug("表[{}]列[{}]在数据库[{}]的求和结果: {} (实际查询: {})",
-                                            tableName, sumCol, finalDb, value, finalActualDb);
-                                    }
-                                });
+                            // 记录表在当前数据库的处理时间，组内每个库记录相同的结果和耗时
+                            long dbProcessTime = currentWatch.getLastTaskTimeMillis();
+                            for (String groupDb : groupDbs) {
+                                resumeStateManager.recordTableDbTime(tableName, queryDbs.get(groupDb), dbProcessTime);
+                                resumeStateManager.recordTableDbResult(tableName, groupDb, cellValues);
+                                runHistoryManager.recordQuery(tableName, groupDb, queryDbs.get(groupDb), dbProcessTime, cellValues,
+                                    tableInfo.getDbHints().get(groupDb));
+                            }
+                            
+                            log.debug("表[{}]在数据库[{}]的SQL执行完成，SQL耗时: {}ms",
+                                tableName, finalActualDb, dbProcessTime);
+                            return null;
+                        } catch (Exception e) {
+                            if (sqlWatch.isRunning()) {
                                 sqlWatch.stop();
-                                
-                                // 从Map中获取StopWatch对象
-                                StopWatch currentWatch = dbQueryStopWatches
-                                    .getOrDefault(tableName, new ConcurrentHashMap<>())
-                                    .getOrDefault(finalActualDb, sqlWatch);
-                                    
-                                // 记录表在当前数据库的处理时间
-                                long dbProcessTime = currentWatch.getLastTaskTimeMillis();
-                                resumeStateManager.recordTableDbTime(tableName, finalActualDb, dbProcessTime);
-                                
-                                log.debug("表[{}]在数据库[{}]的SQL执行完成，SQL耗时: {}ms",
-                                    tableName, finalActualDb, dbProcessTime);
-                            } catch (Exception e) {
-                                // 从Map中获取StopWatch对象
-                                StopWatch currentWatch = dbQueryStopWatches
-                                    .getOrDefault(tableName, new ConcurrentHashMap<>())
-                                    .getOrDefault(finalActualDb, sqlWatch);
-                                
-                                if (currentWatch.isRunning()) {
-                                    currentWatch.stop();
-                                }
-                                
-                                log.error("计算表[{}]在数据库[{}]的列求和时发生错误 (实际查询: {}): {}, SQL耗时: {}ms",
-                                    tableName, finalDb, finalActualDb, e.getMessage(), currentWatch.getLastTaskTimeMillis(), e);
-
-                                // 出错时为所有列设为0
-                                for (String sumCol : sumCols) {
-                                    sumResult.get(sumCol).put(finalDb, BigDecimal.ZERO);
-                                }
                             }
-                        }, dbQueryExecutor); // 使用数据库查询专用线程池
-
-                        dbFutures.add(dbFuture);
-                    }
+                            // 每次获取连接失败都计入熔断统计
+                            circuitBreakerManager.recordFailure(finalActualDb, e);
+                            throw e;
+                        } finally {
+                            parallelBudgetManager.release(finalActualDb, degree);
+                        }
+                    }, dbQueryExecutor).handle((unused, e) -> {
+                        try {
+                            if (e != null) {
+                                recordCellFailure(tableInfo, groupDbs, queryDbs, finalActualDb, e);
+                            }
+                        } finally {
+                            groupDbs.forEach(groupDb -> dynamicDataSourceManager.release(queryDbs.get(groupDb)));
+                        }
+                        return null;
+                    });
 
-                    // 从Map中获取该表的StopWatch
-                    StopWatch currentTableWatch = tableStopWatches.getOrDefault(tableName, tableWatch);
-                    
-                    // 在停止前确保任务已经启动，并在后续再次启动前停止之前的任务
-                    if (currentTableWatch.isRunning()) {
-                        currentTableWatch.stop();
-                    }
-                    currentTableWatch.start(StrUtil.format("表[{}]等待所有数据库查询完成", tableName));
-                    
-                    // 等待所有数据库查询完成
-                    CompletableFuture.allOf(dbFutures.toArray(new CompletableFuture[0]))
-                        .exceptionally(e -> {
-                            log.error("表[{}]的数据库查询任务中有错误发生: {}", tableName, e.getMessage(), e);
-                            return null;
-                        })
-                        .join();
-                    
-                    if (currentTableWatch.isRunning()) {
-                        currentTableWatch.stop();
-                    }
+                    dbFutures.add(dbFuture);
+                    groupDbs.forEach(groupDb -> unsubmittedDbs.remove(queryDbs.get(groupDb)));
+                }
 
-                    // 设置结果
-                    currentTableWatch.start(StrUtil.format("表[{}]设置统计结果", tableName));
-                    tableInfo.setSumResult(sumResult);
-                    
-                    if (currentTableWatch.isRunning()) {
-                        currentTableWatch.stop();
-                    }
-                    
-                    log.debug("表[{}]的求和计算完成, 共计算 {} 列", tableName, sumCols.size());
-                } catch (Exception e) {
-                    log.error("表[{}]的求和处理过程中发生错误: {}", tableName, e.getMessage(), e);
-                } finally {
-                    // 获取StopWatch并确保停止
-                    StopWatch currentTableWatch = tableStopWatches.getOrDefault(tableName, tableWatch);
-                    // 确保停止当前任务
-                    if (currentTableWatch.isRunning()) {
-                        currentTableWatch.stop();
-                    }
-                    log.info("表[{}]处理完成，总耗时统计：{}ms", tableName, currentTableWatch.getTotalTimeMillis());
-                    
-                    // 处理完成后从Map中移除，避免内存泄漏
-                    tableStopWatches.remove(tableName);
-                    dbQueryStopWatches.remove(tableName);
+                // 从Map中获取该表的StopWatch
+                StopWatch currentTableWatch = tableStopWatches.getOrDefault(tableName, tableWatch);
+                
+                // 在停止前确保任务已经启动，并在后续再次启动前停止之前的任务
+                if (currentTableWatch.isRunning()) {
+                    currentTableWatch.stop();
                 }
-            }, tableExecutor) // 使用表处理专用线程池
-            .thenAcceptAsync(unused -> { // 使用CSV导出专用线程池
-                // 为每个CSV导出创建一个StopWatch并保存到Map中
-                StopWatch csvWatch = new StopWatch(StrUtil.format("表[{}]CSV导出", tableName));
-                csvExportStopWatches.put(tableName, csvWatch);
-                csvWatch.start(StrUtil.format("表[{}]生成CSV数据", tableName));
+                currentTableWatch.start(StrUtil.format("表[{}]等待所有数据库查询完成", tableName));
                 
-                // 将TableInfo转换为TableCsvResult并导出到CSV
-                try {
-                    TableInfo tableInfo = tableInfoMap.get(tableName);
-                    if (tableInfo == null || tableInfo.getSumResult() == null) {
-                        log.warn("表[{}]的计算结果为空，跳过CSV导出", tableName);
-                        return;
-                    }
-
-                    List<TableCsvResult> results = convertTableInfoToTableCsvResult(tableInfo);
+                // 等待所有数据库查询完成
+                CompletableFuture.allOf(dbFutures.toArray(new CompletableFuture[0]))
+                    .exceptionally(e -> {
+                        log.error("表[{}]的数据库查询任务中有错误发生: {}", tableName, e.getMessage(), e);
+                        return null;
+                    })
+                    .join();
+                
+                if (currentTableWatch.isRunning()) {
+                    currentTableWatch.stop();
+                }
 
-                    // 如果没有结果，跳过导出
-                    if (results.isEmpty()) {
-                        log.warn("表[{}]没有有效的求和结果，跳过CSV导出", tableName);
-                        return;
-                    }
+                // 设置结果
+                currentTableWatch.start(StrUtil.format("表[{}]设置统计结果", tableName));
+                tableInfo.setSumResult(sumResult);
+                
+                if (currentTableWatch.isRunning()) {
+                    currentTableWatch.stop();
+                }
+                
+                log.debug("表[{}]的求和计算完成, 共计算 {} 列", tableName, sumCols.size());
+            } catch (Exception e) {
+                log.error("表[{}]的求和处理过程中发生错误: {}", tableName, e.getMessage(), e);
+            } finally {
+                unsubmittedDbs.forEach(dynamicDataSourceManager::release);
+                // 获取StopWatch并确保停止
+                StopWatch currentTableWatch = tableStopWatches.getOrDefault(tableName, tableWatch);
+                // 确保停止当前任务
+                if (currentTableWatch.isRunning()) {
+                    currentTableWatch.stop();
+                }
+                log.info("表[{}]处理完成，总耗时统计：{}ms", tableName, currentTableWatch.getTotalTimeMillis());
+                
+                // 处理完成后从Map中移除，避免内存泄漏
+                tableStopWatches.remove(tableName);
+                dbQueryStopWatches.remove(tableName);
+            }
+        }, tableExecutor) // 使用表处理专用线程池
+        .thenAcceptAsync(unused -> { // 使用CSV导出专用线程池
+            // 为每个CSV导出创建一个StopWatch并保存到Map中
+            StopWatch csvWatch = new StopWatch(StrUtil.format("表[{}]CSV导出", tableName));
+            csvExportStopWatches.put(tableName, csvWatch);
+            csvWatch.start(StrUtil.format("表[{}]生成CSV数据", tableName));
+            
+            // 将TableInfo转换为TableCsvResult并导出到CSV
+            try {
+                TableInfo tableInfo = tableInfoMap.get(tableName);
+                if (tableInfo == null || tableInfo.getSumResult() == null) {
+                    log.warn("表[{}]的计算结果为空，跳过CSV导出", tableName);
+                    return;
+                }
 
-                    // 使用CSV导出管理器导出数据
-                    csvExportManager.exportTableToCsv(tableName, results, totalTables);
-
-                    // 保存结果到内存映射
-                    tableCsvResultMap.put(tableName, results);
-                    
-                    // 标记该表已处理完成，并保存状态
-                    resumeStateManager.markTableCompleted(tableName, totalTables);
-                    
-                    // 获取当前CSV的StopWatch
-                    StopWatch currentCsvWatch = csvExportStopWatches.getOrDefault(tableName, csvWatch);
-                    if (currentCsvWatch.isRunning()) {
-                        currentCsvWatch.stop();
-                    }
-                    
-                    // 保存表信息数据
-                    resumeStateManager.saveState(tableInfoMap);
-                    
-                    log.debug("表[{}]的CSV导出已完成并保存状态，CSV导出耗时: {}ms",
-                        tableName, currentCsvWatch.getLastTaskTimeMillis());
-                    
-                    // 处理完成后从Map中移除，避免内存泄漏
-                    csvExportStopWatches.remove(tableName);
-                } catch (Exception e) {
-                    // 获取当前CSV的StopWatch
-                    StopWatch currentCsvWatch = csvExportStopWatches.getOrDefault(tableName, csvWatch);
-                    // 确保停止计时
-                    if (currentCsvWatch.isRunning()) {
-                        currentCsvWatch.stop();
-                    }
-                    log.error("处理表[{}]的数据时发生错误，CSV处理耗时: {}ms: {}", 
-                        tableName, currentCsvWatch.getLastTaskTimeMillis(), e.getMessage(), e);
-                    
-                    // 处理完成后从Map中移除，避免内存泄漏
-                    csvExportStopWatches.remove(tableName);
+                if (!exportTableResults(tableInfo, totalTables.get())) {
+                    return;
+                }
+                
+                // 标记该表已处理完成，并保存状态
+                resumeStateManager.markTableCompleted(tableName, totalTables.get());
+                
+                // 获取当前CSV的StopWatch
+                StopWatch currentCsvWatch = csvExportStopWatches.getOrDefault(tableName, csvWatch);
+                if (currentCsvWatch.isRunning()) {
+                    currentCsvWatch.stop();
                 }
-            }, csvExportExecutor); // 使用CSV导出专用线程池
+                
+                log.debug("表[{}]的CSV导出已完成并保存状态，CSV导出耗时: {}ms",
+                    tableName, currentCsvWatch.getLastTaskTimeMillis());
+                
+                // 处理完成后从Map中移除，避免内存泄漏
+                csvExportStopWatches.remove(tableName);
+            } catch (Exception e) {
+                // 获取当前CSV的StopWatch
+                StopWatch currentCsvWatch = csvExportStopWatches.getOrDefault(tableName, csvWatch);
+                // 确保停止计时
+                if (currentCsvWatch.isRunning()) {
+                    currentCsvWatch.stop();
+                }
+                log.error("处理表[{}]的数据时发生错误，CSV处理耗时: {}ms: {}", 
+                    tableName, currentCsvWatch.getLastTaskTimeMillis(), e.getMessage(), e);
+                
+                // 处理完成后从Map中移除，避免内存泄漏
+                csvExportStopWatches.remove(tableName);
+            }
+        }, csvExportExecutor); // 使用CSV导出专用线程池
 
-            futures.add(future);
-        });
+        tableFutures.add(future);
+    }
+
+    /**
+     * 等待已提交的表处理任务全部完成，关闭导出和线程池。调用时目录快照已全部回调，不会再有新的表提交
+     */
+    private void awaitTableProcessing() {
+        // 配置了公式但所有库中都不存在的表
+        tb2formula.keySet().stream()
+            .filter(tableName -> !tableInfoMap.containsKey(tableName))
+            .forEach(tableName -> log.warn("表[{}]在tableInfoMap中不存在，但在tb2formula中存在", tableName));
+        log.info("共 {} 张表需要处理，其中 {} 张表设置了公式，发现 {} 处表结构差异", tableInfoMap.size(),
+            tableInfoMap.values().stream().filter(t -> t.getFormula() != null).count(), schemaDrifts.size());
 
         // 等待所有任务完成
-        futures.stream()
-            .collect(Collectors.collectingAndThen(
-                Collectors.toList(),
-                fs -> CompletableFuture.allOf(fs.toArray(new CompletableFuture[0]))
-            )).join();
+        CompletableFuture.allOf(tableFutures.toArray(new CompletableFuture[0])).join();
+        if (queryRetryManager.getRetries() > 0) {
+            log.info("本次运行共重试 {} 次查询", queryRetryManager.getRetries());
+        }
 
-        // 关闭CSV写入器
+        // 关闭CSV和XLSX写入器
         csvExportManager.closeWriter();
+        xlsxExportManager.closeWriter();
         
         // 停止全局表处理计时
         if (globalTableWatch != null && globalTableWatch.isRunning()) {
@@ -731,6 +764,177 @@ public class TableManager {
         shutdownExecutors();
     }
 
+    /**
+     * 查询最终失败：不再填0，按失败原因把组内每个库标记为UNAVAILABLE或ERROR，导出时代替求和值
+     */
+    private void recordCellFailure(TableInfo tableInfo, List<String> groupDbs, Map<String, String> queryDbs,
+                                   String actualDb, Throwable e) {
+        String tableName = tableInfo.getTableName();
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        StopWatch watch = dbQueryStopWatches.getOrDefault(tableName, Collections.emptyMap()).get(actualDb);
+        long elapsed = watch != null ? watch.getLastTaskTimeMillis() : 0;
+
+        // 数据源熔断中或无法获取连接时，该库标记为不可用
+        boolean unavailable = CircuitBreakerManager.isUnavailable(cause);
+        if (unavailable) {
+            log.warn("表[{}]在数据库{}上的查询未执行，数据源[{}]不可用: {}, 耗时: {}ms",
+                tableName, groupDbs, actualDb, cause.getMessage(), elapsed);
+        } else {
+            log.error("计算表[{}]在数据库{}的列求和时发生错误 (实际查询: {}): {}, SQL耗时: {}ms",
+                tableName, groupDbs, actualDb, cause.getMessage(), elapsed, cause);
+        }
+        for (String groupDb : groupDbs) {
+            runHistoryManager.recordQueryFailure(tableName, groupDb, queryDbs.get(groupDb), elapsed, cause.getMessage(),
+                RerunManager.classifyFailure(cause), tableInfo.getDbHints().get(groupDb));
+            tableInfo.getDbStatus().put(groupDb, unavailable ? TableInfo.STATUS_UNAVAILABLE : TableInfo.STATUS_ERROR);
+        }
+    }
+
+    /**
+     * 构建表在某库上的合并统计SQL，所有求和列和COUNT在一次扫描中完成；
+     * 有WHERE条件且条件命中选择性高的索引时，由查询规划改为拆分查询
+     *
+     * @param db 原始库名，用于取该库的WHERE条件
+     * @param querySumCols 该库上存在的求和列
+     */
+    private String buildSumSql(String tableName, String db, List<String> querySumCols) {
+        // 构建合并的查询语句
+        StringBuilder sqlBuilder = new StringBuilder("SELECT ");
+
+        // 检查是否存在WHERE条件
+        Map<String, String> dbWhereMap = tb2where.get(tableName);
+        String whereCondition = dbWhereMap != null ? dbWhereMap.get(db) : null;
+        boolean hasWhereCondition = whereCondition != null && !whereCondition.trim().isEmpty();
+
+        CatalogSnapshot dbCatalog = catalogs.get(db);
+        CatalogSnapshot.TableMeta tableMeta = dbCatalog == null ? null : dbCatalog.getTable(tableName);
+        // 手工提示按单次扫描的语句编写，拆分后表级提示只作用于外层查询，配置了手工提示时不拆分
+        boolean manualHint = hintManager.hasManualHint(tableName, db);
+        boolean split = hasWhereCondition && querySumCols.contains("_COUNT") && querySumCols.contains("_COUNT_NO_WHERE")
+            && !manualHint && queryPlanManager.isSplit(tableName, db, whereCondition, tableMeta);
+        if (hasWhereCondition && manualHint) {
+            log.debug("表[{}]在库[{}]配置了手工SQL提示，使用单次扫描", tableName, db);
+        }
+        boolean countOnly = !hasWhereCondition
+            && querySumCols.stream().allMatch(sumCol -> "_COUNT".equals(sumCol) || "_COUNT_NO_WHERE".equals(sumCol));
+
+        // SQL提示添加到查询开头：手工配置优先，否则按目录统计信息生成，记入表信息，运行历史按查询记录
+        String sqlHint = hintManager.getHint(tableName, db, tableServices.get(db), tableMeta, countOnly, split);
+        if (StrUtil.isNotEmpty(sqlHint)) {
+            sqlBuilder.append(sqlHint).append(" ");
+            tableInfoMap.get(tableName).getDbHints().put(db, sqlHint);
+        }
+
+        if (split) {
+            return buildSplitSumSql(tableName, sqlBuilder, whereCondition, querySumCols);
+        }
+
+        // 收集所有需要SUM的列和COUNT
+        for (String sumCol : querySumCols) {
+            if ("_COUNT_NO_WHERE".equals(sumCol)) {
+                // 总是计算不带WHERE的COUNT
+                sqlBuilder.append("COUNT(*) AS \"_COUNT_NO_WHERE\", ");
+            } else if ("_COUNT".equals(sumCol)) {
+                // 根据是否有WHERE条件决定如何计算COUNT
+                if (hasWhereCondition) {
+                    sqlBuilder.append("SUM(CASE WHEN ").append(whereCondition)
+                        .append(" THEN 1 ELSE 0 END) AS \"_COUNT\", ");
+                } else {
+                    sqlBuilder.append("COUNT(*) AS \"_COUNT\", ");
+                }
+            } else {
+                // 根据是否有WHERE条件决定如何计算SUM
+                if (hasWhereCondition) {
+                    sqlBuilder.append("SUM(CASE WHEN ").append(whereCondition)
+                        .append(" THEN ").append(sumCol).append(" ELSE 0 END) AS ")
+                        .append(sumCol).append(", ");
+                } else {
+                    sqlBuilder.append("SUM(").append(sumCol).append(") AS ")
+                        .append(sumCol).append(", ");
+                }
+            }
+        }
+
+        // 移除最后一个逗号和空格
+        if (!querySumCols.isEmpty()) {
+            sqlBuilder.setLength(sqlBuilder.length() - 2);
+        }
+
+        // 直接使用表名，不加schema前缀
+        sqlBuilder.append(" FROM ").append(tableName);
+        return sqlBuilder.toString();
+    }
+
+    /**
+     * 构建拆分的统计SQL：不带条件的COUNT(*)作为标量子查询，其余列在带WHERE条件的子查询中计算，
+     * 两部分可以分别使用索引快速全扫描和索引范围扫描，结果仍是一行，列名与合并统计SQL相同
+     *
+     * @param sqlBuilder 已写入SELECT和SQL提示的语句
+     */
+    private String buildSplitSumSql(String tableName, StringBuilder sqlBuilder, String whereCondition, List<String> querySumCols) {
+        StringBuilder filteredCols = new StringBuilder();
+        for (String sumCol : querySumCols) {
+            if ("_COUNT".equals(sumCol)) {
+                filteredCols.append("COUNT(*) AS \"_COUNT\", ");
+            } else if (!"_COUNT_NO_WHERE".equals(sumCol)) {
+                filteredCols.append("SUM(").append(sumCol).append(") AS ").append(sumCol).append(", ");
+            }
+        }
+        filteredCols.setLength(filteredCols.length() - 2);
+
+        sqlBuilder.append("(SELECT COUNT(*) FROM ").append(tableName).append(") AS \"_COUNT_NO_WHERE\", F.* FROM (SELECT ")
+            .append(filteredCols).append(" FROM ").append(tableName).append(" WHERE ").append(whereCondition).append(") F");
+        return sqlBuilder.toString();
+    }
+
+    /**
+     * 将按库组织的结果（库名 -> {列名 -> 值}）转换为TableInfo的求和结果结构（列名 -> {库名 -> 值}）
+     */
+    private static Map<String, Map<String, BigDecimal>> toSumResult(Map<String, Map<String, BigDecimal>> cells, List<String> sumCols) {
+        Map<String, Map<String, BigDecimal>> sumResult = new ConcurrentHashMap<>();
+        for (String sumCol : sumCols) {
+            sumResult.put(sumCol, new ConcurrentHashMap<>());
+        }
+        cells.forEach((db, colValues) -> colValues.forEach((col, value) -> sumResult.get(col).put(db, value)));
+        return sumResult;
+    }
+
+    /**
+     * 将表的求和结果转换后导出到CSV和XLSX，并保存到内存映射
+     *
+     * @param tableInfo 已设置求和结果的表信息
+     * @param totalTables 总表数量，用于进度计算
+     * @return 有结果导出时返回true
+     */
+    private boolean exportTableResults(TableInfo tableInfo, int totalTables) {
+        String tableName = tableInfo.getTableName();
+        List<TableCsvResult> results = convertTableInfoToTableCsvResult(tableInfo);
+
+        // 如果没有结果，跳过导出
+        if (results.isEmpty()) {
+            log.warn("表[{}]没有有效的求和结果，跳过CSV导出", tableName);
+            return false;
+        }
+
+        // 使用CSV导出管理器导出数据，XLSX由独立写线程并行输出
+        csvExportManager.exportTableToCsv(tableName, results, totalTables);
+        xlsxExportManager.exportTable(tableName, results);
+        runHistoryManager.recordFormulaOutcomes(results);
+        // 公式不通过的列，从运行历史中查出差异从哪次运行开始出现
+        results.stream().filter(result -> "不通过".equals(result.getFormulaResult())).forEach(result -> {
+            Timestamp since = tb2mismatchSince.getOrDefault(tableName, Collections.emptyMap()).get(result.getCol());
+            if (since != null) {
+                log.warn("表[{}]列[{}]的{}不通过，自 {} 开始的运行起连续不通过", tableName, result.getCol(), result.getFormula(), since);
+            } else {
+                log.warn("表[{}]列[{}]的{}不通过，之前的运行中通过或没有记录", tableName, result.getCol(), result.getFormula());
+            }
+        });
+
+        // 保存结果到内存映射
+        tableCsvResultMap.put(tableName, results);
+        return true;
+    }
+
     /**
      * 关闭所有线程池，允许程序正常退出
      */
@@ -738,19 +942,25 @@ public class TableManager {
         log.info("所有数据处理任务已完成，开始关闭线程池...");
         
         try {
-            // 保存最终状态并关闭状态管理器
+            // 保存最终状态并关闭状态管理器，等待最终快照落盘后返回
             try {
                 log.debug("保存最终状态并关闭状态管理器...");
-                // 确保最终状态已保存，传入tableInfoMap
-                resumeStateManager.saveState(tableInfoMap);
-                // 等待一段时间确保状态保存完成
-                Thread.sleep(1000);
-                // 关闭状态管理器
                 resumeStateManager.shutdown();
             } catch (Exception e) {
                 log.error("关闭状态管理器时发生错误: {}", e.getMessage(), e);
             }
 
+            // 记录运行结束并关闭运行历史数据库
+            try {
+                ResumeState state = resumeStateManager.getCurrentState();
+                runHistoryManager.finish(state.getTotalTables(), state.getCompletedCount());
+            } catch (Exception e) {
+                log.error("关闭运行历史数据库时发生错误: {}", e.getMessage(), e);
+            }
+
+            // 先关闭查询重试的退避调度，等待中的重试按查询失败结束，不再提交到查询线程池
+            queryRetryManager.shutdown();
+
             // 直接关闭线程池
             if (tableExecutor != null) {
                 log.debug("关闭表处理线程池...");
@@ -773,6 +983,13 @@ public class TableManager {
         }
     }
 
+    private void initTb2HistoryCost() {
+        // 各库的查询并行执行，表的耗时取各库中最长的
+        runHistoryManager.getLastQueryCosts().forEach((tableName, db2cost) ->
+            db2cost.values().stream().max(Long::compare).ifPresent(cost -> tb2historyCost.put(tableName.toUpperCase(), cost)));
+        log.info("读取到 {} 张表的历史查询耗时，有历史耗时的表按耗时从长到短提交", tb2historyCost.size());
+    }
+
     private void initTb2Formula() {
         tb2formula = new ConcurrentHashMap<>();
 
@@ -806,9 +1023,8 @@ public class TableManager {
         tableServices = new ConcurrentHashMap<>();
         for (String db : dbs) {
             try {
-                DynamicDataSourceManager dataSourceManager = SpringUtil.getBean(DynamicDataSourceManager.class);
                 // 首先检查数据源是否存在(已启用)
-                if (!dataSourceManager.hasDataSource(db)) {
+                if (!dynamicDataSourceManager.hasDataSource(db)) {
                     log.warn("数据源 [{}] 不存在或已禁用，将使用禁用的TableService", db);
                     tableServices.put(db, new TableService.DisabledTableService(db));
                 } else {
@@ -823,19 +1039,33 @@ public class TableManager {
         }
     }
 
-    private void initTb2dbs() {
-        tb2dbs = new ConcurrentHashMap<>();
+    /**
+     * 并行采集各库的目录快照，各库分批回调表的目录，表在所有库上都回调后立即提交处理
+     */
+    private void initCatalogs() {
+        // 跳过ora-slave，不参与tb2dbs的初始化
+        log.info("跳过从节点 [ora-slave] 的目录快照采集");
+        List<String> catalogDbs = dbs.stream().filter(db -> !"ora-slave".equals(db)).collect(Collectors.toList());
+        tables.stream().map(String::toUpperCase).distinct()
+            .forEach(tableName -> tb2pendingCatalogs.put(tableName, new AtomicInteger(catalogDbs.size())));
+
+        // 目录采集使用独立线程，不占用数据库查询线程池，已提交的表查询可以与其他库的目录采集重叠执行
+        ExecutorService catalogExecutor = Executors.newFixedThreadPool(catalogDbs.size(), new NamedThreadFactory("catalog-collector-", true));
+        // 每个库的目录采集同时使用的连接数，与各批查询的并发数一致，采集期间在连接池中预留
+        Dbconfig.Catalog catalogOptions = dbconfig.getCatalog();
+        int chunks = Math.max(1, (tables.size() + catalogOptions.getChunkSize() - 1) / catalogOptions.getChunkSize());
+        int catalogConnections = Math.max(1, Math.min(catalogOptions.getParallelism(), chunks * 3));
         List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String db : catalogDbs) {
+            // 分批回调的表合并到本库的快照中，各批可能并发回调
+            CatalogSnapshot dbCatalog = new CatalogSnapshot(db);
+            dbCatalog.setTables(new ConcurrentHashMap<>());
+            catalogs.put(db, dbCatalog);
+            Set<String> resolved = ConcurrentHashMap.newKeySet();
 
-        for (String db : dbs) {
-            // 跳过ora-slave，不参与tb2dbs的初始化
-            if ("ora-slave".equals(db)) {
-                log.info("跳过从节点 [ora-slave] 的表信息初始化");
-                continue;
-            }
-
-            CompletableFuture<Void> future = CompletableFuture.supplyAsync(() -> {
-                log.info("开始查询数据库 [{}] 中的表信息", db);
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                log.info("开始采集数据库 [{}] 的目录快照", db);
+                dynamicDataSourceManager.beginCatalog(db, catalogConnections);
                 try {
                     JdbcTemplate jdbcTemplate = dynamicJdbcTemplateManager.getJdbcTemplate(db);
                     TableService tableService = tableServices.get(db);
@@ -843,22 +1073,33 @@ public class TableManager {
                     Map<String, String> schemasMap = dbconfig.getInclude().getSchemas();
                     String schemasStr = schemasMap != null ? schemasMap.getOrDefault(db, schemasMap.get("default")) : null;
                     List<String> schemas = schemasStr == null ? Collections.emptyList() : Arrays.stream(schemasStr.split(",")).map(String::trim).collect(Collectors.toList());
-                    List<TableEnt> tables = tableService.getTables(jdbcTemplate, schemas, this.tables);
-                    log.info("数据库 [{}] 中查询到 {} 个表", db, tables.size());
-                    return tables;
+                    CatalogSnapshot snapshot = metadataCacheManager.getCatalogSnapshot(db, tableService, jdbcTemplate, schemas, this.tables,
+                        (chunk, part) -> onCatalogChunk(db, chunk, part, resolved));
+                    circuitBreakerManager.recordSuccess(db);
+                    log.info("数据库 [{}] 中查询到 {} 个表", db, snapshot.getTables().size());
                 } catch (Exception e) {
-                    log.error("查询数据库 [{}] 中的表信息失败: {}", db, e.getMessage(), e);
-                    return ListUtil.<TableEnt>empty();
-                }
-            }, dbQueryExecutor) // 使用数据库查询专用线程池
-            .thenAcceptAsync(tableQueryed ->
-                tableQueryed.forEach(tableEnt -> {
-                        tb2dbs.computeIfAbsent(tableEnt.getTableName(), k -> new CopyOnWriteArrayList<>()).add(db);
-                        // 将表的schema信息保存到tb2Schema映射中
-                        tb2Schema.putIfAbsent(tableEnt.getTableName(), tableEnt.getSchemaName());
+                    circuitBreakerManager.recordFailure(db, e);
+                    log.error("采集数据库 [{}] 的目录快照失败: {}", db, e.getMessage(), e);
+                    // 尚未回调的表不能确定在本库是否存在，本库按查询失败记录，导出时标记为UNAVAILABLE或ERROR
+                    String status = CircuitBreakerManager.isUnavailable(e) ? TableInfo.STATUS_UNAVAILABLE : TableInfo.STATUS_ERROR;
+                    tb2pendingCatalogs.keySet().stream()
+                        .filter(tableName -> !resolved.contains(tableName))
+                        .forEach(tableName -> {
+                            tb2catalogStatus.computeIfAbsent(tableName, k -> new ConcurrentHashMap<>()).put(db, status);
+                            runHistoryManager.recordQueryFailure(tableName, db, db, 0, "目录快照采集失败: " + e.getMessage(),
+                                RerunManager.classifyFailure(e), null);
+                        });
+                } finally {
+                    dynamicDataSourceManager.endCatalog(db, catalogConnections);
+                    // 尚未回调的表在本库上视为已确定，失败的库已记录状态，保证每张表都能确定并进入处理
+                    List<String> rest = tb2pendingCatalogs.keySet().stream()
+                        .filter(tableName -> !resolved.contains(tableName))
+                        .collect(Collectors.toList());
+                    if (!rest.isEmpty()) {
+                        onCatalogChunk(db, rest, new CatalogSnapshot(db), resolved);
                     }
-                ), tableExecutor // 使用表处理专用线程池处理数据收集
-            );
+                }
+            }, catalogExecutor);
 
             futures.add(future);
         }
@@ -869,12 +1110,62 @@ public class TableManager {
                 Collectors.toList(),
                 fs -> CompletableFuture.allOf(fs.toArray(new CompletableFuture[0]))
             ))
-            .thenRun(() -> log.info("所有数据库表信息查询完成，共获取到{}个表信息", tb2dbs.size()))
+            .thenRun(() -> log.info("所有数据库目录快照采集完成，共获取到{}个表信息", tb2dbs.size()))
             .exceptionally(e -> {
-                log.error("等待数据库表信息查询时发生错误: {}", e.getMessage(), e);
+                log.error("等待数据库目录快照采集时发生错误: {}", e.getMessage(), e);
                 return null;
             })
             .join();
+        catalogExecutor.shutdown();
     }
-}
 
+    /**
+     * 一个库的一批表的目录已确定，本批中已在所有库上确定的表按数据量估计从大到小提交
+     *
+     * @param chunk 本批请求的表名，包括本库中不存在的表
+     * @param part 本批中本库存在的表的快照
+     * @param resolved 本库已回调的表名，同一表名只计一次
+     */
+    private void onCatalogChunk(String db, List<String> chunk, CatalogSnapshot part, Set<String> resolved) {
+        catalogs.get(db).getTables().putAll(part.getTables());
+        List<String> ready = new ArrayList<>();
+        for (String name : chunk) {
+            String tableName = name.toUpperCase();
+            AtomicInteger pending = tb2pendingCatalogs.get(tableName);
+            if (pending != null && resolved.add(tableName) && pending.decrementAndGet() == 0) {
+                ready.add(tableName);
+            }
+        }
+        // 耗时长的表先开始以缩短整体的收尾时间：没有历史耗时的表（新增的表、首次运行）耗时未知，先按数据量从大到小提交，
+        // 其余的表按历史耗时从长到短提交
+        ready.sort(Comparator.<String, Boolean>comparing(tb2historyCost::containsKey)
+            .thenComparing(tableName -> tb2historyCost.getOrDefault(tableName, 0L), Comparator.reverseOrder())
+            .thenComparing(this::estimateTableSize, Comparator.reverseOrder()));
+        for (String tableName : ready) {
+            try {
+                onTableResolved(tableName);
+            } catch (Exception e) {
+                log.error("提交表[{}]的处理任务时发生错误: {}", tableName, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 表在各库上的数据量估计之和（字节），优先使用段大小，没有大小时按行数乘平均行长换算，与查询规划的估算口径一致
+     */
+    private long estimateTableSize(String tableName) {
+        long total = 0;
+        for (CatalogSnapshot snapshot : catalogs.values()) {
+            CatalogSnapshot.TableMeta table = snapshot.getTable(tableName);
+            if (table == null) {
+                continue;
+            }
+            if (table.getSizeBytes() != null) {
+                total += table.getSizeBytes();
+            } else if (table.getRowCount() != null) {
+                total += table.getRowCount() * QueryPlanManager.ESTIMATED_ROW_BYTES;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.io.FileUtil;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.TableCsvResult;
+import io.github.luolong47.dbchecker.writer.XlsxResultWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * XLSX导出管理器，与CSV导出并行输出同一份结果，数值列以数值单元格写入
+ */
+@Slf4j
+@Component
+public class XlsxExportManager {
+
+    private final Dbconfig dbconfig;
+    private XlsxResultWriter xlsxWriter;
+
+    public XlsxExportManager(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    /**
+     * 是否启用XLSX导出
+     */
+    public boolean isEnabled() {
+        return dbconfig.getExport() != null && dbconfig.getExport().getXlsx().isEnable();
+    }
+
+    /**
+     * 初始化XLSX导出
+     *
+     * @param baseName 导出文件名前缀（不含扩展名），与CSV文件保持一致
+     */
+    public void initXlsxExport(String baseName) {
+        if (!isEnabled()) {
+            log.info("XLSX导出未启用");
+            return;
+        }
+        try {
+            Dbconfig.Xlsx xlsx = dbconfig.getExport().getXlsx();
+            String exportDir = Optional.ofNullable(dbconfig.getExport().getDirectory()).orElse("./export");
+            File xlsxFile = new File(exportDir, baseName + ".xlsx");
+            FileUtil.mkParentDirs(xlsxFile);
+
+            int rowsPerSheet = resolveRowsPerSheet(xlsx.getRowsPerSheet());
+            xlsxWriter = new XlsxResultWriter(xlsxFile, CsvExportManager.HEADERS,
+                xlsx.getWindowSize(), rowsPerSheet, xlsx.getQueueCapacity());
+            xlsxWriter.start();
+            log.info("初始化XLSX导出，文件路径: {}，内存行窗口: {}，单sheet最大行数: {}，队列容量: {}",
+                xlsxFile.getAbsolutePath(), xlsx.getWindowSize(), rowsPerSheet, xlsx.getQueueCapacity());
+        } catch (Exception e) {
+            xlsxWriter = null;
+            log.error("初始化XLSX导出失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 单sheet最大行数超出Excel上限时按上限处理，否则生成的文件Excel无法打开
+     */
+    private static int resolveRowsPerSheet(int rowsPerSheet) {
+        if (rowsPerSheet <= 0 || rowsPerSheet > XlsxResultWriter.MAX_ROWS_PER_SHEET) {
+            log.warn("db.export.xlsx.rows-per-sheet={} 超出范围，使用Excel上限 {}", rowsPerSheet, XlsxResultWriter.MAX_ROWS_PER_SHEET);
+            return XlsxResultWriter.MAX_ROWS_PER_SHEET;
+        }
+        return rowsPerSheet;
+    }
+
+    /**
+     * 导出表数据到XLSX
+     *
+     * @param tableName 表名
+     * @param results 表的结果列表
+     */
+    public void exportTable(String tableName, List<TableCsvResult> results) {
+        if (xlsxWriter == null || results == null || results.isEmpty()) {
+            return;
+        }
+        xlsxWriter.write(tableName, results);
+    }
+
+    /**
+     * 关闭XLSX写入器，等待剩余数据写完并保存文件
+     */
+    public void closeWriter() {
+        if (xlsxWriter != null) {
+            xlsxWriter.close();
+            xlsxWriter = null;
+        }
+    }
+}
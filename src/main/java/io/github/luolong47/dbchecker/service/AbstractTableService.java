@@ -1,18 +1,221 @@
 package io.github.luolong47.dbchecker.service;
 
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.date.StopWatch;
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import lombok.extern.slf4j.Slf4j;
 
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 public abstract class AbstractTableService implements TableService {
 
+    protected final Dbconfig dbconfig;
+
+    protected AbstractTableService(Dbconfig dbconfig) {
+        this.dbconfig = dbconfig;
+    }
+
+    /**
+     * 按表、列、分区、索引的顺序批量查询，组装目录快照。
+     * 表名按db.catalog.chunk-size分批，以数组参数绑定，各批在本库专用的线程中并行执行；
+     * 每批的表查询完成后立即并行查询本批的列、分区和索引，整批完成时回调onChunk，不等待其他批。
+     * 列、分区和索引只挂到快照中保留的表上。
+     */
+    @Override
+    public CatalogSnapshot getCatalogSnapshot(JdbcTemplate jdbcTemplate, String db, List<String> schemas, List<String> tables,
+                                              BiConsumer<List<String>, CatalogSnapshot> onChunk) {
+        CatalogSnapshot snapshot = new CatalogSnapshot(db);
+        if (tables == null || tables.isEmpty() || schemas == null || schemas.isEmpty()) {
+            log.warn("库 [{}] 的模式或表列表为空，返回空快照", db);
+            onChunk.accept(tables == null ? Collections.emptyList() : tables, snapshot);
+            return snapshot;
+        }
+
+        Dbconfig.Catalog options = getCatalogOptions();
+        List<List<String>> chunks = ListUtil.split(tables, options.getChunkSize());
+        int threads = Math.max(1, Math.min(options.getParallelism(), chunks.size() * 3));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("catalog-" + db + "-", true));
+        // 同名表出现在多个模式中时保留配置顺序靠前的模式
+        List<String> schemaOrder = schemas.stream().map(String::toUpperCase).collect(Collectors.toList());
+        StopWatch watch = new StopWatch(db + "目录快照采集");
+        watch.start(db + "分批查询表、列定义、分区和索引");
+        try {
+            List<CompletableFuture<CatalogSnapshot>> chunkFutures = chunks.stream()
+                .map(chunk -> CompletableFuture.supplyAsync(() -> queryTables(jdbcTemplate, schemas, chunk), executor)
+                    .thenCompose(found -> queryChunkDetails(jdbcTemplate, db, schemas, schemaOrder, found, executor))
+                    .thenApply(part -> {
+                        onChunk.accept(chunk, part);
+                        return part;
+                    }))
+                .collect(Collectors.toList());
+            joinAll(chunkFutures);
+            // 按分批顺序合并，快照中表的顺序与请求顺序一致
+            chunkFutures.forEach(f -> snapshot.getTables().putAll(f.join().getTables()));
+        } finally {
+            executor.shutdown();
+            watch.stop();
+        }
+
+        log.info("库 [{}] 目录快照采集完成，{}/{} 个表存在，{} 批，耗时统计：{}ms", db, snapshot.getTables().size(), tables.size(),
+            chunks.size(), watch.getTotalTimeMillis());
+        return snapshot;
+    }
+
+    /**
+     * 查询一批表的列定义、分区和索引，三个查询只修改本批表，可以并行
+     */
+    private CompletableFuture<CatalogSnapshot> queryChunkDetails(JdbcTemplate jdbcTemplate, String db, List<String> schemas,
+                                                                 List<String> schemaOrder, List<CatalogSnapshot.TableMeta> found,
+                                                                 ExecutorService executor) {
+        CatalogSnapshot part = new CatalogSnapshot(db);
+        found.stream()
+            .sorted(Comparator.comparingInt(t -> schemaOrder.indexOf(t.getSchemaName().toUpperCase())))
+            .forEach(t -> part.getTables().putIfAbsent(t.getTableName(), t));
+        if (part.getTables().isEmpty()) {
+            return CompletableFuture.completedFuture(part);
+        }
+        List<String> names = new ArrayList<>(part.getTables().keySet());
+        return CompletableFuture.allOf(
+            CompletableFuture.runAsync(() -> queryColumns(jdbcTemplate, schemas, names, part), executor),
+            CompletableFuture.runAsync(() -> queryPartitions(jdbcTemplate, schemas, names, part), executor),
+            CompletableFuture.runAsync(() -> queryIndexes(jdbcTemplate, schemas, names, part), executor)
+        ).thenApply(unused -> part);
+    }
+
+    /**
+     * 查询表及其行数、大小估计
+     */
+    protected abstract List<CatalogSnapshot.TableMeta> queryTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables);
+
+    /**
+     * 查询列定义，按列顺序挂到快照中的表上
+     */
+    protected abstract void queryColumns(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot);
+
+    /**
+     * 查询分区，不支持分区的数据库不需要实现
+     */
+    protected void queryPartitions(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+    }
+
+    /**
+     * 查询主键和索引定义，按索引列顺序挂到快照中的表上
+     */
+    protected abstract void queryIndexes(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot);
+
+    /**
+     * 名称列表匹配条件，条件中有一个数组参数占位符
+     *
+     * @param column 列名
+     */
+    protected abstract String nameCondition(String column);
+
+    /**
+     * 把名称列表转换为数据库的数组参数
+     */
+    protected abstract Array createNameArray(Connection connection, String[] names) throws SQLException;
+
+    /**
+     * 名称在数据字典中的形式，默认不转换
+     */
+    protected String normalizeName(String name) {
+        return name;
+    }
+
+    /**
+     * 执行以模式列表和表名列表为参数的目录查询，SQL中先是模式条件再是表名条件，两个参数都以数组绑定
+     */
+    protected void queryByNames(JdbcTemplate jdbcTemplate, String sql, List<String> schemas, List<String> tables,
+                                RowCallbackHandler handler) {
+        log.debug("执行SQL: {}, 模式: {}, 表数量: {}", sql, schemas, tables.size());
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(getCatalogOptions().getFetchSize());
+            ps.setArray(1, createNameArray(con, toNameArray(schemas)));
+            ps.setArray(2, createNameArray(con, toNameArray(tables)));
+            return ps;
+        }, handler);
+    }
+
+    /**
+     * 执行以模式列表为唯一参数、返回单个字符串的查询
+     */
+    protected String queryForStringBySchemas(JdbcTemplate jdbcTemplate, String sql, List<String> schemas) {
+        log.debug("执行SQL: {}, 模式: {}", sql, schemas);
+        return jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, createNameArray(con, toNameArray(schemas)));
+            return ps;
+        }, rs -> rs.next() ? rs.getString(1) : null);
+    }
+
+    private String[] toNameArray(List<String> names) {
+        return names.stream().map(this::normalizeName).toArray(String[]::new);
+    }
+
+    private Dbconfig.Catalog getCatalogOptions() {
+        return Optional.ofNullable(dbconfig.getCatalog()).orElseGet(Dbconfig.Catalog::new);
+    }
+
+    /**
+     * 等待全部查询完成，任一查询失败时抛出其原始异常
+     */
+    private static void joinAll(List<? extends CompletableFuture<?>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 把同一索引连续的多行（每行一个索引列）合并为一个索引定义
+     */
+    protected static CatalogSnapshot.IndexMeta addIndexColumn(CatalogSnapshot.TableMeta table, String indexName, String columnName) {
+        List<CatalogSnapshot.IndexMeta> indexes = table.getIndexes();
+        CatalogSnapshot.IndexMeta index = indexes.isEmpty() ? null : indexes.get(indexes.size() - 1);
+        if (index == null || !index.getName().equals(indexName)) {
+            index = new CatalogSnapshot.IndexMeta();
+            index.setName(indexName);
+            indexes.add(index);
+        }
+        index.getColumns().add(columnName);
+        return index;
+    }
+
+    protected static Long toNullableLong(Number value) {
+        return value == null || value.longValue() < 0 ? null : value.longValue();
+    }
+
+    protected static Integer toNullableInt(Number value) {
+        return value == null ? null : value.intValue();
+    }
+
     @Override
-    public Map<String, List<String>> getDecimalColumnsForTables(JdbcTemplate jdbcTemplate, String schema, List<String> tables, int minDecimalDigits) {
-        log.warn("getDecimalColumnsForTables未实现");
-        return new ConcurrentHashMap<>();
+    public String getCatalogVersion(JdbcTemplate jdbcTemplate, List<String> schemas) {
+        log.debug("getCatalogVersion未实现，不使用元数据缓存");
+        return null;
     }
 }
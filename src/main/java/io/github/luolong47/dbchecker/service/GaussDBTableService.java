@@ -1,108 +1,160 @@
 package io.github.luolong47.dbchecker.service;
 
-import cn.hutool.core.date.StopWatch;
-import io.github.luolong47.dbchecker.entity.TableEnt;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.Collections;
-import java.util.Map;
-import java.util.HashMap;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 @SuppressWarnings("ALL")
 @Slf4j
 @Service("gaussDBTableService")
 public class GaussDBTableService extends AbstractTableService {
 
-    @Override
-    public List<TableEnt> getTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
-        // 创建StopWatch来记录执行时间
-        StopWatch watch = new StopWatch("GaussDB表信息查询");
-        watch.start("GaussDB构建表查询SQL");
-        
-        // 将列表转换为IN子句的形式
-        String schemasStr = schemas.stream().map(s -> "'" + s.toLowerCase() + "'").collect(Collectors.joining(","));
-        String tablesStr = tables.stream().map(t -> "'" + t.toLowerCase() + "'").collect(Collectors.joining(","));
+    public GaussDBTableService(Dbconfig dbconfig) {
+        super(dbconfig);
+    }
 
-        String sql = "SELECT tablename AS TABLE_NAME, schemaname AS SCHEMA_NAME " +
-                     "FROM pg_tables " +
-                     "WHERE schemaname IN (" + schemasStr + ") " +
-                     "AND tablename IN (" + tablesStr + ")";
-        
-        watch.stop();
-        watch.start("GaussDB执行表查询SQL");
-        log.debug("执行SQL: {}", sql);
-        
-        List<TableEnt> result = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            TableEnt tableEnt = new TableEnt();
-            tableEnt.setTableName(rs.getString("TABLE_NAME"));
-            tableEnt.setSchemaName(rs.getString("SCHEMA_NAME"));
-            return tableEnt;
+    @Override
+    protected List<CatalogSnapshot.TableMeta> queryTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
+        // reltuples和relpages来自最近一次ANALYZE，未分析过的表reltuples为0或-1
+        String sql = "SELECT n.nspname AS SCHEMA_NAME, c.relname AS TABLE_NAME, c.reltuples::bigint AS NUM_ROWS, " +
+                     "c.relpages::bigint * current_setting('block_size')::bigint AS SIZE_BYTES " +
+                     "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                     "WHERE c.relkind IN ('r', 'p') " +
+                     "AND " + nameCondition("n.nspname") + " " +
+                     "AND " + nameCondition("c.relname");
+        List<CatalogSnapshot.TableMeta> result = new ArrayList<>();
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = new CatalogSnapshot.TableMeta();
+            table.setSchemaName(rs.getString("SCHEMA_NAME"));
+            table.setTableName(rs.getString("TABLE_NAME").toUpperCase());
+            // relpages为0时没有可用的统计信息，行数和大小都按未知处理
+            long sizeBytes = rs.getLong("SIZE_BYTES");
+            if (sizeBytes > 0) {
+                table.setRowCount(toNullableLong((Number) rs.getObject("NUM_ROWS")));
+                table.setSizeBytes(sizeBytes);
+            }
+            result.add(table);
         });
-        
-        watch.stop();
-        log.debug("GaussDB表信息查询执行完成，耗时统计：{}ms", watch.getTotalTimeMillis());
-        
         return result;
     }
 
     @Override
-    public Map<String, List<String>> getDecimalColumnsForTables(JdbcTemplate jdbcTemplate, String schema, List<String> tables, int minDecimalDigits) {
-        // 创建StopWatch来记录执行时间
-        StopWatch watch = new StopWatch("GaussDB金额列查询");
-        watch.start("GaussDB金额列查询前置检查");
-        
-        if (tables == null || tables.isEmpty()) {
-            watch.stop();
-            log.info("表列表为空，直接返回空结果");
-            return Collections.emptyMap();
-        }
-        
-        try {
-            watch.stop();
-            watch.start("GaussDB金额列查询构建SQL");
-            
-            // 将表名列表转换为IN子句形式
-            String tablesStr = tables.stream()
-                    .map(t -> "'" + t.toLowerCase() + "'")
-                    .collect(Collectors.joining(","));
-            schema = schema.toLowerCase();
+    protected void queryColumns(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        String sql = "SELECT table_schema, table_name, column_name, data_type, numeric_precision, numeric_scale, is_nullable " +
+                     "FROM information_schema.columns " +
+                     "WHERE " + nameCondition("table_schema") + " " +
+                     "AND " + nameCondition("table_name") + " " +
+                     "ORDER BY table_schema, table_name, ordinal_position";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("table_schema"), rs.getString("table_name").toUpperCase());
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.ColumnMeta column = new CatalogSnapshot.ColumnMeta();
+            column.setName(rs.getString("column_name").toUpperCase());
+            column.setDataType(rs.getString("data_type").toUpperCase());
+            column.setPrecision(toNullableInt((Number) rs.getObject("numeric_precision")));
+            column.setScale(toNullableInt((Number) rs.getObject("numeric_scale")));
+            column.setNullable("YES".equals(rs.getString("is_nullable")));
+            table.getColumns().add(column);
+        });
+    }
+
+    @Override
+    protected void queryPartitions(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        // GaussDB的分区记录在pg_partition中，parttype为'p'的行是分区，'r'的行是分区表自身
+        String sql = "SELECT n.nspname AS SCHEMA_NAME, c.relname AS TABLE_NAME, p.relname AS PARTITION_NAME, " +
+                     "p.reltuples::bigint AS NUM_ROWS " +
+                     "FROM pg_partition p JOIN pg_class c ON c.oid = p.parentid " +
+                     "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                     "WHERE p.parttype = 'p' " +
+                     "AND " + nameCondition("n.nspname") + " " +
+                     "AND " + nameCondition("c.relname") + " " +
+                     "ORDER BY n.nspname, c.relname, p.oid";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("SCHEMA_NAME"), rs.getString("TABLE_NAME").toUpperCase());
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.PartitionMeta partition = new CatalogSnapshot.PartitionMeta();
+            partition.setName(rs.getString("PARTITION_NAME").toUpperCase());
+            partition.setRowCount(toNullableLong((Number) rs.getObject("NUM_ROWS")));
+            table.getPartitions().add(partition);
+        });
+    }
+
+    @Override
+    protected void queryIndexes(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        // indkey是从0开始的int2vector，按位置展开得到有序的索引列，表达式索引的列号为0，不会匹配到pg_attribute
+        String sql = "SELECT n.nspname AS SCHEMA_NAME, t.relname AS TABLE_NAME, i.relname AS INDEX_NAME, " +
+                     "x.indisprimary AS IS_PK, x.indisunique AS IS_UNIQUE, i.relpages::bigint AS LEAF_BLOCKS, a.attname AS COLUMN_NAME " +
+                     "FROM pg_index x " +
+                     "JOIN pg_class t ON t.oid = x.indrelid " +
+                     "JOIN pg_class i ON i.oid = x.indexrelid " +
+                     "JOIN pg_namespace n ON n.oid = t.relnamespace " +
+                     "JOIN generate_series(0, 31) AS k(pos) ON k.pos < x.indnatts " +
+                     "JOIN pg_attribute a ON a.attrelid = t.oid AND a.attnum = x.indkey[k.pos] " +
+                     "WHERE x.indisvalid " +
+                     "AND " + nameCondition("n.nspname") + " " +
+                     "AND " + nameCondition("t.relname") + " " +
+                     "ORDER BY n.nspname, t.relname, i.relname, k.pos";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("SCHEMA_NAME"), rs.getString("TABLE_NAME").toUpperCase());
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.IndexMeta index = addIndexColumn(table, rs.getString("INDEX_NAME").toUpperCase(),
+                rs.getString("COLUMN_NAME").toUpperCase());
+            index.setPrimaryKey(rs.getBoolean("IS_PK"));
+            index.setUnique(rs.getBoolean("IS_UNIQUE"));
+            index.setLeafBlocks(toNullableLong((Number) rs.getObject("LEAF_BLOCKS")));
+        });
+    }
+
+    /**
+     * GaussDB的语句级并行度通过set(query_dop)提示设置，只为需要并行的大表生成
+     */
+    @Override
+    public String buildHint(CatalogSnapshot.TableMeta table, int degree, boolean countOnly) {
+        return degree > 1 ? "/*+ set(query_dop " + degree + ") */" : null;
+    }
+
+    @Override
+    public String getCatalogVersion(JdbcTemplate jdbcTemplate, List<String> schemas) {
+        // 建表、增删列、修改列类型都会更新表在pg_class中的行，行的xmin随之变化
+        String sql = "SELECT COUNT(*) || ':' || md5(string_agg(c.oid::text || '.' || c.xmin::text, ',' ORDER BY c.oid)) " +
+                     "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                     "WHERE " + nameCondition("n.nspname") + " AND c.relkind IN ('r', 'p')";
+        return queryForStringBySchemas(jdbcTemplate, sql, schemas);
+    }
+
+    /**
+     * 名称列表以text[]数组绑定，列表长度变化不会产生新的SQL文本
+     */
+    @Override
+    protected String nameCondition(String column) {
+        return column + " = ANY(?::text[])";
+    }
 
-            String sql = "SELECT table_name, column_name FROM information_schema.columns " +
-                         "WHERE table_schema = ? " +
-                         "AND table_name IN (" + tablesStr + ") " +
-                         "AND data_type IN ('numeric', 'decimal') " +
-                         "AND numeric_scale >= ? " +
-                         "ORDER BY table_name, ordinal_position";
-            
-            watch.stop();
-            watch.start("GaussDB金额列查询执行SQL");     
-            log.debug("批量查询金额列，模式: {}, 最小小数位数: {}, SQL: {}", schema, minDecimalDigits, sql);
-            
-            // 使用Map来存储结果
-            Map<String, List<String>> resultMap = new HashMap<>();
-            
-            jdbcTemplate.query(sql, (rs) -> {
-                String tableName = rs.getString("table_name").toUpperCase();
-                String columnName = rs.getString("column_name").toUpperCase();
-                
-                resultMap.computeIfAbsent(tableName, k -> new ArrayList<>()).add(columnName);
-            }, schema, minDecimalDigits);
-            
-            watch.stop();
-            log.debug("GaussDB金额列批量查询完成，共查询到 {} 个表的金额列信息，耗时统计：{}ms",
-                resultMap.size(), watch.getTotalTimeMillis());
-            return resultMap;
-        } catch (Exception e) {
-            watch.stop();
-            log.error("GaussDB金额列批量查询时发生错误: {}, 耗时统计：{}ms",
-                e.getMessage(), watch.getTotalTimeMillis(), e);
-            return super.getDecimalColumnsForTables(jdbcTemplate, schema, tables, minDecimalDigits);
-        }
+    @Override
+    protected Array createNameArray(Connection connection, String[] names) throws SQLException {
+        return connection.createArrayOf("text", names);
+    }
+
+    /**
+     * 未加引号创建的对象在GaussDB数据字典中是小写
+     */
+    @Override
+    protected String normalizeName(String name) {
+        return name.toLowerCase();
     }
 
 }
@@ -1,106 +1,106 @@
 package io.github.luolong47.dbchecker.service;
 
-import cn.hutool.core.date.StopWatch;
-import io.github.luolong47.dbchecker.entity.TableEnt;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.jdbc.core.JdbcTemplate;
 
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.Collections;
-import java.util.HashMap;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 @SuppressWarnings("ALL")
 @Slf4j
 @Service("h2TableService")
-public class H2TableService extends AbstractTableService  {
+public class H2TableService extends AbstractTableService {
+
+    public H2TableService(Dbconfig dbconfig) {
+        super(dbconfig);
+    }
     
     @Override
-    public List<TableEnt> getTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
-        // 创建StopWatch来记录执行时间
-        StopWatch watch = new StopWatch("H2表信息查询");
-        watch.start("H2构建表查询SQL");
-        
-        // 将列表转换为IN子句的形式
-        String schemasStr = schemas.stream().map(s -> "'" + s + "'").collect(Collectors.joining(","));
-        String tablesStr = tables.stream().map(t -> "'" + t + "'").collect(Collectors.joining(","));
-
-        String sql = "SELECT TABLE_NAME, TABLE_SCHEMA AS SCHEMA_NAME " +
+    protected List<CatalogSnapshot.TableMeta> queryTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
+        // H2只提供行数估计，不提供表的存储大小
+        String sql = "SELECT TABLE_SCHEMA, TABLE_NAME, ROW_COUNT_ESTIMATE " +
             "FROM INFORMATION_SCHEMA.TABLES " +
-            "WHERE TABLE_SCHEMA IN (" + schemasStr + ") " +
-            "AND TABLE_NAME IN (" + tablesStr + ")";
-        
-        watch.stop();
-        watch.start("H2执行表查询SQL");
-        log.debug("执行SQL: {}", sql);
-        
-        List<TableEnt> result = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            TableEnt tableEnt = new TableEnt();
-            tableEnt.setTableName(rs.getString("TABLE_NAME"));
-            tableEnt.setSchemaName(rs.getString("SCHEMA_NAME"));
-            return tableEnt;
+            "WHERE " + nameCondition("TABLE_SCHEMA") + " " +
+            "AND " + nameCondition("TABLE_NAME");
+        List<CatalogSnapshot.TableMeta> result = new ArrayList<>();
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = new CatalogSnapshot.TableMeta();
+            table.setSchemaName(rs.getString("TABLE_SCHEMA"));
+            table.setTableName(rs.getString("TABLE_NAME"));
+            table.setRowCount(toNullableLong((Number) rs.getObject("ROW_COUNT_ESTIMATE")));
+            result.add(table);
         });
-        
-        watch.stop();
-        log.debug("H2表信息查询执行完成，耗时统计：{}ms", watch.getTotalTimeMillis());
-        
         return result;
     }
 
     @Override
-    public Map<String, List<String>> getDecimalColumnsForTables(JdbcTemplate jdbcTemplate, String schema, List<String> tables, int minDecimalDigits) {
-        // 创建StopWatch来记录执行时间
-        StopWatch watch = new StopWatch("H2金额列查询");
-        watch.start("H2金额列查询前置检查");
-        
-        if (tables == null || tables.isEmpty()) {
-            watch.stop();
-            log.info("表列表为空，直接返回空结果");
-            return Collections.emptyMap();
-        }
-        
-        try {
-            watch.stop();
-            watch.start("H2金额列查询构建SQL");
-            
-            // 将表名列表转换为IN子句形式
-            String tablesStr = tables.stream()
-                    .map(t -> "'" + t + "'")
-                    .collect(Collectors.joining(","));
-                    
-            String sql = "SELECT TABLE_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS " +
-                         "WHERE TABLE_SCHEMA = ? " +
-                         "AND TABLE_NAME IN (" + tablesStr + ") " +
-                         "AND DATA_TYPE IN ('DECIMAL', 'NUMERIC') " +
-                         "AND NUMERIC_SCALE >= ? " +
-                         "ORDER BY TABLE_NAME, ORDINAL_POSITION";
-            
-            watch.stop();
-            watch.start("H2金额列查询执行SQL");     
-            log.debug("批量查询金额列，模式: {}, 最小小数位数: {}, SQL: {}", schema, minDecimalDigits, sql);
-            
-            // 使用Map来存储结果
-            Map<String, List<String>> resultMap = new HashMap<>();
-            
-            jdbcTemplate.query(sql, (rs) -> {
-                String tableName = rs.getString("TABLE_NAME");
-                String columnName = rs.getString("COLUMN_NAME");
-                
-                resultMap.computeIfAbsent(tableName, k -> new ArrayList<>()).add(columnName);
-            }, schema, minDecimalDigits);
-            
-            watch.stop();
-            log.debug("H2金额列批量查询完成，共查询到 {} 个表的金额列信息，耗时统计：{}ms",
-                resultMap.size(), watch.getTotalTimeMillis());
-            return resultMap;
-        } catch (Exception e) {
-            watch.stop();
-            log.error("H2金额列批量查询时发生错误: {}, 耗时统计：{}ms",
-                e.getMessage(), watch.getTotalTimeMillis(), e);
-            return super.getDecimalColumnsForTables(jdbcTemplate, schema, tables, minDecimalDigits);
-        }
+    protected void queryColumns(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        String sql = "SELECT TABLE_SCHEMA, TABLE_NAME, COLUMN_NAME, DATA_TYPE, NUMERIC_PRECISION, NUMERIC_SCALE, IS_NULLABLE " +
+            "FROM INFORMATION_SCHEMA.COLUMNS " +
+            "WHERE " + nameCondition("TABLE_SCHEMA") + " " +
+            "AND " + nameCondition("TABLE_NAME") + " " +
+            "ORDER BY TABLE_SCHEMA, TABLE_NAME, ORDINAL_POSITION";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("TABLE_SCHEMA"), rs.getString("TABLE_NAME"));
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.ColumnMeta column = new CatalogSnapshot.ColumnMeta();
+            column.setName(rs.getString("COLUMN_NAME"));
+            column.setDataType(rs.getString("DATA_TYPE"));
+            column.setPrecision(toNullableInt((Number) rs.getObject("NUMERIC_PRECISION")));
+            column.setScale(toNullableInt((Number) rs.getObject("NUMERIC_SCALE")));
+            column.setNullable("YES".equals(rs.getString("IS_NULLABLE")));
+            table.getColumns().add(column);
+        });
+    }
+
+    @Override
+    protected void queryIndexes(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        String sql = "SELECT i.TABLE_SCHEMA, i.TABLE_NAME, i.INDEX_NAME, i.INDEX_TYPE_NAME, c.COLUMN_NAME " +
+            "FROM INFORMATION_SCHEMA.INDEXES i " +
+            "JOIN INFORMATION_SCHEMA.INDEX_COLUMNS c ON c.INDEX_SCHEMA = i.INDEX_SCHEMA AND c.INDEX_NAME = i.INDEX_NAME " +
+            "WHERE " + nameCondition("i.TABLE_SCHEMA") + " " +
+            "AND " + nameCondition("i.TABLE_NAME") + " " +
+            "ORDER BY i.TABLE_SCHEMA, i.TABLE_NAME, i.INDEX_NAME, c.ORDINAL_POSITION";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("TABLE_SCHEMA"), rs.getString("TABLE_NAME"));
+            if (table == null) {
+                return;
+            }
+            String indexType = rs.getString("INDEX_TYPE_NAME");
+            CatalogSnapshot.IndexMeta index = addIndexColumn(table, rs.getString("INDEX_NAME"), rs.getString("COLUMN_NAME"));
+            index.setPrimaryKey("PRIMARY KEY".equals(indexType));
+            index.setUnique("PRIMARY KEY".equals(indexType) || "UNIQUE INDEX".equals(indexType));
+        });
+    }
+
+    @Override
+    public String getCatalogVersion(JdbcTemplate jdbcTemplate, List<String> schemas) {
+        // H2没有目录修改计数，内置目录查询很快，直接对列定义取摘要
+        String sql = "SELECT COUNT(*) || ':' || RAWTOHEX(HASH('SHA-256', LISTAGG(TABLE_SCHEMA || '.' || TABLE_NAME || '.' || " +
+                     "COLUMN_NAME || ':' || DATA_TYPE || ':' || COALESCE(NUMERIC_SCALE, -1), ',') " +
+                     "WITHIN GROUP (ORDER BY TABLE_SCHEMA, TABLE_NAME, ORDINAL_POSITION))) " +
+                     "FROM INFORMATION_SCHEMA.COLUMNS WHERE " + nameCondition("TABLE_SCHEMA");
+        return queryForStringBySchemas(jdbcTemplate, sql, schemas);
+    }
+
+    /**
+     * 名称列表以VARCHAR ARRAY绑定，列表长度变化不会产生新的SQL文本
+     */
+    @Override
+    protected String nameCondition(String column) {
+        return column + " = ANY(?)";
+    }
+
+    @Override
+    protected Array createNameArray(Connection connection, String[] names) throws SQLException {
+        return connection.createArrayOf("VARCHAR", names);
     }
 }
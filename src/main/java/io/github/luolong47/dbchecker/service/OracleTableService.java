@@ -1,111 +1,173 @@
 package io.github.luolong47.dbchecker.service;
 
-import cn.hutool.core.collection.ListUtil;
-import cn.hutool.core.date.StopWatch;
-import io.github.luolong47.dbchecker.entity.TableEnt;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 @SuppressWarnings("ALL")
 @Slf4j
 @Service("oracleTableService")
 public class OracleTableService extends AbstractTableService {
+
+    public OracleTableService(Dbconfig dbconfig) {
+        super(dbconfig);
+    }
     
     @Override
-    public List<TableEnt> getTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
-        // 创建StopWatch来记录执行时间
-        StopWatch watch = new StopWatch("Oracle表信息查询");
-        watch.start("Oracle构建表查询SQL");
-        
-        // 将列表转换为IN子句的形式
-        String schemasStr = schemas.stream().map(s -> "'" + s + "'").collect(Collectors.joining(","));
-
-        List<List<String>> tablesSplit = ListUtil.split(tables, 1000);
-        String tablesStr = tablesSplit.stream()
-                .map(subList -> subList.stream()
-                        .map(t -> "'" + t + "'")
-                        .collect(Collectors.joining(",")))
-                .collect(Collectors.joining(") OR TABLE_NAME IN ("));
-        
-        String sql = "SELECT TABLE_NAME, OWNER AS SCHEMA_NAME FROM ALL_TABLES " +
-                     "WHERE OWNER IN (" + schemasStr + ") " +
-                     "AND (TABLE_NAME IN (" + tablesStr + "))";
-        
-        watch.stop();
-        watch.start("Oracle执行表查询SQL");
-        log.debug("执行SQL: {}", sql);
-        
-        List<TableEnt> result = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            TableEnt tableEnt = new TableEnt();
-            tableEnt.setTableName(rs.getString("TABLE_NAME"));
-            tableEnt.setSchemaName(rs.getString("SCHEMA_NAME"));
-            return tableEnt;
+    protected List<CatalogSnapshot.TableMeta> queryTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
+        // 段大小按统计信息中的块数估算，表空间块大小不可见时按默认的8K计算
+        String sql = "SELECT t.OWNER, t.TABLE_NAME, t.NUM_ROWS, " +
+                     "t.BLOCKS * NVL((SELECT s.BLOCK_SIZE FROM USER_TABLESPACES s WHERE s.TABLESPACE_NAME = t.TABLESPACE_NAME), 8192) AS SIZE_BYTES " +
+                     "FROM ALL_TABLES t " +
+                     "WHERE " + nameCondition("t.OWNER") + " " +
+                     "AND " + nameCondition("t.TABLE_NAME");
+        List<CatalogSnapshot.TableMeta> result = new ArrayList<>();
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = new CatalogSnapshot.TableMeta();
+            table.setSchemaName(rs.getString("OWNER"));
+            table.setTableName(rs.getString("TABLE_NAME"));
+            table.setRowCount(toNullableLong((Number) rs.getObject("NUM_ROWS")));
+            table.setSizeBytes(toNullableLong((Number) rs.getObject("SIZE_BYTES")));
+            result.add(table);
         });
-        
-        watch.stop();
-        log.info("Oracle表信息查询执行完成，耗时统计：{}ms", watch.getTotalTimeMillis());
-        
         return result;
     }
 
     @Override
-    public Map<String, List<String>> getDecimalColumnsForTables(JdbcTemplate jdbcTemplate, String schema, List<String> tables, int minDecimalDigits) {
-        // 创建StopWatch来记录执行时间
-        StopWatch watch = new StopWatch("Oracle金额列查询");
-        watch.start("Oracle金额列查询前置检查");
-        
-        if (tables == null || tables.isEmpty()) {
-            watch.stop();
-            log.warn("表列表为空，直接返回空结果");
-            return Collections.emptyMap();
+    protected void queryColumns(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        String sql = "SELECT OWNER, TABLE_NAME, COLUMN_NAME, DATA_TYPE, DATA_PRECISION, DATA_SCALE, NULLABLE " +
+                     "FROM ALL_TAB_COLUMNS " +
+                     "WHERE " + nameCondition("OWNER") + " " +
+                     "AND " + nameCondition("TABLE_NAME") + " " +
+                     "ORDER BY OWNER, TABLE_NAME, COLUMN_ID";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("OWNER"), rs.getString("TABLE_NAME"));
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.ColumnMeta column = new CatalogSnapshot.ColumnMeta();
+            column.setName(rs.getString("COLUMN_NAME"));
+            column.setDataType(rs.getString("DATA_TYPE"));
+            column.setPrecision(toNullableInt((Number) rs.getObject("DATA_PRECISION")));
+            column.setScale(toNullableInt((Number) rs.getObject("DATA_SCALE")));
+            column.setNullable("Y".equals(rs.getString("NULLABLE")));
+            table.getColumns().add(column);
+        });
+    }
+
+    @Override
+    protected void queryPartitions(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        String sql = "SELECT TABLE_OWNER, TABLE_NAME, PARTITION_NAME, NUM_ROWS " +
+                     "FROM ALL_TAB_PARTITIONS " +
+                     "WHERE " + nameCondition("TABLE_OWNER") + " " +
+                     "AND " + nameCondition("TABLE_NAME") + " " +
+                     "ORDER BY TABLE_OWNER, TABLE_NAME, PARTITION_POSITION";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("TABLE_OWNER"), rs.getString("TABLE_NAME"));
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.PartitionMeta partition = new CatalogSnapshot.PartitionMeta();
+            partition.setName(rs.getString("PARTITION_NAME"));
+            partition.setRowCount(toNullableLong((Number) rs.getObject("NUM_ROWS")));
+            table.getPartitions().add(partition);
+        });
+    }
+
+    @Override
+    protected void queryIndexes(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables, CatalogSnapshot snapshot) {
+        // 主键约束使用的索引标记为主键，不可用的索引不参与SQL规划
+        String sql = "SELECT i.TABLE_OWNER, i.TABLE_NAME, i.INDEX_NAME, i.UNIQUENESS, i.LEAF_BLOCKS, i.DISTINCT_KEYS, " +
+                     "CASE WHEN c.CONSTRAINT_NAME IS NULL THEN 0 ELSE 1 END AS IS_PK, ic.COLUMN_NAME " +
+                     "FROM ALL_INDEXES i " +
+                     "JOIN ALL_IND_COLUMNS ic ON ic.INDEX_OWNER = i.OWNER AND ic.INDEX_NAME = i.INDEX_NAME " +
+                     "LEFT JOIN ALL_CONSTRAINTS c ON c.OWNER = i.TABLE_OWNER AND c.TABLE_NAME = i.TABLE_NAME " +
+                     "AND c.CONSTRAINT_TYPE = 'P' AND c.INDEX_NAME = i.INDEX_NAME " +
+                     "WHERE " + nameCondition("i.TABLE_OWNER") + " " +
+                     "AND " + nameCondition("i.TABLE_NAME") + " " +
+                     "AND i.STATUS <> 'UNUSABLE' " +
+                     "ORDER BY i.TABLE_OWNER, i.TABLE_NAME, i.INDEX_NAME, ic.COLUMN_POSITION";
+        queryByNames(jdbcTemplate, sql, schemas, tables, rs -> {
+            CatalogSnapshot.TableMeta table = snapshot.findTable(rs.getString("TABLE_OWNER"), rs.getString("TABLE_NAME"));
+            if (table == null) {
+                return;
+            }
+            CatalogSnapshot.IndexMeta index = addIndexColumn(table, rs.getString("INDEX_NAME"), rs.getString("COLUMN_NAME"));
+            index.setPrimaryKey(rs.getInt("IS_PK") == 1);
+            index.setUnique("UNIQUE".equals(rs.getString("UNIQUENESS")));
+            index.setLeafBlocks(toNullableLong((Number) rs.getObject("LEAF_BLOCKS")));
+            index.setDistinctKeys(toNullableLong((Number) rs.getObject("DISTINCT_KEYS")));
+        });
+    }
+
+    @Override
+    public String getCatalogVersion(JdbcTemplate jdbcTemplate, List<String> schemas) {
+        // 表的任何DDL都会更新LAST_DDL_TIME，表数量用于发现删除的表
+        String sql = "SELECT COUNT(*) || ':' || TO_CHAR(MAX(LAST_DDL_TIME), 'YYYYMMDDHH24MISS') FROM ALL_OBJECTS " +
+                     "WHERE " + nameCondition("OWNER") + " AND OBJECT_TYPE = 'TABLE'";
+        return queryForStringBySchemas(jdbcTemplate, sql, schemas);
+    }
+
+    /**
+     * 只有COUNT(*)时用包含所有行的最小索引做快速全扫描，否则全表扫描，并行度大于1时加对应的并行提示
+     */
+    @Override
+    public String buildHint(CatalogSnapshot.TableMeta table, int degree, boolean countOnly) {
+        String tableName = table.getTableName();
+        CatalogSnapshot.IndexMeta index = !countOnly ? null : table.getIndexes().stream()
+            .filter(table::coversAllRows)
+            .min(Comparator.comparingLong(i -> i.getLeafBlocks() == null ? Long.MAX_VALUE : i.getLeafBlocks()))
+            .orElse(null);
+        StringBuilder hint = new StringBuilder("/*+ ");
+        if (index != null) {
+            hint.append("INDEX_FFS(").append(tableName).append(' ').append(index.getName()).append(')');
+            if (degree > 1) {
+                hint.append(" PARALLEL_INDEX(").append(tableName).append(' ').append(index.getName()).append(' ').append(degree).append(')');
+            }
+        } else {
+            hint.append("FULL(").append(tableName).append(')');
+            if (degree > 1) {
+                hint.append(" PARALLEL(").append(tableName).append(' ').append(degree).append(')');
+            }
         }
-        
+        return hint.append(" */").toString();
+    }
+
+    /**
+     * 名称列表以SYS.ODCIVARCHAR2LIST集合绑定，用TABLE()展开为行
+     */
+    @Override
+    protected String nameCondition(String column) {
+        return column + " IN (SELECT COLUMN_VALUE FROM TABLE(?))";
+    }
+
+    /**
+     * Oracle驱动只在运行时依赖中，通过反射调用OracleConnection.createOracleArray创建集合参数
+     */
+    @Override
+    protected Array createNameArray(Connection connection, String[] names) throws SQLException {
         try {
-            watch.stop();
-            watch.start("Oracle金额列查询构建SQL");
-            
-            // 将表名列表转换为IN子句形式
-            List<List<String>> tablesSplit = ListUtil.split(tables, 1000);
-            String tablesStr = tablesSplit.stream()
-                    .map(subList -> subList.stream()
-                            .map(t -> "'" + t + "'")
-                            .collect(Collectors.joining(",")))
-                    .collect(Collectors.joining(") OR TABLE_NAME IN ("));
-                    
-            String sql = "SELECT TABLE_NAME, COLUMN_NAME FROM ALL_TAB_COLUMNS " +
-                         "WHERE OWNER = ? " +
-                         "AND (TABLE_NAME IN (" + tablesStr + ")) " +
-                         "AND DATA_TYPE = 'NUMBER' " +
-                         "AND DATA_SCALE >= ? " +
-                         "ORDER BY TABLE_NAME, COLUMN_ID";
-            
-            watch.stop();
-            watch.start("Oracle金额列查询执行SQL");     
-            log.debug("批量查询金额列，模式: {}, 最小小数位数: {}, SQL: {}", schema, minDecimalDigits, sql);
-            
-            // 使用Map来存储结果
-            Map<String, List<String>> resultMap = new HashMap<>();
-            
-            jdbcTemplate.query(sql, (rs) -> {
-                String tableName = rs.getString("TABLE_NAME");
-                String columnName = rs.getString("COLUMN_NAME");
-                
-                resultMap.computeIfAbsent(tableName, k -> new ArrayList<>()).add(columnName);
-            }, schema, minDecimalDigits);
-            
-            watch.stop();
-            log.debug("Oracle金额列批量查询完成，共查询到 {} 个表的金额列信息，耗时统计：{}ms",
-                resultMap.size(), watch.getTotalTimeMillis());
-            return resultMap;
-        } catch (Exception e) {
-            watch.stop();
-            log.error("Oracle金额列批量查询时发生错误: {}, 耗时统计：{}",
-                e.getMessage(), watch.getTotalTimeMillis(), e);
-            return super.getDecimalColumnsForTables(jdbcTemplate, schema, tables, minDecimalDigits);
+            Class<?> oracleConnectionClass = Class.forName("oracle.jdbc.OracleConnection");
+            Object oracleConnection = connection.unwrap(oracleConnectionClass);
+            return (Array) oracleConnectionClass.getMethod("createOracleArray", String.class, Object.class)
+                .invoke(oracleConnection, "SYS.ODCIVARCHAR2LIST", names);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("创建Oracle集合参数失败", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("当前连接不是Oracle连接，无法创建集合参数", e);
         }
     }
 } 
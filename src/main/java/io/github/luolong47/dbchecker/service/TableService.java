@@ -1,16 +1,15 @@
 package io.github.luolong47.dbchecker.service;
 
 import cn.hutool.extra.spring.SpringUtil;
-import com.zaxxer.hikari.HikariDataSource;
-import io.github.luolong47.dbchecker.entity.TableEnt;
+import io.github.luolong47.dbchecker.config.LazyHikariDataSource;
+import io.github.luolong47.dbchecker.entity.CatalogSnapshot;
 import io.github.luolong47.dbchecker.manager.DynamicDataSourceManager;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.function.BiConsumer;
 
 public interface TableService {
     
@@ -26,8 +25,9 @@ public interface TableService {
         DataSource dataSource = dataSourceManager.getDataSource(dbName);
         
         // 处理不同类型的数据源
-        if (dataSource instanceof HikariDataSource) {
-            String driverClassName = ((HikariDataSource) dataSource).getDriverClassName();
+        if (dataSource instanceof LazyHikariDataSource) {
+            // 只读取配置中的驱动类名，不创建连接池
+            String driverClassName = ((LazyHikariDataSource) dataSource).getDriverClassName();
             // 根据驱动类名判断数据库类型并返回对应的TableService
             if (driverClassName.contains("oracle")) {
                 return SpringUtil.getBean("oracleTableService", TableService.class);
@@ -43,18 +43,40 @@ public interface TableService {
         }
     }
 
-    List<TableEnt> getTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables);
+    /**
+     * 批量采集需要检查的表的目录快照：表、列定义、行数和大小估计、分区、主键和索引
+     *
+     * @param jdbcTemplate JDBC模板
+     * @param db           库名
+     * @param schemas      模式名列表，同名表出现在多个模式中时保留靠前的模式
+     * @param tables       表名列表
+     * @param onChunk      分批回调，一批表名的表、列、分区和索引查询全部完成时调用，
+     *                     参数为本批请求的表名和本批中库里存在的表的快照，所有表名都会且只会回调一次
+     * @return 目录快照，只包含库中存在的表
+     */
+    CatalogSnapshot getCatalogSnapshot(JdbcTemplate jdbcTemplate, String db, List<String> schemas, List<String> tables,
+                                       BiConsumer<List<String>, CatalogSnapshot> onChunk);
+
+    /**
+     * 获取模式的目录版本标识，表或列定义发生变化时标识随之变化，用于判断本地元数据缓存是否仍然有效
+     *
+     * @param jdbcTemplate JDBC模板
+     * @param schemas      模式名列表
+     * @return 版本标识，不支持时返回null（不使用缓存）
+     */
+    String getCatalogVersion(JdbcTemplate jdbcTemplate, List<String> schemas);
 
     /**
-     * 批量获取多个表的金额字段
-     * 
-     * @param jdbcTemplate     JDBC模板
-     * @param schema           模式名
-     * @param tables           表名列表
-     * @param minDecimalDigits 最小小数位数
-     * @return 表名到金额字段列表的映射
+     * 按目录统计信息生成表求和查询的优化器提示
+     *
+     * @param table     表的目录元数据
+     * @param degree    并行度，小于2时不并行
+     * @param countOnly 查询只有COUNT(*)，可以只扫描索引
+     * @return 完整的提示注释，不支持提示或不需要提示时返回null
      */
-    Map<String, List<String>> getDecimalColumnsForTables(JdbcTemplate jdbcTemplate, String schema, List<String> tables, int minDecimalDigits);
+    default String buildHint(CatalogSnapshot.TableMeta table, int degree, boolean countOnly) {
+        return null;
+    }
     
     /**
      * 禁用的TableService实现
@@ -70,15 +92,17 @@ public interface TableService {
         }
         
         @Override
-        public List<TableEnt> getTables(JdbcTemplate jdbcTemplate, List<String> schemas, List<String> tables) {
-            log.warn("尝试从禁用的数据源 [{}] 获取表信息，返回空列表", dataSourceName);
-            return Collections.emptyList();
+        public CatalogSnapshot getCatalogSnapshot(JdbcTemplate jdbcTemplate, String db, List<String> schemas, List<String> tables,
+                                                  BiConsumer<List<String>, CatalogSnapshot> onChunk) {
+            log.warn("尝试从禁用的数据源 [{}] 获取目录快照，返回空快照", dataSourceName);
+            CatalogSnapshot snapshot = new CatalogSnapshot(dataSourceName);
+            onChunk.accept(tables, snapshot);
+            return snapshot;
         }
-        
+
         @Override
-        public Map<String, List<String>> getDecimalColumnsForTables(JdbcTemplate jdbcTemplate, String schema, List<String> tables, int minDecimalDigits) {
-            log.warn("尝试从禁用的数据源 [{}] 获取小数列信息，返回空映射", dataSourceName);
-            return Collections.emptyMap();
+        public String getCatalogVersion(JdbcTemplate jdbcTemplate, List<String> schemas) {
+            return null;
         }
     }
 }
@@ -0,0 +1,194 @@
+package io.github.luolong47.dbchecker.writer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单写线程写入器基类
+ * 多个生产者线程通过无锁队列提交数据，由唯一的写线程按提交顺序消费，生产者不会因为IO或锁竞争而阻塞。
+ * 子类只需实现在写线程中执行的处理逻辑，无需考虑线程安全。
+ * 设置了队列容量时，队列满后生产者自旋休眠等待写线程消费（背压），内存占用不会随生产速度无限增长。
+ *
+ * @param <T> 队列中的数据类型
+ */
+@Slf4j
+public abstract class AbstractAsyncWriter<T> implements Closeable {
+    // 队列为空时写线程的最长休眠时间，生产者入队时会主动唤醒
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    // 队列已满时生产者每次等待的时间
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final String threadName;
+    // 队列容量，小于等于0表示不限制
+    private final int capacity;
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    // 队列中的数据条数，ConcurrentLinkedQueue.size()需要遍历，单独计数
+    private final AtomicInteger queued = new AtomicInteger();
+    // 写线程是否处于空闲休眠状态，生产者据此决定是否需要unpark
+    private final AtomicBoolean idle = new AtomicBoolean(false);
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private volatile boolean closed;
+    private volatile Thread writerThread;
+
+    protected AbstractAsyncWriter(String threadName) {
+        this(threadName, 0);
+    }
+
+    /**
+     * @param threadName 写线程名
+     * @param capacity 队列容量，小于等于0表示不限制
+     */
+    protected AbstractAsyncWriter(String threadName, int capacity) {
+        this.threadName = threadName;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 打开资源并启动写线程
+     */
+    public void start() throws Exception {
+        open();
+        Thread thread = new Thread(this::runLoop, threadName);
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * 提交数据，调用方线程只做入队操作，队列已满时等待写线程消费
+     *
+     * @param item 待写入的数据
+     * @return 写入器已关闭时返回false
+     */
+    protected boolean submit(T item) {
+        if (closed) {
+            return false;
+        }
+        if (capacity > 0 && queued.get() >= capacity) {
+            awaitCapacity();
+        }
+        queue.offer(item);
+        queued.incrementAndGet();
+        submitted.increment();
+        if (idle.get()) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    private void awaitCapacity() {
+        blocked.increment();
+        Thread thread = writerThread;
+        // 写线程未启动或已退出时不再等待，避免生产者永久阻塞
+        while (queued.get() >= capacity && !closed && thread != null && thread.isAlive()) {
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+    }
+
+    /**
+     * 等待队列中剩余数据全部处理完毕后关闭写线程
+     */
+    @Override
+    public void close() {
+        close(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 等待队列中剩余数据处理完毕后关闭写线程，最多等待指定时间
+     *
+     * @param timeout 最长等待时间，0表示一直等待
+     * @param unit 时间单位
+     * @return 写线程在等待时间内结束返回true
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        closed = true;
+        Thread thread = writerThread;
+        if (thread == null) {
+            return true;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("等待写线程 [{}] 结束时被中断", threadName);
+        }
+        if (thread.isAlive()) {
+            log.warn("写线程 [{}] 在 {}ms 内未结束，队列中剩余 {} 条数据", threadName, unit.toMillis(timeout), queued.get());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 已提交的数据条数
+     */
+    protected long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * 因队列已满而等待的提交次数
+     */
+    protected long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                T item = queue.poll();
+                if (item != null) {
+                    queued.decrementAndGet();
+                    handle(item);
+                    continue;
+                }
+                // 队列已排空，给子类一次批量落盘的机会
+                onIdle();
+                if (closed && queue.isEmpty()) {
+                    break;
+                }
+                idle.set(true);
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle.set(false);
+            }
+        } catch (Throwable e) {
+            log.error("写线程 [{}] 异常退出: {}", threadName, e.getMessage(), e);
+        } finally {
+            onClose();
+        }
+    }
+
+    /**
+     * 打开资源，在start()的调用线程中执行，写线程启动前完成
+     */
+    protected abstract void open() throws Exception;
+
+    /**
+     * 在写线程中处理一条数据
+     */
+    protected abstract void handle(T item);
+
+    /**
+     * 队列排空时调用，用于批量刷盘
+     */
+    protected void onIdle() {
+    }
+
+    /**
+     * 写线程退出前调用，用于刷盘并释放资源
+     */
+    protected abstract void onClose();
+}
@@ -0,0 +1,165 @@
+package io.github.luolong47.dbchecker.writer;
+
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.text.csv.CsvWriteConfig;
+import cn.hutool.core.text.csv.CsvWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * CSV结果写入器
+ * 导出线程在同一把锁内把整张表的行写入hutool的CsvWriter，CsvWriter下面是大容量的BufferedWriter，
+ * 多张表的行攒满缓冲区后才写入结果文件。压缩和分卷切分由ResultFileOutput完成，每个分卷都以表头开始，同一张表的行不会跨分卷。
+ * 设置了重排缓冲区时按表名顺序输出，结果文件与各表的完成顺序无关。
+ */
+@Slf4j
+public class CsvResultWriter implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Object lock = new Object();
+    private final ResultFileOutput output;
+    private final String[] header;
+    private final int bufferSize;
+    // 为null时按完成顺序输出
+    private TableReorderBuffer reorderBuffer;
+
+    // 以下字段只在lock内访问
+    private CsvWriter csvWriter;
+    private long writtenRows;
+    private boolean failed;
+    private boolean closed;
+
+    public CsvResultWriter(ResultFileOutput output, String[] header) {
+        this(output, header, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize BufferedWriter的字符数
+     */
+    public CsvResultWriter(ResultFileOutput output, String[] header, int bufferSize) {
+        this.output = output;
+        this.header = header;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 启用按表名排序输出，需在open()之前调用
+     */
+    public void setReorderBuffer(TableReorderBuffer reorderBuffer) {
+        this.reorderBuffer = reorderBuffer;
+    }
+
+    /**
+     * 打开第一个分卷并写入表头
+     */
+    public void open() throws IOException {
+        synchronized (lock) {
+            output.open();
+            openPart();
+        }
+    }
+
+    /**
+     * 写入一张表的所有行，多个导出线程并发调用时按调用顺序逐表写入
+     *
+     * @param tableName 表名
+     * @param rows 行数据
+     */
+    public void write(String tableName, List<String[]> rows) {
+        synchronized (lock) {
+            if (closed) {
+                log.warn("CSV写入器已关闭，丢弃表 [{}] 的 {} 行数据", tableName, rows.size());
+                return;
+            }
+            if (failed) {
+                return;
+            }
+            try {
+                if (reorderBuffer != null) {
+                    reorderBuffer.add(tableName, rows);
+                } else {
+                    writeTable(tableName, rows);
+                }
+            } catch (IOException | IORuntimeException e) {
+                failed = true;
+                log.error("写入表 [{}] 的CSV数据时发生错误，后续数据将被丢弃: {}", tableName, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 输出重排缓冲区中的数据，刷出缓冲并关闭结果文件
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (reorderBuffer != null) {
+                drainReorderBuffer();
+            }
+            try {
+                if (csvWriter != null && !failed) {
+                    csvWriter.flush();
+                }
+            } catch (IORuntimeException e) {
+                log.error("刷出CSV数据时发生错误: {}", e.getMessage(), e);
+            }
+            try {
+                output.close();
+            } catch (IOException e) {
+                log.error("关闭CSV文件 [{}] 时发生错误: {}", output.getCurrentFile(), e.getMessage(), e);
+            }
+            log.info("CSV写入器已关闭: 写入 {} 行", writtenRows);
+        }
+    }
+
+    private void writeTable(String tableName, List<String[]> rows) throws IOException {
+        // 在表的边界处切分分卷，先把缓冲的数据交给输出流再判断大小
+        if (output.isRotateEnabled()) {
+            csvWriter.flush();
+            if (output.isRotateNeeded()) {
+                output.rotate();
+                openPart();
+            }
+        }
+        for (String[] row : rows) {
+            csvWriter.writeLine(row);
+        }
+        writtenRows += rows.size();
+        output.addRows(rows.size());
+    }
+
+    private void drainReorderBuffer() {
+        if (failed) {
+            reorderBuffer.cleanup();
+            return;
+        }
+        try {
+            reorderBuffer.drain(this::writeTable);
+            log.info("按表名排序输出完成，有序段 {} 个", reorderBuffer.getRunCount());
+        } catch (IOException | IORuntimeException e) {
+            failed = true;
+            log.error("归并排序输出CSV数据时发生错误: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 在当前分卷上创建CsvWriter并写入表头，上一个分卷的CsvWriter已刷出，直接丢弃
+     */
+    private void openPart() {
+        csvWriter = new CsvWriter(new BufferedWriter(
+            new OutputStreamWriter(output.getStream(), StandardCharsets.UTF_8), bufferSize), new CsvWriteConfig());
+        if (header != null) {
+            csvWriter.writeLine(header);
+        }
+    }
+}
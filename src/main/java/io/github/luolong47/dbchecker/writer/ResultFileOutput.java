@@ -0,0 +1,292 @@
+package io.github.luolong47.dbchecker.writer;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import com.github.luben.zstd.util.Native;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 结果文件输出
+ * 负责可选的流式压缩（gzip/zstd）、按大小切分文件，并在关闭时生成记录每个分卷行数和校验和的清单文件。
+ * 非线程安全，由调用方加锁使用。未启用压缩和切分时只是一个带缓冲的文件输出流，与原有输出完全一致。
+ */
+@Slf4j
+public class ResultFileOutput implements Closeable {
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * 压缩方式
+     */
+    public enum Compression {
+        NONE(""), GZIP(".gz"), ZSTD(".zst");
+
+        private final String suffix;
+
+        Compression(String suffix) {
+            this.suffix = suffix;
+        }
+
+        public static Compression of(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return NONE;
+            }
+            return valueOf(name.trim().toUpperCase());
+        }
+
+        /**
+         * 压缩方式在当前环境是否可用，zstd需要能加载zstd-jni的本地库
+         */
+        public boolean isAvailable() {
+            if (this != ZSTD) {
+                return true;
+            }
+            try {
+                Native.load();
+                return true;
+            } catch (LinkageError e) {
+                log.warn("zstd本地库加载失败: {}", e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private final File directory;
+    private final String baseName;
+    private final String extension;
+    @Getter
+    private final Compression compression;
+    private final int level;
+    private final long rotateBytes;
+    private final List<JSONObject> parts = new ArrayList<>();
+
+    // 当前分卷
+    private File currentFile;
+    private OutputStream stream;
+    private CountingOutputStream counter;
+    private MessageDigest digest;
+    private long currentRows;
+
+    /**
+     * @param directory 输出目录
+     * @param baseName 文件名前缀（不含扩展名）
+     * @param extension 扩展名，如".csv"
+     * @param compression 压缩方式
+     * @param level 压缩级别，小于0时使用压缩算法默认级别
+     * @param rotateBytes 单个分卷的大小上限（磁盘字节数），小于等于0表示不切分
+     */
+    public ResultFileOutput(File directory, String baseName, String extension,
+                            Compression compression, int level, long rotateBytes) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.extension = extension;
+        this.compression = compression;
+        this.level = level;
+        this.rotateBytes = rotateBytes;
+    }
+
+    /**
+     * 是否为原样输出（不压缩、不切分），原样输出不生成清单文件
+     */
+    public boolean isPlain() {
+        return compression == Compression.NONE && rotateBytes <= 0;
+    }
+
+    public void open() throws IOException {
+        openPart();
+    }
+
+    /**
+     * 当前分卷的输出流。flush和close不作用于文件，分卷的刷盘和关闭由rotate()和close()负责，
+     * 调用方可以在表的边界flush上层Writer，使已写入的字节计入分卷大小
+     */
+    public OutputStream getStream() {
+        return new PartStream(stream);
+    }
+
+    /**
+     * 记录当前分卷新增的数据行数
+     */
+    public void addRows(long rows) {
+        currentRows += rows;
+    }
+
+    /**
+     * 是否按大小切分分卷
+     */
+    public boolean isRotateEnabled() {
+        return rotateBytes > 0;
+    }
+
+    /**
+     * 当前分卷是否已达到切分阈值，调用前需把上层缓冲的数据写入getStream()
+     */
+    public boolean isRotateNeeded() {
+        return rotateBytes > 0 && currentRows > 0 && currentDiskBytes() >= rotateBytes;
+    }
+
+    /**
+     * 关闭当前分卷并打开下一个分卷
+     */
+    public void rotate() throws IOException {
+        closePart();
+        openPart();
+    }
+
+    /**
+     * 当前分卷已写出的字节数，压缩模式下为压缩后的字节数
+     */
+    public long currentDiskBytes() {
+        return counter == null ? 0 : counter.count;
+    }
+
+    /**
+     * 当前或最近一个分卷文件
+     */
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closePart();
+        if (!isPlain()) {
+            writeManifest();
+        }
+    }
+
+    private void openPart() throws IOException {
+        String partSuffix = rotateBytes > 0 ? String.format(".part%03d", parts.size() + 1) : "";
+        currentFile = new File(directory, baseName + partSuffix + extension + compression.suffix);
+        FileUtil.mkParentDirs(currentFile);
+        currentRows = 0;
+        // 校验和只写入清单，原样输出没有清单，不计算摘要
+        digest = isPlain() ? null : newDigest();
+
+        // [压缩流 ->] 计数 -> [摘要 ->] 文件，计数和校验和针对落盘的压缩后字节
+        OutputStream file = new BufferedOutputStream(new FileOutputStream(currentFile), STREAM_BUFFER_SIZE);
+        counter = new CountingOutputStream(digest != null ? new DigestOutputStream(file, digest) : file);
+        if (compression == Compression.GZIP) {
+            stream = new LeveledGzipOutputStream(counter, level < 0 ? 6 : level);
+        } else if (compression == Compression.ZSTD) {
+            stream = new ZstdCompressorOutputStream(counter, level < 0 ? 3 : level);
+        } else {
+            stream = counter;
+        }
+    }
+
+    private void closePart() throws IOException {
+        if (currentFile == null) {
+            return;
+        }
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+
+        JSONObject part = new JSONObject();
+        part.set("file", currentFile.getName());
+        part.set("rows", currentRows);
+        part.set("bytes", currentFile.length());
+        if (digest != null) {
+            part.set("sha256", HexUtil.encodeHexStr(digest.digest()));
+        }
+        parts.add(part);
+        log.info("结果文件分卷已关闭: {}, 行数: {}, 大小: {} 字节", currentFile.getName(), currentRows, currentFile.length());
+    }
+
+    private void writeManifest() {
+        JSONObject manifest = new JSONObject();
+        manifest.set("baseName", baseName);
+        manifest.set("compression", compression.name().toLowerCase());
+        manifest.set("level", level);
+        manifest.set("rotateBytes", rotateBytes);
+        manifest.set("createdAt", System.currentTimeMillis());
+        manifest.set("totalRows", parts.stream().mapToLong(p -> p.getLong("rows")).sum());
+        manifest.set("parts", new JSONArray(parts));
+
+        File manifestFile = new File(directory, baseName + ".manifest.json");
+        FileUtil.writeUtf8String(manifest.toStringPretty(), manifestFile);
+        log.info("结果文件清单已生成: {}, 共 {} 个分卷", manifestFile.getAbsolutePath(), parts.size());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 可指定压缩级别的gzip输出流
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        private LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, STREAM_BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * 交给调用方的分卷输出流，屏蔽flush和close
+     */
+    private static final class PartStream extends FilterOutputStream {
+        private PartStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 统计写入字节数的输出流
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package io.github.luolong47.dbchecker.writer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * 运行历史写入器
+ * 每次运行的单元格求和结果、各库查询耗时和公式结果写入本地H2文件数据库，由唯一的写线程持有数据库连接，
+ * 同类记录积累到批大小或队列排空时以JDBC批量方式写入并提交。
+ * 所有明细表以(运行ID, 表名, 库名/列名)为主键，并按(表名, ..., 运行ID)建索引，按表查询历史时只需扫描索引。
+ */
+@Slf4j
+public class RunHistoryWriter extends AbstractAsyncWriter<RunHistoryWriter.Record> {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS RUN_INFO (RUN_ID BIGINT PRIMARY KEY, START_TIME TIMESTAMP NOT NULL, "
+            + "END_TIME TIMESTAMP, TOTAL_TABLES INT, COMPLETED_TABLES INT, STATUS VARCHAR(16) NOT NULL)",
+        // DECFLOAT不保留末尾的0，SUM_SCALE单独记录求和值的小数位数，复用上次结果时按原小数位数还原
+        "CREATE TABLE IF NOT EXISTS CELL_RESULT (RUN_ID BIGINT NOT NULL, TABLE_NAME VARCHAR(128) NOT NULL, "
+            + "DB_NAME VARCHAR(64) NOT NULL, COL_NAME VARCHAR(128) NOT NULL, SUM_VALUE DECFLOAT, SUM_SCALE INT, "
+            + "PRIMARY KEY (RUN_ID, TABLE_NAME, DB_NAME, COL_NAME))",
+        "CREATE INDEX IF NOT EXISTS IDX_CELL_RESULT_TABLE ON CELL_RESULT (TABLE_NAME, COL_NAME, DB_NAME, RUN_ID)",
+        // SQL_HINT为查询使用的SQL提示，手工配置或按统计信息生成；OUTCOME为查询失败时按异常类型归类的结果（error、timeout）
+        "CREATE TABLE IF NOT EXISTS QUERY_TIMING (RUN_ID BIGINT NOT NULL, TABLE_NAME VARCHAR(128) NOT NULL, "
+            + "DB_NAME VARCHAR(64) NOT NULL, ACTUAL_DB VARCHAR(64), ELAPSED_MS BIGINT NOT NULL, SUCCESS BOOLEAN NOT NULL, "
+            + "ERROR_MSG VARCHAR(1000), OUTCOME VARCHAR(16), SQL_HINT VARCHAR(1000), PRIMARY KEY (RUN_ID, TABLE_NAME, DB_NAME))",
+        "CREATE INDEX IF NOT EXISTS IDX_QUERY_TIMING_TABLE ON QUERY_TIMING (TABLE_NAME, DB_NAME, RUN_ID)",
+        "CREATE TABLE IF NOT EXISTS FORMULA_OUTCOME (RUN_ID BIGINT NOT NULL, TABLE_NAME VARCHAR(128) NOT NULL, "
+            + "COL_NAME VARCHAR(128) NOT NULL, FORMULA VARCHAR(256), PASSED BOOLEAN NOT NULL, DIFF DECFLOAT, "
+            + "DIFF_DESC VARCHAR(1000), PRIMARY KEY (RUN_ID, TABLE_NAME, COL_NAME))",
+        "CREATE INDEX IF NOT EXISTS IDX_FORMULA_OUTCOME_TABLE ON FORMULA_OUTCOME (TABLE_NAME, COL_NAME, RUN_ID)"
+    };
+
+    // 续跑时同一运行中可能重复写入同一单元格，使用MERGE按主键覆盖
+    private static final String MERGE_CELL = "MERGE INTO CELL_RESULT (RUN_ID, TABLE_NAME, DB_NAME, COL_NAME, SUM_VALUE, SUM_SCALE) "
+        + "KEY (RUN_ID, TABLE_NAME, DB_NAME, COL_NAME) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String MERGE_TIMING = "MERGE INTO QUERY_TIMING (RUN_ID, TABLE_NAME, DB_NAME, ACTUAL_DB, ELAPSED_MS, SUCCESS, ERROR_MSG, OUTCOME, "
+        + "SQL_HINT) KEY (RUN_ID, TABLE_NAME, DB_NAME) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String MERGE_FORMULA = "MERGE INTO FORMULA_OUTCOME (RUN_ID, TABLE_NAME, COL_NAME, FORMULA, PASSED, DIFF, DIFF_DESC) "
+        + "KEY (RUN_ID, TABLE_NAME, COL_NAME) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String[] DETAIL_TABLES = {"CELL_RESULT", "QUERY_TIMING", "FORMULA_OUTCOME"};
+
+    private final String url;
+    private final int batchSize;
+    private final int keepRuns;
+    private final boolean compactOnClose;
+
+    // 本次运行ID，在open()中分配
+    private volatile long runId;
+
+    // 以下字段只由写线程访问
+    private Connection connection;
+    private PreparedStatement cellStatement;
+    private PreparedStatement timingStatement;
+    private PreparedStatement formulaStatement;
+    private int pendingCount;
+    private int purgedRuns;
+    private boolean failed;
+
+    // 统计信息
+    private volatile long writtenRecords;
+    private volatile long batchCount;
+
+    /**
+     * @param url H2数据库JDBC地址
+     * @param batchSize 单次批量写入的最大记录数
+     * @param keepRuns 保留最近多少次运行的历史，小于等于0表示不清理
+     * @param compactOnClose 清理过历史时关闭前压缩数据库文件
+     */
+    public RunHistoryWriter(String url, int batchSize, int keepRuns, boolean compactOnClose) {
+        super("run-history");
+        this.url = url;
+        this.batchSize = Math.max(1, batchSize);
+        this.keepRuns = keepRuns;
+        this.compactOnClose = compactOnClose;
+    }
+
+    /**
+     * 建表、清理过期历史并登记本次运行，在start()的调用线程中执行
+     */
+    @Override
+    protected void open() throws SQLException {
+        connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        }
+        connection.setAutoCommit(false);
+        runId = nextRunId();
+        purgedRuns = purgeOldRuns();
+        try (PreparedStatement ps = connection.prepareStatement(
+            "INSERT INTO RUN_INFO (RUN_ID, START_TIME, STATUS) VALUES (?, ?, 'RUNNING')")) {
+            ps.setLong(1, runId);
+            ps.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            ps.executeUpdate();
+        }
+        connection.commit();
+        cellStatement = connection.prepareStatement(MERGE_CELL);
+        timingStatement = connection.prepareStatement(MERGE_TIMING);
+        formulaStatement = connection.prepareStatement(MERGE_FORMULA);
+    }
+
+    public long getRunId() {
+        return runId;
+    }
+
+    /**
+     * 记录表某列在某库上的求和结果
+     */
+    public void cell(String table, String db, String col, BigDecimal value) {
+        submit(new CellRecord(table, db, col, value));
+    }
+
+    /**
+     * 记录表在某库上的查询耗时和结果
+     *
+     * @param db 结果归属的库名
+     * @param actualDb 实际查询的库名
+     * @param outcome 查询失败的结果类型，成功时为null
+     * @param sqlHint 查询使用的SQL提示，没有时为null
+     */
+    public void timing(String table, String db, String actualDb, long elapsedMillis, boolean success, String errorMsg,
+                       String outcome, String sqlHint) {
+        submit(new TimingRecord(table, db, actualDb, elapsedMillis, success, errorMsg, outcome, sqlHint));
+    }
+
+    /**
+     * 记录表某列的公式校验结果
+     */
+    public void formula(String table, String col, String formula, boolean passed, BigDecimal diff, String diffDesc) {
+        submit(new FormulaRecord(table, col, formula, passed, diff, diffDesc));
+    }
+
+    /**
+     * 记录本次运行结束，随后应调用close()
+     */
+    public void finish(int totalTables, int completedTables) {
+        submit(new FinishRecord(totalTables, completedTables));
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        log.info("运行历史已关闭: 运行ID {}, 写入 {} 条记录, 批量提交 {} 次", runId, writtenRecords, batchCount);
+    }
+
+    @Override
+    protected void handle(Record record) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (record instanceof CellRecord) {
+                addCell((CellRecord) record);
+            } else if (record instanceof TimingRecord) {
+                addTiming((TimingRecord) record);
+            } else if (record instanceof FormulaRecord) {
+                addFormula((FormulaRecord) record);
+            } else if (record instanceof FinishRecord) {
+                flushBatches();
+                finishRun((FinishRecord) record);
+                return;
+            } else {
+                return;
+            }
+            if (++pendingCount >= batchSize) {
+                flushBatches();
+            }
+        } catch (SQLException e) {
+            failed = true;
+            log.error("写入运行历史失败，本次运行的后续历史将不再记录: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void onIdle() {
+        if (failed || pendingCount == 0) {
+            return;
+        }
+        try {
+            flushBatches();
+        } catch (SQLException e) {
+            failed = true;
+            log.error("写入运行历史失败，本次运行的后续历史将不再记录: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void onClose() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (!failed) {
+                flushBatches();
+            }
+            if (compactOnClose && purgedRuns > 0) {
+                // 压缩后数据库关闭，其他连接随之失效
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SHUTDOWN COMPACT");
+                }
+                log.info("已清理 {} 次过期运行并压缩运行历史数据库", purgedRuns);
+            }
+        } catch (SQLException e) {
+            log.error("关闭运行历史数据库时发生错误: {}", e.getMessage(), e);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("关闭运行历史连接时发生错误: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void addCell(CellRecord cell) throws SQLException {
+        cellStatement.setLong(1, runId);
+        cellStatement.setString(2, cell.table);
+        cellStatement.setString(3, cell.db);
+        cellStatement.setString(4, cell.col);
+        cellStatement.setBigDecimal(5, cell.sumValue);
+        if (cell.sumValue == null) {
+            cellStatement.setNull(6, Types.INTEGER);
+        } else {
+            cellStatement.setInt(6, cell.sumValue.scale());
+        }
+        cellStatement.addBatch();
+    }
+
+    private void addTiming(TimingRecord timing) throws SQLException {
+        timingStatement.setLong(1, runId);
+        timingStatement.setString(2, timing.table);
+        timingStatement.setString(3, timing.db);
+        timingStatement.setString(4, timing.actualDb);
+        timingStatement.setLong(5, timing.elapsedMillis);
+        timingStatement.setBoolean(6, timing.success);
+        timingStatement.setString(7, truncate(timing.errorMsg));
+        timingStatement.setString(8, timing.outcome);
+        timingStatement.setString(9, truncate(timing.sqlHint));
+        timingStatement.addBatch();
+    }
+
+    private void addFormula(FormulaRecord formula) throws SQLException {
+        formulaStatement.setLong(1, runId);
+        formulaStatement.setString(2, formula.table);
+        formulaStatement.setString(3, formula.col);
+        formulaStatement.setString(4, formula.formula);
+        formulaStatement.setBoolean(5, formula.passed);
+        formulaStatement.setBigDecimal(6, formula.diff);
+        formulaStatement.setString(7, truncate(formula.diffDesc));
+        formulaStatement.addBatch();
+    }
+
+    private void flushBatches() throws SQLException {
+        if (pendingCount == 0) {
+            return;
+        }
+        cellStatement.executeBatch();
+        timingStatement.executeBatch();
+        formulaStatement.executeBatch();
+        connection.commit();
+        writtenRecords += pendingCount;
+        batchCount++;
+        pendingCount = 0;
+    }
+
+    private void finishRun(FinishRecord finish) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+            "UPDATE RUN_INFO SET END_TIME = ?, TOTAL_TABLES = ?, COMPLETED_TABLES = ?, STATUS = ? WHERE RUN_ID = ?")) {
+            ps.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            ps.setInt(2, finish.totalTables);
+            ps.setInt(3, finish.completedTables);
+            ps.setString(4, finish.completedTables >= finish.totalTables ? "FINISHED" : "PARTIAL");
+            ps.setLong(5, runId);
+            ps.executeUpdate();
+        }
+        connection.commit();
+    }
+
+    private long nextRunId() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(RUN_ID), 0) + 1 FROM RUN_INFO")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * 删除最近keepRuns次之前的运行（本次运行尚未登记，因此只保留之前的keepRuns-1次）
+     *
+     * @return 删除的运行次数
+     */
+    private int purgeOldRuns() throws SQLException {
+        if (keepRuns <= 0) {
+            return 0;
+        }
+        long minKeptRunId;
+        try (PreparedStatement ps = connection.prepareStatement(
+            "SELECT MIN(RUN_ID) FROM (SELECT RUN_ID FROM RUN_INFO ORDER BY RUN_ID DESC LIMIT ?) T")) {
+            ps.setInt(1, Math.max(0, keepRuns - 1));
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                minKeptRunId = rs.getLong(1);
+                if (rs.wasNull()) {
+                    minKeptRunId = runId;
+                }
+            }
+        }
+        for (String table : DETAIL_TABLES) {
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + table + " WHERE RUN_ID < ?")) {
+                ps.setLong(1, minKeptRunId);
+                ps.executeUpdate();
+            }
+        }
+        int purged;
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM RUN_INFO WHERE RUN_ID < ?")) {
+            ps.setLong(1, minKeptRunId);
+            purged = ps.executeUpdate();
+        }
+        connection.commit();
+        return purged;
+    }
+
+    private static String truncate(String text) {
+        return text == null || text.length() <= 1000 ? text : text.substring(0, 1000);
+    }
+
+    /**
+     * 一条待写入的历史记录，按类型分别写入对应的明细表
+     */
+    abstract static class Record {
+    }
+
+    /**
+     * 表某列在某库上的求和结果，写入CELL_RESULT
+     */
+    static final class CellRecord extends Record {
+        private final String table;
+        private final String db;
+        private final String col;
+        private final BigDecimal sumValue;
+
+        private CellRecord(String table, String db, String col, BigDecimal sumValue) {
+            this.table = table;
+            this.db = db;
+            this.col = col;
+            this.sumValue = sumValue;
+        }
+    }
+
+    /**
+     * 表在某库上的查询耗时和结果，写入QUERY_TIMING
+     */
+    static final class TimingRecord extends Record {
+        private final String table;
+        private final String db;
+        private final String actualDb;
+        private final long elapsedMillis;
+        private final boolean success;
+        private final String errorMsg;
+        private final String outcome;
+        private final String sqlHint;
+
+        private TimingRecord(String table, String db, String actualDb, long elapsedMillis, boolean success,
+                             String errorMsg, String outcome, String sqlHint) {
+            this.table = table;
+            this.db = db;
+            this.actualDb = actualDb;
+            this.elapsedMillis = elapsedMillis;
+            this.success = success;
+            this.errorMsg = errorMsg;
+            this.outcome = outcome;
+            this.sqlHint = sqlHint;
+        }
+    }
+
+    /**
+     * 表某列的公式校验结果，写入FORMULA_OUTCOME
+     */
+    static final class FormulaRecord extends Record {
+        private final String table;
+        private final String col;
+        private final String formula;
+        private final boolean passed;
+        private final BigDecimal diff;
+        private final String diffDesc;
+
+        private FormulaRecord(String table, String col, String formula, boolean passed, BigDecimal diff, String diffDesc) {
+            this.table = table;
+            this.col = col;
+            this.formula = formula;
+            this.passed = passed;
+            this.diff = diff;
+            this.diffDesc = diffDesc;
+        }
+    }
+
+    /**
+     * 本次运行结束，更新RUN_INFO
+     */
+    static final class FinishRecord extends Record {
+        private final int totalTables;
+        private final int completedTables;
+
+        private FinishRecord(int totalTables, int completedTables) {
+            this.totalTables = totalTables;
+            this.completedTables = completedTables;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package io.github.luolong47.dbchecker.writer;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 断点续跑状态日志
+ * 状态变化以NDJSON格式追加写入日志文件，每行一个事件，由唯一的写线程编码和落盘。
+ * 写线程把队列中积累的多个事件合并为一次写入，并按同步间隔批量fsync（组提交）。
+ * 日志超过压缩阈值（且不小于上一次快照）或收到快照请求时，把完整状态写成快照文件（先写临时文件再原子替换），然后清空日志。
+ * 快照请求只设置脏标记，多次请求合并为一次，两次快照之间至少间隔snapshotInterval；阶段边界可要求立即写快照，
+ * 已在队列中等待的立即快照请求同样会合并。
+ * 事件都是幂等的，快照之后重放残留的日志不会改变状态。
+ */
+@Slf4j
+public class StateJournal extends AbstractAsyncWriter<StateJournal.Event> {
+    public static final String TYPE_PROCESSING = "P";
+    public static final String TYPE_DB_TIME = "T";
+    public static final String TYPE_RESULT = "R";
+    public static final String TYPE_COMPLETED = "C";
+    public static final String TYPE_TOTAL = "N";
+    // 快照请求，只在写线程内部使用，不写入日志
+    private static final String TYPE_SNAPSHOT = "S";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final long compactBytes;
+    private final long syncIntervalNanos;
+    private final long snapshotIntervalNanos;
+    private final Supplier<String> snapshotSupplier;
+
+    // 有未写入快照的状态变化（合并快照请求）
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    // 队列中已有立即快照请求
+    private final AtomicBoolean snapshotQueued = new AtomicBoolean(false);
+    private final LongAdder snapshotRequests = new LongAdder();
+    private final LongAdder coalescedRequests = new LongAdder();
+
+    // 以下字段只由写线程访问
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean unsynced;
+    private long lastSyncNanos;
+    private long lastSnapshotNanos;
+    private long lastSnapshotSize;
+    private boolean failed;
+
+    // 统计信息，写线程更新，关闭后读取
+    private volatile long eventCount;
+    private volatile long journalBytes;
+    private volatile long snapshotBytes;
+    private volatile long syncCount;
+    private volatile long snapshotCount;
+
+    /**
+     * @param journalFile 日志文件
+     * @param snapshotFile 快照文件
+     * @param compactBytes 日志达到该大小后压缩为快照，小于等于0表示只在请求时生成快照
+     * @param syncIntervalMillis 两次fsync之间的最小间隔（毫秒），0表示每批都fsync
+     * @param snapshotIntervalMillis 合并快照请求时两次快照之间的最小间隔（毫秒）
+     * @param queueCapacity 事件队列容量，小于等于0表示不限制
+     * @param snapshotSupplier 生成完整状态快照JSON，在写线程中调用
+     */
+    public StateJournal(File journalFile, File snapshotFile, long compactBytes, long syncIntervalMillis,
+                        long snapshotIntervalMillis, int queueCapacity, Supplier<String> snapshotSupplier) {
+        super("state-journal", queueCapacity);
+        this.journalFile = journalFile;
+        this.snapshotFile = snapshotFile;
+        this.compactBytes = compactBytes;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+        this.snapshotSupplier = snapshotSupplier;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        FileUtil.mkParentDirs(journalFile);
+        channel = FileChannel.open(journalFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        lastSyncNanos = System.nanoTime();
+        lastSnapshotNanos = lastSyncNanos;
+    }
+
+    /**
+     * 追加一个事件
+     */
+    public void append(Event event) {
+        if (!submit(event)) {
+            log.warn("状态日志已关闭，丢弃事件: {} {}", event.type, event.table);
+        }
+    }
+
+    /**
+     * 请求写出一次完整快照，只设置脏标记，由写线程在距上次快照超过快照间隔后执行，期间的多次请求合并为一次
+     */
+    public void requestSnapshot() {
+        snapshotRequests.increment();
+        if (!dirty.compareAndSet(false, true)) {
+            coalescedRequests.increment();
+        }
+    }
+
+    /**
+     * 立即写出一次完整快照并清空日志，用于阶段边界。队列中已有未执行的立即快照请求时直接合并，
+     * 该请求执行时读取的内存状态已包含本次调用之前的所有变化。
+     */
+    public void snapshotNow() {
+        snapshotRequests.increment();
+        if (!snapshotQueued.compareAndSet(false, true)) {
+            coalescedRequests.increment();
+            return;
+        }
+        if (!submit(new Event(TYPE_SNAPSHOT, null, null, 0, null))) {
+            snapshotQueued.set(false);
+        }
+    }
+
+    @Override
+    public boolean close(long timeout, TimeUnit unit) {
+        boolean finished = super.close(timeout, unit);
+        log.info("状态日志已关闭: 事件 {} 条, 日志写入 {} 字节, 快照请求 {} 次(合并 {} 次), 快照 {} 次共 {} 字节, fsync {} 次, 队列满等待 {} 次",
+            eventCount, journalBytes, getSnapshotRequestCount(), getCoalescedCount(), snapshotCount, snapshotBytes,
+            syncCount, getBlockedCount());
+        return finished;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getJournalBytes() {
+        return journalBytes;
+    }
+
+    public long getSnapshotBytes() {
+        return snapshotBytes;
+    }
+
+    public long getSyncCount() {
+        return syncCount;
+    }
+
+    public long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    /**
+     * 快照请求总数（包括合并掉的请求）
+     */
+    public long getSnapshotRequestCount() {
+        return snapshotRequests.sum();
+    }
+
+    /**
+     * 被合并、没有单独写快照的请求数
+     */
+    public long getCoalescedCount() {
+        return coalescedRequests.sum();
+    }
+
+    @Override
+    protected void handle(Event event) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (TYPE_SNAPSHOT.equals(event.type)) {
+                // 先清除标记再读取状态，之后的请求会重新入队
+                snapshotQueued.set(false);
+                compact();
+                return;
+            }
+            byte[] line = (event.toJson().toString() + "\n").getBytes(StandardCharsets.UTF_8);
+            if (line.length > buffer.remaining()) {
+                writeBuffer();
+            }
+            if (line.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(line));
+            } else {
+                buffer.put(line);
+            }
+            eventCount++;
+            // 持续有事件入队时队列不会排空，按同步间隔提交一次
+            if (System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+                commit();
+            }
+        } catch (IOException e) {
+            failed = true;
+            log.error("写入状态日志 [{}] 失败，后续状态变化将不再持久化: {}", journalFile.getAbsolutePath(), e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void onIdle() {
+        // 队列排空时把本批事件一次写出，按间隔fsync
+        if (failed) {
+            return;
+        }
+        try {
+            if (System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+                commit();
+            } else {
+                writeBuffer();
+            }
+        } catch (IOException e) {
+            failed = true;
+            log.error("写入状态日志 [{}] 失败，后续状态变化将不再持久化: {}", journalFile.getAbsolutePath(), e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void onClose() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (!failed) {
+                writeBuffer();
+                sync();
+            }
+        } catch (IOException e) {
+            log.error("关闭状态日志 [{}] 时发生错误: {}", journalFile.getAbsolutePath(), e.getMessage(), e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("关闭状态日志通道时发生错误: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 组提交：写出缓冲区中的事件并fsync，日志超过压缩阈值且不小于上一次快照时压缩为快照，
+     * 保证每次快照前日志至少写入了一个快照大小的数据，写放大不超过2倍。
+     * 有合并的快照请求且距上次快照超过快照间隔时也写出快照。
+     */
+    private void commit() throws IOException {
+        writeBuffer();
+        sync();
+        if (dirty.get() && System.nanoTime() - lastSnapshotNanos >= snapshotIntervalNanos) {
+            compact();
+            return;
+        }
+        if (compactBytes > 0) {
+            long size = channel.size();
+            if (size >= compactBytes && size >= lastSnapshotSize) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * 写出完整快照后清空日志。快照生成时刻之前的事件都已反映在内存状态中，
+     * 快照写入期间入队的事件仍会追加到新日志中，重放时幂等覆盖。
+     */
+    private void compact() throws IOException {
+        writeBuffer();
+        sync();
+
+        dirty.set(false);
+        lastSnapshotNanos = System.nanoTime();
+        String json = snapshotSupplier.get();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        FileUtil.mkParentDirs(tmp);
+        try (FileChannel out = FileChannel.open(tmp.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(bytes);
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // 快照已落盘，之前的日志不再需要
+        channel.truncate(0);
+        channel.force(true);
+        lastSnapshotSize = bytes.length;
+        snapshotBytes += bytes.length;
+        snapshotCount++;
+        log.debug("状态快照已写入: {}, {} 字节", snapshotFile.getAbsolutePath(), bytes.length);
+    }
+
+    private void writeBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        journalBytes += data.remaining();
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        unsynced = true;
+    }
+
+    private void sync() throws IOException {
+        lastSyncNanos = System.nanoTime();
+        if (!unsynced) {
+            return;
+        }
+        channel.force(false);
+        unsynced = false;
+        syncCount++;
+    }
+
+    /**
+     * 状态日志事件
+     */
+    public static final class Event {
+        private final String type;
+        private final String table;
+        private final String db;
+        private final long value;
+        private final Map<String, BigDecimal> results;
+
+        public Event(String type, String table, String db, long value, Map<String, BigDecimal> results) {
+            this.type = type;
+            this.table = table;
+            this.db = db;
+            this.value = value;
+            this.results = results;
+        }
+
+        /**
+         * 表开始处理
+         */
+        public static Event processing(String table) {
+            return new Event(TYPE_PROCESSING, table, null, 0, null);
+        }
+
+        /**
+         * 表在某个库上的查询耗时
+         */
+        public static Event dbTime(String table, String db, long millis) {
+            return new Event(TYPE_DB_TIME, table, db, millis, null);
+        }
+
+        /**
+         * 表在某个库上的求和结果（列名 -> 值）
+         */
+        public static Event result(String table, String db, Map<String, BigDecimal> results) {
+            return new Event(TYPE_RESULT, table, db, 0, results);
+        }
+
+        /**
+         * 表处理完成，value为总耗时
+         */
+        public static Event completed(String table, long millis) {
+            return new Event(TYPE_COMPLETED, table, null, millis, null);
+        }
+
+        /**
+         * 本次运行的总表数
+         */
+        public static Event total(int totalTables) {
+            return new Event(TYPE_TOTAL, null, null, totalTables, null);
+        }
+
+        private JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.set("t", type);
+            if (table != null) {
+                json.set("tb", table);
+            }
+            if (db != null) {
+                json.set("db", db);
+            }
+            if (value != 0) {
+                json.set("v", value);
+            }
+            if (results != null) {
+                // 金额以字符串保存，避免精度丢失
+                JSONObject values = new JSONObject();
+                results.forEach((col, val) -> values.set(col, val == null ? null : val.toPlainString()));
+                json.set("r", values);
+            }
+            return json;
+        }
+    }
+}
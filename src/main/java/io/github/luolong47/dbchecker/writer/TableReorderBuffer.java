@@ -0,0 +1,289 @@
+package io.github.luolong47.dbchecker.writer;
+
+import cn.hutool.core.io.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * 按表名排序的有界重排缓冲区
+ * CSV写入器把各表的结果行放入按表名排序的内存缓冲区，缓冲区超过上限时整体作为一个有序段写入临时文件，
+ * 关闭时对所有有序段和内存中剩余数据做多路归并，按表名顺序输出，内存占用只与缓冲区上限有关。
+ * 同一张表的行保持提交顺序，同名表按提交先后输出。非线程安全，由CSV写入器在写锁内访问。
+ */
+@Slf4j
+public class TableReorderBuffer {
+    // 单次归并的最大路数，超过时先做中间归并，避免同时打开过多文件
+    private static final int MAX_MERGE_WIDTH = 64;
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+    // 估算内存占用时每行、每个字段的额外开销
+    private static final int ROW_OVERHEAD = 48;
+    private static final int FIELD_OVERHEAD = 40;
+
+    /**
+     * 归并输出的回调，按表名顺序逐表调用
+     */
+    public interface TableSink {
+        void accept(String tableName, List<String[]> rows) throws IOException;
+    }
+
+    private final File tempDir;
+    private final String prefix;
+    private final long maxBytes;
+
+    // 表名 -> 该表的全部批次，同名表的批次按提交顺序追加
+    private final TreeMap<String, List<List<String[]>>> pending = new TreeMap<>();
+    private final List<File> runs = new ArrayList<>();
+    private long pendingBytes;
+    private long spilledBytes;
+    private int runSeq;
+
+    /**
+     * @param tempDir 临时文件目录
+     * @param prefix 临时文件名前缀
+     * @param maxBytes 内存缓冲区上限（估算字节数）
+     */
+    public TableReorderBuffer(File tempDir, String prefix, long maxBytes) {
+        this.tempDir = tempDir;
+        this.prefix = prefix;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 加入一张表的结果行，缓冲区超过上限时写出一个有序段
+     */
+    public void add(String tableName, List<String[]> rows) throws IOException {
+        String key = tableName == null ? "" : tableName;
+        pending.computeIfAbsent(key, k -> new ArrayList<>(1)).add(rows);
+        for (String[] row : rows) {
+            pendingBytes += estimate(row);
+        }
+        if (pendingBytes >= maxBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * 按表名顺序输出全部数据并删除临时文件
+     */
+    public void drain(TableSink sink) throws IOException {
+        try {
+            if (runs.isEmpty()) {
+                // 没有溢写过，直接按内存中的顺序输出
+                for (Map.Entry<String, List<List<String[]>>> entry : pending.entrySet()) {
+                    for (List<String[]> rows : entry.getValue()) {
+                        sink.accept(entry.getKey(), rows);
+                    }
+                }
+                pending.clear();
+                pendingBytes = 0;
+                return;
+            }
+            spill();
+            while (runs.size() > MAX_MERGE_WIDTH) {
+                mergePass();
+            }
+            log.info("开始归并 {} 个有序段，累计溢写 {} 字节", runs.size(), spilledBytes);
+            merge(runs, sink);
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * 删除所有临时文件
+     */
+    public void cleanup() {
+        runs.forEach(FileUtil::del);
+        runs.clear();
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    public int getRunCount() {
+        return runSeq;
+    }
+
+    private void spill() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        File run = nextRunFile();
+        try (DataOutputStream out = openRun(run)) {
+            for (Map.Entry<String, List<List<String[]>>> entry : pending.entrySet()) {
+                for (List<String[]> rows : entry.getValue()) {
+                    writeTable(out, entry.getKey(), rows);
+                }
+            }
+        }
+        runs.add(run);
+        spilledBytes += run.length();
+        log.debug("重排缓冲区已满，写出有序段 {}，{} 张表，{} 字节", run.getName(), pending.size(), run.length());
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * 一轮中间归并：相邻的每MAX_MERGE_WIDTH个有序段合并为一个，合并结果保持原有先后顺序
+     */
+    private void mergePass() throws IOException {
+        List<File> next = new ArrayList<>(runs.size() / MAX_MERGE_WIDTH + 1);
+        try {
+            for (int from = 0; from < runs.size(); from += MAX_MERGE_WIDTH) {
+                List<File> group = runs.subList(from, Math.min(from + MAX_MERGE_WIDTH, runs.size()));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                File merged = nextRunFile();
+                next.add(merged);
+                try (DataOutputStream out = openRun(merged)) {
+                    merge(group, (table, rows) -> writeTable(out, table, rows));
+                }
+                group.forEach(FileUtil::del);
+            }
+        } catch (IOException e) {
+            // 保证已生成的中间文件也能被cleanup删除
+            runs.addAll(next);
+            throw e;
+        }
+        log.debug("中间归并完成，有序段 {} -> {}", runs.size(), next.size());
+        runs.clear();
+        runs.addAll(next);
+    }
+
+    private File nextRunFile() {
+        return new File(tempDir, String.format(".%s.run%04d.tmp", prefix, ++runSeq));
+    }
+
+    private static DataOutputStream openRun(File file) throws IOException {
+        FileUtil.mkParentDirs(file);
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+    }
+
+    /**
+     * 多路归并：每个有序段内部按表名有序，表名相同时按段的先后输出
+     */
+    private static void merge(List<File> files, TableSink sink) throws IOException {
+        PriorityQueue<RunReader> heap = new PriorityQueue<>((a, b) -> {
+            int c = a.tableName.compareTo(b.tableName);
+            return c != 0 ? c : Integer.compare(a.index, b.index);
+        });
+        List<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                RunReader reader = new RunReader(files.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    heap.add(reader);
+                }
+            }
+            while (!heap.isEmpty()) {
+                RunReader reader = heap.poll();
+                sink.accept(reader.tableName, reader.rows);
+                if (reader.next()) {
+                    heap.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 段文件格式：[表名][行数]{[字段数]{[字段]}}，字符串为长度前缀的UTF-8字节，-1表示null
+     */
+    private static void writeTable(DataOutputStream out, String tableName, List<String[]> rows) throws IOException {
+        writeString(out, tableName);
+        out.writeInt(rows.size());
+        for (String[] row : rows) {
+            out.writeInt(row.length);
+            for (String field : row) {
+                writeString(out, field);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long estimate(String[] row) {
+        long size = ROW_OVERHEAD;
+        for (String field : row) {
+            size += FIELD_OVERHEAD + (field == null ? 0 : field.length() * 2L);
+        }
+        return size;
+    }
+
+    /**
+     * 有序段读取器，每次读出一张表的全部行
+     */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private final int index;
+        private String tableName;
+        private List<String[]> rows;
+
+        private RunReader(File file, int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+            this.index = index;
+        }
+
+        private boolean next() throws IOException {
+            try {
+                tableName = readString(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            int rowCount = in.readInt();
+            rows = new ArrayList<>(rowCount);
+            for (int r = 0; r < rowCount; r++) {
+                String[] row = new String[in.readInt()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = readString(in);
+                }
+                rows.add(row);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package io.github.luolong47.dbchecker.writer;
+
+import io.github.luolong47.dbchecker.entity.TableCsvResult;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单写线程XLSX写入器
+ * 基于POI的SXSSF流式工作簿，每个sheet只在内存中保留windowSize行，超出部分刷到临时文件，内存占用与总行数无关。
+ * 每种公式单独一个sheet，单个sheet超过rowsPerSheet行时自动续建新sheet。
+ * 待写入的表队列有容量上限，写线程跟不上时导出线程等待，结果行不会在队列中无限堆积。
+ */
+@Slf4j
+public class XlsxResultWriter extends AbstractAsyncWriter<List<TableCsvResult>> {
+    // Excel数值精度为15位有效数字，超过的值以文本写入避免精度丢失
+    private static final int MAX_NUMERIC_PRECISION = 15;
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
+    private static final String NO_FORMULA_SHEET = "无公式";
+    // Excel单个sheet的最大行数包含表头行
+    public static final int MAX_ROWS_PER_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+
+    private final File file;
+    private final String[] headers;
+    private final int windowSize;
+    private final int rowsPerSheet;
+
+    // 以下字段只由写线程访问
+    private SXSSFWorkbook workbook;
+    private CellStyle headerStyle;
+    private final Map<String, SheetCursor> sheets = new HashMap<>();
+    private long writtenRows;
+    private boolean failed;
+
+    /**
+     * @param rowsPerSheet 单个sheet的最大数据行数，不含表头，不能超过MAX_ROWS_PER_SHEET
+     * @param queueCapacity 待写入的表队列容量，小于等于0表示不限制
+     */
+    public XlsxResultWriter(File file, String[] headers, int windowSize, int rowsPerSheet, int queueCapacity) {
+        super("xlsx-writer", queueCapacity);
+        if (rowsPerSheet <= 0 || rowsPerSheet > MAX_ROWS_PER_SHEET) {
+            throw new IllegalArgumentException("rowsPerSheet必须在1到" + MAX_ROWS_PER_SHEET + "之间: " + rowsPerSheet);
+        }
+        this.file = file;
+        this.headers = headers;
+        this.windowSize = windowSize;
+        this.rowsPerSheet = rowsPerSheet;
+    }
+
+    @Override
+    protected void open() {
+        workbook = new SXSSFWorkbook(windowSize);
+        workbook.setCompressTempFiles(true);
+        headerStyle = workbook.createCellStyle();
+        Font font = workbook.createFont();
+        font.setBold(true);
+        headerStyle.setFont(font);
+    }
+
+    /**
+     * 提交一张表的结果，调用方线程只做入队操作
+     *
+     * @param tableName 表名
+     * @param results 表的结果行
+     */
+    public void write(String tableName, List<TableCsvResult> results) {
+        if (!submit(results)) {
+            log.warn("XLSX写线程已关闭，丢弃表 [{}] 的 {} 行数据", tableName, results.size());
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        log.info("XLSX写线程已结束: 写入 {} 行, {} 个sheet, 文件: {}", writtenRows, sheets.size(), file.getAbsolutePath());
+    }
+
+    @Override
+    protected void handle(List<TableCsvResult> results) {
+        if (failed) {
+            return;
+        }
+        try {
+            for (TableCsvResult result : results) {
+                Row row = nextRow(sheetKey(result.getFormula()));
+                writeRow(row, result);
+                writtenRows++;
+            }
+        } catch (Exception e) {
+            failed = true;
+            log.error("写入XLSX数据时发生错误，后续数据将被丢弃: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void onClose() {
+        if (workbook == null) {
+            return;
+        }
+        try {
+            if (!failed) {
+                try (OutputStream out = new FileOutputStream(file)) {
+                    workbook.write(out);
+                }
+            }
+        } catch (Exception e) {
+            log.error("保存XLSX文件 [{}] 时发生错误: {}", file.getAbsolutePath(), e.getMessage(), e);
+        } finally {
+            // 关闭工作簿，同时删除SXSSF产生的临时文件
+            try {
+                workbook.close();
+            } catch (Exception e) {
+                log.debug("关闭XLSX工作簿时发生错误: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Row nextRow(String key) {
+        SheetCursor cursor = sheets.get(key);
+        if (cursor == null || cursor.nextRow > rowsPerSheet) {
+            int part = cursor == null ? 1 : cursor.part + 1;
+            cursor = new SheetCursor(createSheet(part == 1 ? key : key + "_" + part), part);
+            sheets.put(key, cursor);
+        }
+        return cursor.sheet.createRow(cursor.nextRow++);
+    }
+
+    private SXSSFSheet createSheet(String name) {
+        String sheetName = name.length() > MAX_SHEET_NAME_LENGTH ? name.substring(0, MAX_SHEET_NAME_LENGTH) : name;
+        SXSSFSheet sheet = workbook.createSheet(sheetName);
+        Row header = sheet.createRow(0);
+        for (int i = 0; i < headers.length; i++) {
+            Cell cell = header.createCell(i);
+            cell.setCellValue(headers[i]);
+            cell.setCellStyle(headerStyle);
+        }
+        return sheet;
+    }
+
+    private void writeRow(Row row, TableCsvResult result) {
+        int col = 0;
+        setText(row, col++, result.getTableName());
+        setText(row, col++, result.getDbs());
+        setText(row, col++, result.getSumCols());
+        setText(row, col++, result.getCol());
+        setCell(row, col++, result, "ora", result.getSumOraAll());
+        setCell(row, col++, result, "ora", result.getSumOra());
+        setCell(row, col++, result, "rlcms-base", result.getSumRlcmsBase());
+        setCell(row, col++, result, "rlcms-pv1", result.getSumRlcmsPv1());
+        setCell(row, col++, result, "rlcms-pv2", result.getSumRlcmsPv2());
+        setCell(row, col++, result, "rlcms-pv3", result.getSumRlcmsPv3());
+        setCell(row, col++, result, "bscopy-pv1", result.getSumBscopyPv1());
+        setCell(row, col++, result, "bscopy-pv2", result.getSumBscopyPv2());
+        setCell(row, col++, result, "bscopy-pv3", result.getSumBscopyPv3());
+        setText(row, col++, result.getFormula());
+        setText(row, col++, result.getFormulaResult());
+        setNumber(row, col++, result.getDiff());
+        setText(row, col, result.getDiffDesc());
+    }
+
+    private void setText(Row row, int col, String value) {
+        if (value != null && !value.isEmpty()) {
+            row.createCell(col).setCellValue(value);
+        }
+    }
+
+    /**
+     * 某库的求和值，该库没有得到结果时写入查询状态
+     */
+    private void setCell(Row row, int col, TableCsvResult result, String db, BigDecimal value) {
+        String status = result.getDbStatus().get(db);
+        if (status != null) {
+            setText(row, col, status);
+        } else {
+            setNumber(row, col, value);
+        }
+    }
+
+    private void setNumber(Row row, int col, BigDecimal value) {
+        if (value == null) {
+            return;
+        }
+        if (value.precision() <= MAX_NUMERIC_PRECISION) {
+            row.createCell(col).setCellValue(value.doubleValue());
+        } else {
+            row.createCell(col).setCellValue(value.toPlainString());
+        }
+    }
+
+    /**
+     * 按公式名称分sheet，如"公式1: ora = ..."归入"公式1"
+     */
+    private static String sheetKey(String formula) {
+        if (formula == null || formula.isEmpty()) {
+            return NO_FORMULA_SHEET;
+        }
+        int idx = formula.indexOf(':');
+        String key = idx > 0 ? formula.substring(0, idx) : formula;
+        // sheet名不允许包含 \ / ? * [ ] :
+        return key.replaceAll("[\\\\/?*\\[\\]:]", "_").trim();
+    }
+
+    private static final class SheetCursor {
+        private final SXSSFSheet sheet;
+        private final int part;
+        private int nextRow = 1;
+
+        private SheetCursor(SXSSFSheet sheet, int part) {
+            this.sheet = sheet;
+            this.part = part;
+        }
+    }
+}
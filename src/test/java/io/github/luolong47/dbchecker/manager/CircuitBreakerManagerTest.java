@@ -0,0 +1,53 @@
+package io.github.luolong47.dbchecker.manager;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 熔断的失败分类：只有连不上数据库才计入熔断，连接池被占满时的取连接超时交给查询重试
+ */
+class CircuitBreakerManagerTest {
+
+    @Test
+    void poolExhaustionIsNotConnectionFailure() {
+        // HikariPool在池被占满时抛出的取连接超时，没有建连异常
+        Throwable e = new CannotGetJdbcConnectionException("Failed to obtain JDBC Connection",
+            new SQLTransientConnectionException("HikariPool-1 - Connection is not available, request timed out after 3000ms."));
+        assertFalse(CircuitBreakerManager.isConnectionFailure(e));
+        assertFalse(CircuitBreakerManager.isUnavailable(e));
+        assertTrue(QueryRetryManager.isTransient(e));
+    }
+
+    @Test
+    void poolTimeoutCausedByConnectFailureIsConnectionFailure() {
+        // 数据库连不上时，取连接超时带出最近一次建连异常及其SQLState
+        SQLException connectFailure = new SQLException("IO Error: The Network Adapter could not establish the connection", "08006");
+        Throwable e = new CannotGetJdbcConnectionException("Failed to obtain JDBC Connection",
+            new SQLTransientConnectionException("HikariPool-1 - Connection is not available, request timed out after 3000ms.",
+                connectFailure.getSQLState(), connectFailure));
+        assertTrue(CircuitBreakerManager.isConnectionFailure(e));
+    }
+
+    @Test
+    void connectionFailures() {
+        assertTrue(CircuitBreakerManager.isConnectionFailure(
+            new CannotGetJdbcConnectionException("Failed to obtain JDBC Connection", new SQLException(new ConnectException("Connection refused")))));
+        assertTrue(CircuitBreakerManager.isConnectionFailure(new SQLNonTransientConnectionException("Connection is broken")));
+        assertTrue(CircuitBreakerManager.isConnectionFailure(new SQLException("Closed Connection", "08003")));
+        assertTrue(CircuitBreakerManager.isUnavailable(new CircuitBreakerManager.DataSourceUnavailableException("熔断中")));
+    }
+
+    @Test
+    void queryErrorsAreNotConnectionFailures() {
+        assertFalse(CircuitBreakerManager.isConnectionFailure(new SQLException("ORA-00942: table or view does not exist", "42000", 942)));
+        assertFalse(CircuitBreakerManager.isConnectionFailure(new SQLException("ORA-01013: user requested cancel of current operation", "72000", 1013)));
+    }
+}
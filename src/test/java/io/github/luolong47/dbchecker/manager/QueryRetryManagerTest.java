@@ -0,0 +1,62 @@
+package io.github.luolong47.dbchecker.manager;
+
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 查询重试：关闭时等待退避的重试不能被静默丢弃，调用方应拿到最后一次的失败
+ */
+class QueryRetryManagerTest {
+
+    @Test
+    void pendingRetryFailsOnShutdown() throws Exception {
+        Dbconfig dbconfig = new Dbconfig();
+        Dbconfig.Retry retry = new Dbconfig.Retry();
+        retry.setInitialBackoffMillis(60000);
+        retry.setMaxBackoffMillis(60000);
+        dbconfig.setRetry(retry);
+        QueryRetryManager manager = new QueryRetryManager(dbconfig);
+        manager.init();
+
+        SQLTransientConnectionException failure = new SQLTransientConnectionException("Connection is not available, request timed out");
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Object> result = manager.submit("表[T]在库[ora]", () -> {
+            calls.incrementAndGet();
+            throw failure;
+        }, Runnable::run);
+
+        assertEquals(1, manager.getRetries());
+        manager.shutdown();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertSame(failure, e.getCause());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void retryAfterShutdownFailsImmediately() throws Exception {
+        QueryRetryManager manager = new QueryRetryManager(new Dbconfig());
+        manager.init();
+        manager.shutdown();
+
+        SQLTransientConnectionException failure = new SQLTransientConnectionException("Connection is not available, request timed out");
+        CompletableFuture<Object> result = manager.submit("表[T]在库[ora]", () -> {
+            throw failure;
+        }, Runnable::run);
+
+        assertTrue(result.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertSame(failure, e.getCause());
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.luolong47.dbchecker.manager;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.UncategorizedSQLException;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 查询失败的结果类型：按异常类型和SQLState归类，不依赖错误信息的文字
+ */
+class RerunManagerTest {
+
+    @Test
+    void queryTimeouts() {
+        assertEquals(RerunManager.OUTCOME_TIMEOUT, RerunManager.classifyFailure(
+            new CompletionException(new QueryTimeoutException("StatementCallback", new SQLTimeoutException("Query timed out")))));
+        assertEquals(RerunManager.OUTCOME_TIMEOUT, RerunManager.classifyFailure(new UncategorizedSQLException("StatementCallback", "SELECT 1",
+            new SQLException("ORA-01013: user requested cancel of current operation", "72000", 1013))));
+        assertEquals(RerunManager.OUTCOME_TIMEOUT, RerunManager.classifyFailure(
+            new SQLException("ERROR: canceling statement due to statement timeout", "57014")));
+    }
+
+    @Test
+    void otherFailuresAreErrors() {
+        assertEquals(RerunManager.OUTCOME_ERROR, RerunManager.classifyFailure(
+            new SQLException("ORA-00942: table or view does not exist", "42000", 942)));
+        // 非Oracle驱动的1013错误码不是用户取消
+        assertEquals(RerunManager.OUTCOME_ERROR, RerunManager.classifyFailure(new SQLException("Unknown error", "HY000", 1013)));
+        // 连接池取连接超时不是查询超时，错误信息中的timed out不影响归类
+        assertEquals(RerunManager.OUTCOME_ERROR, RerunManager.classifyFailure(new CannotGetJdbcConnectionException(
+            "Failed to obtain JDBC Connection",
+            new SQLTransientConnectionException("HikariPool-1 - Connection is not available, request timed out after 3000ms."))));
+    }
+}
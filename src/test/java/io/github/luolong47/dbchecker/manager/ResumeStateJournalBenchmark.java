@@ -0,0 +1,231 @@
+package io.github.luolong47.dbchecker.manager;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONObject;
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import org.springframework.boot.DefaultApplicationArguments;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 断点续跑状态持久化基准测试：多个线程按实际导出顺序标记表状态并记录各库耗时和求和结果，
+ * 比较原来每次状态变化都整体重写JSON状态文件的方式与现在追加状态日志的方式，耗时统计到状态全部落盘为止。
+ * 运行方式：
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.github.luolong47.dbchecker.manager.ResumeStateJournalBenchmark -Dexec.args="500 1"
+ * 参数依次为表数、每种方式的重复次数、输出目录（默认系统临时目录），输出文件在运行结束后删除。整体重写的耗时随表数平方增长，表数不宜过大。
+ */
+public class ResumeStateJournalBenchmark {
+
+    private static final int THREADS = 4;
+    private static final String[] DBS = {
+        "ora", "rlcms-base", "rlcms-pv1", "rlcms-pv2", "rlcms-pv3", "bscopy-pv1", "bscopy-pv2", "bscopy-pv3"};
+    private static final String[] COLS = {"_COUNT", "AMT", "FEE", "BALANCE"};
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"), "resume-state-benchmark");
+        FileUtil.mkdir(dir);
+
+        Set<String> tableNames = new LinkedHashSet<>();
+        for (int i = 0; i < tables; i++) {
+            tableNames.add("TABLE_" + i);
+        }
+        System.out.printf("表数: %d，每表库数: %d，每库列数: %d，线程: %d%n", tables, DBS.length, COLS.length, THREADS);
+        for (int i = 0; i < repeat; i++) {
+            runFullRewrite(new File(dir, "rewrite"), tableNames);
+            runJournal(new File(dir, "journal"), tableNames);
+        }
+        FileUtil.del(dir);
+    }
+
+    /**
+     * 原来的方式：每次状态变化提交一个保存任务，由单个保存线程把完整状态序列化为JSON后覆盖写入状态文件
+     */
+    private static void runFullRewrite(File dir, Set<String> tableNames) throws Exception {
+        FileUtil.del(dir);
+        File stateFile = new File(dir, "resume_state.json");
+        FileUtil.mkParentDirs(stateFile);
+        FullRewriteState state = new FullRewriteState(stateFile, tableNames);
+
+        long start = System.nanoTime();
+        run(tableNames, new StateSink() {
+            @Override
+            public void processing(String tableName) {
+                state.processing(tableName);
+            }
+
+            @Override
+            public void dbResult(String tableName, String db, long millis, Map<String, BigDecimal> values) {
+                state.dbResult(tableName, db, millis, values);
+            }
+
+            @Override
+            public void completed(String tableName) {
+                state.completed(tableName);
+            }
+        });
+        state.shutdown();
+        report("整体重写", start, state.saves, FileUtil.size(stateFile));
+    }
+
+    /**
+     * 现在的方式：状态变化追加到状态日志，由日志写线程组提交，定期和关闭时写出快照
+     */
+    private static void runJournal(File dir, Set<String> tableNames) throws Exception {
+        FileUtil.del(dir);
+        Dbconfig dbconfig = new Dbconfig();
+        Dbconfig.Resume resume = new Dbconfig.Resume();
+        resume.setFile(new File(dir, "resume_state.json").getAbsolutePath());
+        dbconfig.setResume(resume);
+        ResumeStateManager manager = new ResumeStateManager(dbconfig, new DefaultApplicationArguments("--fresh"), null);
+
+        long start = System.nanoTime();
+        manager.init();
+        manager.initTableLists(tableNames, tableNames.size());
+        run(tableNames, new StateSink() {
+            @Override
+            public void processing(String tableName) {
+                manager.markTableProcessing(tableName);
+            }
+
+            @Override
+            public void dbResult(String tableName, String db, long millis, Map<String, BigDecimal> values) {
+                manager.recordTableDbTime(tableName, db, millis);
+                manager.recordTableDbResult(tableName, db, values);
+            }
+
+            @Override
+            public void completed(String tableName) {
+                manager.markTableCompleted(tableName, tableNames.size());
+            }
+        });
+        manager.shutdown();
+        long events = (long) tableNames.size() * (2 + DBS.length * 2) + 1;
+        report("状态日志", start, events, FileUtil.size(new File(dir, "resume_state.json"))
+            + FileUtil.size(new File(dir, "resume_state.journal")));
+    }
+
+    private static void run(Set<String> tableNames, StateSink sink) throws Exception {
+        List<String> tables = new ArrayList<>(tableNames);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < tables.size(); i += THREADS) {
+                        String tableName = tables.get(i);
+                        sink.processing(tableName);
+                        for (String db : DBS) {
+                            Map<String, BigDecimal> values = new HashMap<>();
+                            for (int c = 0; c < COLS.length; c++) {
+                                values.put(COLS[c], BigDecimal.valueOf(i * 100L + c, 2));
+                            }
+                            sink.dbResult(tableName, db, i % 50, values);
+                        }
+                        sink.completed(tableName);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void report(String mode, long start, long writes, long bytes) {
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%-6s: %8d ms，状态写出 %,8d 次，落盘 %,12d 字节%n", mode, elapsedMillis, writes, bytes);
+    }
+
+    private interface StateSink {
+        void processing(String tableName);
+
+        void dbResult(String tableName, String db, long millis, Map<String, BigDecimal> values);
+
+        void completed(String tableName);
+    }
+
+    /**
+     * 按原ResumeStateManager.saveState的写法保存状态：表清单、各库耗时和各表求和结果每次全部重新序列化
+     */
+    private static final class FullRewriteState {
+        private final File stateFile;
+        private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor();
+        private final Set<String> pending;
+        private final Set<String> processing = new LinkedHashSet<>();
+        private final Set<String> completed = new LinkedHashSet<>();
+        private final Map<String, Map<String, Long>> dbTimes = new LinkedHashMap<>();
+        private final Map<String, Map<String, Map<String, BigDecimal>>> sumResults = new LinkedHashMap<>();
+        private long saves;
+
+        FullRewriteState(File stateFile, Set<String> tableNames) {
+            this.stateFile = stateFile;
+            this.pending = new LinkedHashSet<>(tableNames);
+        }
+
+        synchronized void processing(String tableName) {
+            pending.remove(tableName);
+            processing.add(tableName);
+            save();
+        }
+
+        synchronized void dbResult(String tableName, String db, long millis, Map<String, BigDecimal> values) {
+            dbTimes.computeIfAbsent(tableName, k -> new LinkedHashMap<>()).put(db, millis);
+            save();
+            Map<String, Map<String, BigDecimal>> colValues = sumResults.computeIfAbsent(tableName, k -> new LinkedHashMap<>());
+            values.forEach((col, value) -> colValues.computeIfAbsent(col, k -> new LinkedHashMap<>()).put(db, value));
+        }
+
+        synchronized void completed(String tableName) {
+            processing.remove(tableName);
+            completed.add(tableName);
+            save();
+        }
+
+        private void save() {
+            saves++;
+            saveExecutor.submit(() -> {
+                String json;
+                synchronized (this) {
+                    JSONObject jsonObject = new JSONObject();
+                    jsonObject.set("completedTables", completed);
+                    jsonObject.set("processingTables", processing);
+                    jsonObject.set("pendingTables", pending);
+                    jsonObject.set("timestamp", System.currentTimeMillis());
+                    jsonObject.set("tableDbProcessingTimes", dbTimes);
+                    JSONObject tableInfoJson = new JSONObject();
+                    sumResults.forEach((tableName, sumResult) -> {
+                        JSONObject infoJson = new JSONObject();
+                        infoJson.set("tableName", tableName);
+                        infoJson.set("sumResult", sumResult);
+                        tableInfoJson.set(tableName, infoJson);
+                    });
+                    jsonObject.set("tableInfoMap", tableInfoJson);
+                    json = jsonObject.toString();
+                }
+                FileUtil.writeUtf8String(json, stateFile);
+            });
+        }
+
+        void shutdown() throws InterruptedException {
+            saveExecutor.shutdown();
+            saveExecutor.awaitTermination(1, TimeUnit.HOURS);
+        }
+    }
+}
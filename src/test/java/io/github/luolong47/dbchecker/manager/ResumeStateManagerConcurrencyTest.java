@@ -0,0 +1,162 @@
+package io.github.luolong47.dbchecker.manager;
+
+import io.github.luolong47.dbchecker.config.Dbconfig;
+import io.github.luolong47.dbchecker.entity.ResumeState;
+import io.github.luolong47.dbchecker.entity.TableStateRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 表状态机并发测试
+ * 多个线程在同一批表上竞争标记进行中、已完成和待处理，结束后各表的状态序号与O(1)计数器必须一致。
+ */
+class ResumeStateManagerConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int[] STATES = {
+        TableStateRegistry.PENDING, TableStateRegistry.PROCESSING, TableStateRegistry.COMPLETED};
+
+    private ResumeStateManager manager;
+    private ResumeState state;
+
+    @BeforeEach
+    void setUp() {
+        // 不调用init，状态日志为null，状态变化只保存在内存中；以空表清单创建初始状态
+        manager = new ResumeStateManager(new Dbconfig(), new DefaultApplicationArguments(), null);
+        manager.initTableLists(Collections.emptySet(), 0);
+        state = manager.getCurrentState();
+    }
+
+    @Test
+    void countersMatchStatesAfterRacingTransitions() throws Exception {
+        int tableCount = 64;
+        int opsPerThread = 20000;
+        List<String> tables = new ArrayList<>();
+        for (int i = 0; i < tableCount; i++) {
+            tables.add("TABLE_" + i);
+        }
+
+        race(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < opsPerThread; i++) {
+                String table = tables.get(random.nextInt(tableCount));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        manager.markTableProcessing(table);
+                        break;
+                    case 1:
+                        manager.markTableCompleted(table, tableCount);
+                        break;
+                    default:
+                        state.markPending(table);
+                        break;
+                }
+            }
+            return null;
+        });
+
+        assertConsistent(tableCount);
+    }
+
+    @Test
+    void onlyOneThreadEntersProcessing() throws Exception {
+        int rounds = 200;
+        for (int round = 0; round < rounds; round++) {
+            String table = "TABLE_" + round;
+            AtomicInteger winners = new AtomicInteger();
+            race(() -> {
+                if (state.markProcessing(table)) {
+                    winners.incrementAndGet();
+                }
+                return null;
+            });
+            assertEquals(1, winners.get(), "表[" + table + "]同时进入进行中的线程数");
+        }
+        assertEquals(rounds, state.getProcessingCount());
+        assertConsistent(rounds);
+    }
+
+    @Test
+    void concurrentRegistrationAcrossSegments() throws Exception {
+        // 超过一个分段的容量，多个线程同时登记新表并创建分段
+        int tablesPerThread = 300;
+        AtomicInteger nextThread = new AtomicInteger();
+        race(() -> {
+            int thread = nextThread.getAndIncrement();
+            for (int i = 0; i < tablesPerThread; i++) {
+                String table = "T" + thread + "_" + i;
+                state.markPending(table);
+                // 其他线程登记的同名表重复标记不改变计数
+                state.markPending("SHARED_" + i);
+            }
+            return null;
+        });
+
+        int expected = THREADS * tablesPerThread + tablesPerThread;
+        assertEquals(expected, state.getPendingCount());
+        assertEquals(expected, new HashSet<>(state.getPendingTables()).size());
+        assertConsistent(expected);
+    }
+
+    /**
+     * 所有线程同时开始执行同一任务，等待全部完成并抛出其中的异常
+     */
+    private static void race(Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 各状态的计数等于处于该状态的表数量，每张表只处于一个状态，
+     * 待处理、进行中和已完成的计数之和等于已登记的表数量
+     */
+    private void assertConsistent(int tableCount) {
+        TableStateRegistry registry = state.getTableStates();
+        Set<String> seen = new HashSet<>();
+        int total = 0;
+        for (int s : STATES) {
+            List<String> tables = registry.tablesIn(s);
+            assertEquals(tables.size(), registry.count(s), "状态" + s + "的计数");
+            for (String table : tables) {
+                assertEquals(s, registry.getState(table), "表[" + table + "]的状态");
+                assertTrue(seen.add(table), "表[" + table + "]同时处于多个状态");
+            }
+            total += registry.count(s);
+        }
+        assertEquals(tableCount, registry.size(), "已登记的表数量");
+        assertEquals(registry.size(), total, "各状态计数之和");
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.luolong47.dbchecker.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 基准测试使用的结果行和导出线程，列与CsvExportManager.HEADERS一致，数值随表序号变化，避免压缩率虚高
+ */
+final class BenchmarkRows {
+    static final int ROWS_PER_TABLE = 3;
+    static final int PRODUCERS = 4;
+
+    private BenchmarkRows() {
+    }
+
+    static String tableName(int table) {
+        return "TABLE_" + table;
+    }
+
+    static List<String[]> rows(int table) {
+        List<String[]> rows = new ArrayList<>(ROWS_PER_TABLE);
+        for (int r = 0; r < ROWS_PER_TABLE; r++) {
+            rows.add(new String[]{
+                tableName(table), "ora,rlcms-pv1,rlcms-pv2", "AMT,FEE", r == 0 ? "_COUNT" : "AMT",
+                "", String.valueOf(123456.78 + table), String.valueOf(123456.78 + table),
+                "41152.26", "41152.26", String.valueOf(table * 3.1), "", "", "",
+                "公式1: ora = rlcms_pv1 + rlcms_pv2 + rlcms_pv3", "通过", "0",
+                "公式1验证通过：公式1: ora = rlcms_pv1 + rlcms_pv2 + rlcms_pv3"});
+        }
+        return rows;
+    }
+
+    /**
+     * PRODUCERS个导出线程交替写出各表的结果行，全部写完后返回
+     */
+    static void produce(int tables, TableSink sink) throws Exception {
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                int first = p;
+                futures.add(producers.submit(() -> {
+                    for (int table = first; table < tables; table += PRODUCERS) {
+                        sink.write(tableName(table), rows(table));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            producers.shutdown();
+        }
+    }
+
+    interface TableSink {
+        void write(String tableName, List<String[]> rows);
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.luolong47.dbchecker.writer;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.text.csv.CsvUtil;
+import cn.hutool.core.text.csv.CsvWriteConfig;
+import cn.hutool.core.text.csv.CsvWriter;
+import io.github.luolong47.dbchecker.manager.CsvExportManager;
+
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * CSV写出基准测试：多个导出线程在锁内写出同样的结果行，比较原来CsvUtil默认缓冲的写法与CsvResultWriter各缓冲区大小的总耗时。
+ * 运行方式：
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.github.luolong47.dbchecker.writer.CsvResultWriterBenchmark -Dexec.args="200000 3"
+ * 参数依次为表数（每表3行）、每种写法的重复次数、输出目录（默认系统临时目录），输出文件在每次运行后删除。
+ */
+public class CsvResultWriterBenchmark {
+
+    private static final int[] BUFFER_SIZES = {8 * 1024, 64 * 1024, 1024 * 1024};
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"), "csv-writer-benchmark");
+        FileUtil.mkdir(dir);
+
+        System.out.printf("表数: %d，行数: %d，导出线程: %d%n", tables, tables * BenchmarkRows.ROWS_PER_TABLE, BenchmarkRows.PRODUCERS);
+        for (int i = 0; i < repeat; i++) {
+            runCsvUtil(dir, tables);
+            for (int bufferSize : BUFFER_SIZES) {
+                runResultWriter(dir, tables, bufferSize);
+            }
+        }
+        FileUtil.del(dir);
+    }
+
+    /**
+     * 原来的写法：CsvUtil.getWriter包装FileWriter，各导出线程在同一把锁内写入
+     */
+    private static void runCsvUtil(File dir, int tables) throws Exception {
+        File file = new File(dir, "bench_csvutil.csv");
+        Object lock = new Object();
+
+        long start = System.nanoTime();
+        CsvWriter writer = CsvUtil.getWriter(new FileWriter(file), new CsvWriteConfig());
+        writer.writeLine(CsvExportManager.HEADERS);
+        BenchmarkRows.produce(tables, (tableName, rows) -> {
+            synchronized (lock) {
+                for (String[] row : rows) {
+                    writer.writeLine(row);
+                }
+            }
+        });
+        IoUtil.close(writer);
+        report("CsvUtil", start, file);
+    }
+
+    private static void runResultWriter(File dir, int tables, int bufferSize) throws Exception {
+        ResultFileOutput output = new ResultFileOutput(dir, "bench_result", ".csv", ResultFileOutput.Compression.NONE, -1, 0);
+        CsvResultWriter writer = new CsvResultWriter(output, CsvExportManager.HEADERS, bufferSize);
+
+        long start = System.nanoTime();
+        writer.open();
+        BenchmarkRows.produce(tables, writer::write);
+        writer.close();
+        report("缓冲" + bufferSize / 1024 + "K", start, output.getCurrentFile());
+    }
+
+    private static void report(String mode, long start, File file) {
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%-8s: %8d ms，%,14d 字节%n", mode, elapsedMillis, file.length());
+        FileUtil.del(file);
+    }
+}
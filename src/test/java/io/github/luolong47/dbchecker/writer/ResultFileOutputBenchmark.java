@@ -0,0 +1,65 @@
+package io.github.luolong47.dbchecker.writer;
+
+import cn.hutool.core.io.FileUtil;
+import io.github.luolong47.dbchecker.manager.CsvExportManager;
+
+import java.io.File;
+
+/**
+ * 结果文件压缩基准测试：多个导出线程经CsvResultWriter写出同样的结果行，比较各压缩方式和级别的落盘字节数与总耗时。
+ * 运行方式：
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.github.luolong47.dbchecker.writer.ResultFileOutputBenchmark -Dexec.args="200000 2"
+ * 参数依次为表数（每表3行）、每种配置的重复次数、输出目录（默认系统临时目录），输出文件在每次运行后删除。
+ */
+public class ResultFileOutputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"), "result-file-benchmark");
+        FileUtil.mkdir(dir);
+
+        Object[][] configs = {
+            {ResultFileOutput.Compression.NONE, -1},
+            {ResultFileOutput.Compression.GZIP, 1},
+            {ResultFileOutput.Compression.GZIP, 6},
+            {ResultFileOutput.Compression.GZIP, 9},
+            {ResultFileOutput.Compression.ZSTD, 1},
+            {ResultFileOutput.Compression.ZSTD, 3},
+            {ResultFileOutput.Compression.ZSTD, 9},
+        };
+        System.out.printf("表数: %d，行数: %d，导出线程: %d%n", tables, tables * BenchmarkRows.ROWS_PER_TABLE, BenchmarkRows.PRODUCERS);
+        for (Object[] config : configs) {
+            ResultFileOutput.Compression compression = (ResultFileOutput.Compression) config[0];
+            int level = (Integer) config[1];
+            if (!compression.isAvailable()) {
+                System.out.printf("%-5s 级别%2d: 当前环境不可用，跳过%n", compression, level);
+                continue;
+            }
+            for (int i = 0; i < repeat; i++) {
+                run(dir, compression, level, tables);
+            }
+        }
+        FileUtil.del(dir);
+    }
+
+    private static void run(File dir, ResultFileOutput.Compression compression, int level, int tables) throws Exception {
+        String baseName = "bench_" + compression.name().toLowerCase() + "_" + level;
+        ResultFileOutput output = new ResultFileOutput(dir, baseName, ".csv", compression, level, 0);
+        CsvResultWriter writer = new CsvResultWriter(output, CsvExportManager.HEADERS);
+
+        long start = System.nanoTime();
+        writer.open();
+        BenchmarkRows.produce(tables, writer::write);
+        writer.close();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long bytes = output.getCurrentFile().length();
+        System.out.printf("%-5s 级别%2d: %8d ms，%,14d 字节%n", compression, level, elapsedMillis, bytes);
+        for (File file : FileUtil.ls(dir.getAbsolutePath())) {
+            if (file.getName().startsWith(baseName + ".")) {
+                FileUtil.del(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.luolong47.dbchecker.writer;
+
+import io.github.luolong47.dbchecker.entity.TableCsvResult;
+import io.github.luolong47.dbchecker.manager.CsvExportManager;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * XLSX写入器：有界队列下写线程落后时导出线程等待，数据不丢；单sheet行数不能超过Excel上限
+ */
+class XlsxResultWriterTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void boundedQueueKeepsAllRowsAndSplitsSheets() throws Exception {
+        File file = new File(dir, "result.xlsx");
+        XlsxResultWriter writer = new XlsxResultWriter(file, CsvExportManager.HEADERS, 10, 100, 2);
+        writer.start();
+        int tables = 50;
+        for (int t = 0; t < tables; t++) {
+            writer.write("TABLE_" + t, rows("TABLE_" + t, 5));
+        }
+        writer.close();
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(file)) {
+            // 250行按每sheet100行拆成3个sheet，每个sheet另有表头行
+            assertEquals(3, workbook.getNumberOfSheets());
+            assertEquals("公式1", workbook.getSheetName(0));
+            assertEquals("公式1_3", workbook.getSheetName(2));
+            assertEquals(100, workbook.getSheetAt(0).getLastRowNum());
+            assertEquals(50, workbook.getSheetAt(2).getLastRowNum());
+        }
+    }
+
+    @Test
+    void rowsPerSheetBeyondExcelLimitIsRejected() {
+        File file = new File(dir, "result.xlsx");
+        assertThrows(IllegalArgumentException.class,
+            () -> new XlsxResultWriter(file, CsvExportManager.HEADERS, 10, XlsxResultWriter.MAX_ROWS_PER_SHEET + 1, 0));
+        assertEquals(1048575, XlsxResultWriter.MAX_ROWS_PER_SHEET);
+    }
+
+    private static List<TableCsvResult> rows(String tableName, int count) {
+        List<TableCsvResult> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TableCsvResult result = new TableCsvResult();
+            result.setTableName(tableName);
+            result.setCol("COL_" + i);
+            result.setSumOra(BigDecimal.valueOf(i));
+            result.setFormula("公式1: ora = rlcms_pv1 + rlcms_pv2 + rlcms_pv3");
+            result.setFormulaResult("通过");
+            results.add(result);
+        }
+        return results;
+    }
+}